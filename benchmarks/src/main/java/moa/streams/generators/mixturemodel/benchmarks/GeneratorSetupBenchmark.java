@@ -0,0 +1,118 @@
+/*
+ *    GeneratorSetupBenchmark.java
+ *
+ *    Copyright 2017 Richard Hugh Moulton
+ *
+ *    @author Richard Hugh Moulton
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams.generators.mixturemodel.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import moa.streams.generators.mixturemodel.MixtureModelGenerator;
+import moa.streams.generators.mixturemodel.MixtureModelGeneratorDrift;
+import moa.streams.generators.mixturemodel.MixtureModelGeneratorOC;
+
+/**
+ * Benchmarks prepareForUse for each of the three generators. Preparing MixtureModelGeneratorDrift
+ * includes its search for a post-concept drift mixture model, whose cost depends on the drift
+ * magnitude and its precision. Those settings are held by DriftSettings, which only the drift
+ * generator's benchmark uses, so the other generators are not prepared again for every drift
+ * setting. Every invocation prepares a new generator, so the benchmarks are single shot.
+ *
+ * @author Richard Hugh Moulton
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GeneratorSetupBenchmark
+{
+	@Param({"2", "5"})
+	public int numAtts;
+
+	@Param({"2", "5"})
+	public int numClasses;
+
+	/**
+	 * The settings of the drift model search.
+	 */
+	@State(Scope.Thread)
+	public static class DriftSettings
+	{
+		@Param({"0.2", "0.5", "0.8"})
+		public double driftMagnitude;
+
+		@Param({"0.01", "0.05"})
+		public double epsilon;
+
+		@Param({"ImportanceSampling"})
+		public String hellingerEstimator;
+
+		@Param({"false"})
+		public boolean sequentialTest;
+	}
+
+	@Benchmark
+	public MixtureModelGenerator prepareGenerator()
+	{
+		MixtureModelGenerator generator = new MixtureModelGenerator();
+		generator.numAttsOption.setValue(this.numAtts);
+		generator.numClassesOption.setValue(this.numClasses);
+		generator.prepareForUse();
+		return generator;
+	}
+
+	@Benchmark
+	public MixtureModelGeneratorOC prepareGeneratorOC()
+	{
+		MixtureModelGeneratorOC generator = new MixtureModelGeneratorOC();
+		generator.numAttsOption.setValue(this.numAtts);
+		generator.numMajClassesOption.setValue(this.numClasses);
+		generator.prepareForUse();
+		return generator;
+	}
+
+	@Benchmark
+	public MixtureModelGeneratorDrift prepareGeneratorDrift(DriftSettings drift)
+	{
+		MixtureModelGeneratorDrift generator = new MixtureModelGeneratorDrift();
+		generator.numAttsOption.setValue(this.numAtts);
+		generator.numClassesPreOption.setValue(this.numClasses);
+		generator.numClassesPostOption.setValue(this.numClasses);
+		generator.driftMagnitude.setValue(drift.driftMagnitude);
+		generator.precisionDriftMagnitude.setValue(drift.epsilon);
+		generator.hellingerEstimatorOption.setChosenLabel(drift.hellingerEstimator);
+		if(drift.sequentialTest)
+			generator.sequentialTestOption.set();
+		generator.prepareForUse();
+		return generator;
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ *    HellingerEstimatorBenchmark.java
+ *
+ *    Copyright 2017 Richard Hugh Moulton
+ *
+ *    @author Richard Hugh Moulton
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams.generators.mixturemodel.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import moa.streams.generators.mixturemodel.HellingerEstimator;
+import moa.streams.generators.mixturemodel.MixtureModel;
+
+/**
+ * Benchmarks one Monte Carlo estimate of the Hellinger distance between two mixture models, the
+ * step MixtureModelGeneratorDrift repeats for every candidate post-concept drift model.
+ *
+ * @author Richard Hugh Moulton
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HellingerEstimatorBenchmark
+{
+	@Param({"2", "5", "10"})
+	public int dimensions;
+
+	@Param({"2", "5"})
+	public int components;
+
+	@Param({"ImportanceSampling", "UniformMonteCarlo"})
+	public String estimator;
+
+	@Param({"false", "true"})
+	public boolean sequentialTest;
+
+	@Param({"0.5"})
+	public double driftMagnitude;
+
+	@Param({"0.01"})
+	public double epsilon;
+
+	@Param({"1"})
+	public int numWorkers;
+
+	private MixtureModel pre, post;
+	private HellingerEstimator hellingerEstimator;
+	private double integrateRange;
+
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		this.pre = new MixtureModel(this.components, this.dimensions, 1, 1);
+		this.post = new MixtureModel(this.components, this.dimensions, 2, 2);
+		this.hellingerEstimator = new HellingerEstimator(this.numWorkers, 1L);
+		this.hellingerEstimator.setSequentialTest(this.sequentialTest, this.epsilon);
+
+		// The same integration box as MixtureModelGeneratorDrift
+		this.integrateRange = this.components + 4.0;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		this.hellingerEstimator.shutdown();
+	}
+
+	@Benchmark
+	public double estimate()
+	{
+		if(this.estimator.equals("ImportanceSampling"))
+			return this.hellingerEstimator.importanceSampling(this.pre, this.post, this.driftMagnitude);
+		else
+			return this.hellingerEstimator.uniformMonteCarlo(this.pre, this.post, this.driftMagnitude, this.integrateRange);
+	}
+}
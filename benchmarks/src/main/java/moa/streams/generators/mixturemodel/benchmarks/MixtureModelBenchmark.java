@@ -0,0 +1,203 @@
+/*
+ *    MixtureModelBenchmark.java
+ *
+ *    Copyright 2017 Richard Hugh Moulton
+ *
+ *    @author Richard Hugh Moulton
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams.generators.mixturemodel.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import moa.core.InstanceExample;
+import moa.streams.generators.mixturemodel.CovarianceStructure;
+import moa.streams.generators.mixturemodel.MixtureModel;
+
+/**
+ * Benchmarks the operations of a single MixtureModel: drawing instances, evaluating the density,
+ * the closed-form distance between two components and adjusting the model towards another one.
+ *
+ * @author Richard Hugh Moulton
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MixtureModelBenchmark
+{
+	private static final int BATCH_SIZE = 1024;
+	private static final int STRUCTURE_PARAMETER = 5;
+
+	@Param({"2", "10", "50"})
+	public int dimensions;
+
+	@Param({"2", "10", "100"})
+	public int components;
+
+	@Param({"false", "true"})
+	public boolean singlePrecision;
+
+	/** Banded, BlockDiagonal and LowRank structures use a bandwidth, block size or rank of STRUCTURE_PARAMETER. */
+	@Param({"Full", "Diagonal", "Banded", "LowRank"})
+	public String covariance;
+
+	private MixtureModel mixtureModel, targetModel;
+	private InstancesHeader header;
+	private double[] point, points, densities, features;
+	private int[] labels;
+
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		this.mixtureModel = new MixtureModel(this.components, this.dimensions, this.structure(), 1, 1);
+		this.mixtureModel.setSinglePrecision(this.singlePrecision, Double.POSITIVE_INFINITY);
+		this.header = header(this.dimensions, this.components);
+
+		Random random = new Random(1);
+		this.point = new double[this.dimensions];
+		this.points = new double[BATCH_SIZE*this.dimensions];
+
+		for(int i = 0 ; i < this.points.length ; i++)
+		{
+			this.points[i] = random.nextDouble()*10.0;
+		}
+		System.arraycopy(this.points, 0, this.point, 0, this.dimensions);
+
+		this.densities = new double[BATCH_SIZE];
+		this.features = new double[BATCH_SIZE*this.dimensions];
+		this.labels = new int[BATCH_SIZE];
+	}
+
+	/**
+	 * adjustMixtureModel changes the model it is called on, so every iteration starts from a fresh pair.
+	 */
+	@Setup(Level.Iteration)
+	public void setUpAdjustment()
+	{
+		this.targetModel = new MixtureModel(this.components, this.dimensions, this.structure(), 2, 2);
+		this.mixtureModel = new MixtureModel(this.components, this.dimensions, this.structure(), 1, 1);
+		this.mixtureModel.setSinglePrecision(this.singlePrecision, Double.POSITIVE_INFINITY);
+	}
+
+	@Benchmark
+	public InstanceExample nextInstance()
+	{
+		return this.mixtureModel.nextInstance(this.header);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public int[] sampleBatch()
+	{
+		this.mixtureModel.sampleBatch(BATCH_SIZE, this.features, this.labels);
+		return this.labels;
+	}
+
+	@Benchmark
+	public double densityAt()
+	{
+		return this.mixtureModel.densityAt(this.point);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public double[] densityAtBatch()
+	{
+		this.mixtureModel.densityAt(this.points, BATCH_SIZE, this.densities);
+		return this.densities;
+	}
+
+	/**
+	 * The closed-form Hellinger distance between two components goes through their Bhattacharyya coefficient.
+	 */
+	@Benchmark
+	public double componentHellingerDistance()
+	{
+		return Math.sqrt(1.0 - MixtureModel.bhattacharyyaCoefficient(this.mixtureModel, 0, this.mixtureModel, 1));
+	}
+
+	@Benchmark
+	public void adjustMixtureModel(Blackhole blackhole)
+	{
+		this.mixtureModel.adjustMixtureModel(this.targetModel, 0.01);
+		blackhole.consume(this.mixtureModel);
+	}
+
+	/**
+	 * @return the covariance structure named by the covariance parameter
+	 */
+	private CovarianceStructure structure()
+	{
+		if(this.covariance.equals("Diagonal"))
+			return new CovarianceStructure(CovarianceStructure.DIAGONAL, 0);
+		else if(this.covariance.equals("Banded"))
+			return new CovarianceStructure(CovarianceStructure.BANDED, STRUCTURE_PARAMETER);
+		else if(this.covariance.equals("BlockDiagonal"))
+			return new CovarianceStructure(CovarianceStructure.BLOCK_DIAGONAL, STRUCTURE_PARAMETER);
+		else if(this.covariance.equals("LowRank"))
+			return new CovarianceStructure(CovarianceStructure.LOW_RANK, STRUCTURE_PARAMETER);
+		else
+			return CovarianceStructure.full();
+	}
+
+	/**
+	 * @return a header with the argument number of real attributes and classes
+	 */
+	static InstancesHeader header(int dimensions, int numClasses)
+	{
+		List<Attribute> attributes = new ArrayList<Attribute>();
+		List<String> classLabels = new ArrayList<String>();
+
+		for(int i = 0 ; i < dimensions ; i++)
+		{
+			attributes.add(new Attribute("att" + (i+1)));
+		}
+		for(int i = 0 ; i < numClasses ; i++)
+		{
+			classLabels.add("class" + (i+1));
+		}
+		attributes.add(new Attribute("class", classLabels));
+
+		InstancesHeader header = new InstancesHeader(new Instances("benchmark", attributes, 0));
+		header.setClassIndex(dimensions);
+		return header;
+	}
+}
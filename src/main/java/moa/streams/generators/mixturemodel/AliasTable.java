@@ -0,0 +1,141 @@
+/*
+ *    AliasTable.java
+ *
+ *    Copyright 2017 Richard Hugh Moulton
+ *
+ *    @author Richard Hugh Moulton
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams.generators.mixturemodel;
+
+import java.util.Random;
+
+/**
+ * Walker's alias method, built with Vose's algorithm, for drawing an index according to a
+ * vector of weights. Building the table costs O(n) and each draw afterwards costs O(1),
+ * whereas a linear scan over the weights costs O(n) per draw.
+ *
+ * Weights need not be normalized; negative weights are treated as zero.
+ *
+ * @author Richard Hugh Moulton
+ */
+class AliasTable
+{
+	private int size;
+	private double[] probability;
+	private int[] alias;
+	private double[] scaled;
+	private int[] small, large;
+
+	/**
+	 * Constructor method for a new AliasTable over the argument weights.
+	 *
+	 * @param weights the weights of the indices
+	 */
+	AliasTable(double[] weights)
+	{
+		this.rebuild(weights);
+	}
+
+	/**
+	 * Rebuilds the table for a new weight vector. The table's arrays are reused when the
+	 * number of weights has not changed.
+	 *
+	 * @param weights the weights of the indices
+	 */
+	void rebuild(double[] weights)
+	{
+		int n = weights.length;
+
+		if(this.probability == null || this.size != n)
+		{
+			this.size = n;
+			this.probability = new double[n];
+			this.alias = new int[n];
+			this.scaled = new double[n];
+			this.small = new int[n];
+			this.large = new int[n];
+		}
+
+		double weightSum = 0.0;
+		for(int i = 0 ; i < n ; i++)
+		{
+			weightSum += Math.max(weights[i], 0.0);
+		}
+
+		// Scale the weights so that they average 1 and split them into the under- and over-full
+		int numSmall = 0, numLarge = 0;
+		for(int i = 0 ; i < n ; i++)
+		{
+			this.scaled[i] = (weightSum > 0.0) ? (Math.max(weights[i], 0.0)*n)/weightSum : 1.0;
+
+			if(this.scaled[i] < 1.0)
+				this.small[numSmall++] = i;
+			else
+				this.large[numLarge++] = i;
+		}
+
+		// Each under-full column is topped up by an over-full one, which becomes its alias
+		while(numSmall > 0 && numLarge > 0)
+		{
+			int s = this.small[--numSmall];
+			int l = this.large[--numLarge];
+
+			this.probability[s] = this.scaled[s];
+			this.alias[s] = l;
+
+			this.scaled[l] = (this.scaled[l]+this.scaled[s])-1.0;
+
+			if(this.scaled[l] < 1.0)
+				this.small[numSmall++] = l;
+			else
+				this.large[numLarge++] = l;
+		}
+
+		// Whatever remains is full up to rounding error
+		while(numLarge > 0)
+		{
+			int l = this.large[--numLarge];
+			this.probability[l] = 1.0;
+			this.alias[l] = l;
+		}
+
+		while(numSmall > 0)
+		{
+			int s = this.small[--numSmall];
+			this.probability[s] = 1.0;
+			this.alias[s] = s;
+		}
+	}
+
+	/**
+	 * Draws an index. A single uniform variate picks the column with its integer part and
+	 * decides between the column and its alias with its fractional part.
+	 *
+	 * @param random the pseudo random number generator to draw from
+	 * @return an index chosen with probability proportional to its weight
+	 */
+	int sample(Random random)
+	{
+		double u = random.nextDouble()*this.size;
+		int column = (int)u;
+
+		if(column >= this.size)
+			column = this.size-1;
+
+		return ((u-column) < this.probability[column]) ? column : this.alias[column];
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ *    BatchInstanceStream.java
+ *
+ *    Copyright 2017 Richard Hugh Moulton
+ *
+ *    @author Richard Hugh Moulton
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams.generators.mixturemodel;
+
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import moa.streams.InstanceStream;
+
+/**
+ * An instance stream that can also write its instances into caller-owned primitive buffers,
+ * so that large numbers of them can be consumed without creating an Instance for each.
+ *
+ * @author Richard Hugh Moulton
+ */
+public interface BatchInstanceStream extends InstanceStream
+{
+	/**
+	 * @return the number of attribute values in each row written by nextBatch, not counting the class
+	 */
+	int getNumBatchAttributes();
+
+	/**
+	 * @return a header declaring every class that the stream will ever emit. This is getHeader()
+	 *         unless the stream's header gains classes as it goes on, as a drifting stream's may.
+	 */
+	default InstancesHeader getBatchHeader()
+	{
+		return this.getHeader();
+	}
+
+	/**
+	 * Generates the next n instances in the stream into the argument buffers. Row r's attribute values occupy
+	 * attributesOut[r*a] through attributesOut[(r+1)*a - 1], where a is getNumBatchAttributes(), and its
+	 * class index is written to classesOut[r]. The rows are the same as those nextInstance would return
+	 * and the stream advances by n instances.
+	 *
+	 * @param n the number of instances to generate
+	 * @param attributesOut the row-major buffer receiving the attribute values, of length at least n*a
+	 * @param classesOut the buffer receiving the class indices, of length at least n
+	 */
+	void nextBatch(int n, double[] attributesOut, int[] classesOut);
+}
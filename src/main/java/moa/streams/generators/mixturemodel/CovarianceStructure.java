@@ -0,0 +1,172 @@
+/*
+ *    CovarianceStructure.java
+ *
+ *    Copyright 2017 Richard Hugh Moulton
+ *
+ *    @author Richard Hugh Moulton
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams.generators.mixturemodel;
+
+/**
+ * The structure of the covariance matrices of a mixture model's multivariate normal distributions
+ * (MVNDs). Each covariance matrix is stored as L*L' + W*W', where L is lower triangular and W has
+ * getRank() columns. The structure fixes which entries of L may be non-zero: row j of L holds
+ * L[j][firstColumn(j)..j] and is zero to the left of that.
+ * <ul>
+ * <li>Full: L is a dense lower triangular matrix and W is empty.</li>
+ * <li>Diagonal: L is diagonal and W is empty, so the attributes are independent.</li>
+ * <li>Banded: L has parameter non-zero diagonals below its main diagonal, and so does the covariance.</li>
+ * <li>BlockDiagonal: L, and so the covariance, is block diagonal with blocks of parameter attributes.</li>
+ * <li>LowRank: L is diagonal and W has parameter columns, a diagonal plus low-rank covariance.</li>
+ * </ul>
+ * Sampling and density evaluation then take time proportional to the number of stored entries:
+ * <ul>
+ * <li>Full: d(d+1)/2.</li>
+ * <li>Diagonal: d.</li>
+ * <li>Banded: d(parameter+1) - parameter(parameter+1)/2, about d(parameter+1).</li>
+ * <li>BlockDiagonal: about d(parameter+1)/2, parameter(parameter+1)/2 for each block.</li>
+ * <li>LowRank: d(parameter+1), d for L and d*parameter for W.</li>
+ * </ul>
+ * One structure applies to all of a mixture model's MVNDs.
+ *
+ * @author Richard Hugh Moulton
+ */
+public class CovarianceStructure
+{
+	public static final int FULL = 0;
+	public static final int DIAGONAL = 1;
+	public static final int BANDED = 2;
+	public static final int BLOCK_DIAGONAL = 3;
+	public static final int LOW_RANK = 4;
+
+	/** The structures' names, indexed by type, as offered by the generators' covariance option. */
+	static final String[] NAMES = {"Full", "Diagonal", "Banded", "BlockDiagonal", "LowRank"};
+
+	/** The structures' descriptions, indexed by type. */
+	static final String[] DESCRIPTIONS = {
+			"Dense covariance matrices; sampling and density evaluation take O(d^2) time per model.",
+			"Independent attributes; O(d) time per model.",
+			"Covariance matrices with covarianceParameter non-zero diagonals on either side of the main one; O(d*covarianceParameter) time per model.",
+			"Block diagonal covariance matrices with blocks of covarianceParameter attributes; O(d*covarianceParameter) time per model.",
+			"A diagonal matrix plus one of rank covarianceParameter; O(d*covarianceParameter) time per model."};
+
+	private static final CovarianceStructure FULL_STRUCTURE = new CovarianceStructure(FULL, 0);
+
+	private final int type, parameter;
+
+	/**
+	 * Constructor method for a new CovarianceStructure.
+	 *
+	 * @param type one of FULL, DIAGONAL, BANDED, BLOCK_DIAGONAL and LOW_RANK
+	 * @param parameter the bandwidth of BANDED, the block size of BLOCK_DIAGONAL or the rank of LOW_RANK
+	 *                  structures; ignored by the others
+	 */
+	public CovarianceStructure(int type, int parameter)
+	{
+		if(type < FULL || type > LOW_RANK)
+			throw new IllegalArgumentException("Unknown covariance structure "+type+".");
+		if(type == BANDED && parameter < 0)
+			throw new IllegalArgumentException("The bandwidth must not be negative.");
+		if((type == BLOCK_DIAGONAL || type == LOW_RANK) && parameter < 1)
+			throw new IllegalArgumentException("The "+(type == LOW_RANK ? "rank" : "block size")+" must be positive.");
+
+		this.type = type;
+		this.parameter = (type == FULL || type == DIAGONAL) ? 0 : parameter;
+	}
+
+	/**
+	 * @return the structure of dense covariance matrices
+	 */
+	public static CovarianceStructure full()
+	{
+		return FULL_STRUCTURE;
+	}
+
+	/**
+	 * @return one of FULL, DIAGONAL, BANDED, BLOCK_DIAGONAL and LOW_RANK
+	 */
+	public int getType()
+	{
+		return this.type;
+	}
+
+	/**
+	 * @return the bandwidth, block size or rank, or 0 for FULL and DIAGONAL structures
+	 */
+	public int getParameter()
+	{
+		return this.parameter;
+	}
+
+	/**
+	 * @return whether the covariance matrices are dense
+	 */
+	public boolean isFull()
+	{
+		return this.type == FULL;
+	}
+
+	/**
+	 * @param row a row of L
+	 * @return the first column of the row that may be non-zero
+	 */
+	public int firstColumn(int row)
+	{
+		switch(this.type)
+		{
+		case DIAGONAL:
+		case LOW_RANK:
+			return row;
+		case BANDED:
+			return Math.max(0, row - this.parameter);
+		case BLOCK_DIAGONAL:
+			return row - (row % this.parameter);
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * @return the number of columns of W
+	 */
+	public int getRank()
+	{
+		return (this.type == LOW_RANK) ? this.parameter : 0;
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		if(!(o instanceof CovarianceStructure))
+			return false;
+
+		CovarianceStructure other = (CovarianceStructure)o;
+		return this.type == other.type && this.parameter == other.parameter;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return 31*this.type + this.parameter;
+	}
+
+	@Override
+	public String toString()
+	{
+		return (this.parameter > 0) ? NAMES[this.type]+"("+this.parameter+")" : NAMES[this.type];
+	}
+}
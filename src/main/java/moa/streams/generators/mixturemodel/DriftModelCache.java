@@ -0,0 +1,206 @@
+/*
+ *    DriftModelCache.java
+ *
+ *    Copyright 2017 Richard Hugh Moulton
+ *
+ *    @author Richard Hugh Moulton
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams.generators.mixturemodel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * An on-disk cache of the pre- and post-concept drift mixture models found by
+ * MixtureModelGeneratorDrift's model search. Each entry is a file named after a hash of the
+ * generator's options; the options themselves are stored in the file and compared on load so
+ * that a hash collision can never return the wrong models.
+ *
+ * The models are stored in MixtureModel's binary format, preceded by their seeds and by the
+ * Hellinger distance between them that the search estimated. Only models whose distance is
+ * within epsilon of the desired drift magnitude are stored.
+ *
+ * Entries are written to a temporary file and then renamed, so several experiments sharing
+ * a cache directory never read a partially written entry.
+ *
+ * @author Richard Hugh Moulton
+ */
+class DriftModelCache
+{
+	private static final int MAGIC = 0x4D4D4443;
+	private static final int VERSION = 3;
+
+	private File directory;
+
+	/**
+	 * Constructor method for a new DriftModelCache.
+	 *
+	 * @param directory the directory holding the cache's entries, created if needed
+	 */
+	DriftModelCache(File directory)
+	{
+		this.directory = directory;
+	}
+
+	/**
+	 * Looks up the mixture models stored under the argument key.
+	 *
+	 * @param key the generator's options
+	 * @return the entry, or null if there is no entry for the key or if it was written by another
+	 * version of the cache
+	 * @throws IOException if the entry exists but cannot be read or is not a cache entry
+	 */
+	Entry load(String key) throws IOException
+	{
+		File file = this.entryFile(key);
+
+		if(!file.isFile())
+			return null;
+
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+		{
+			if(in.readInt() != MAGIC)
+				throw new IOException("Not a drift model cache entry: "+file);
+
+			// Entries written by another version of the cache are searched for again and replaced
+			if(in.readInt() != VERSION || !in.readUTF().equals(key))
+				return null;
+
+			double hellingerDistance = in.readDouble();
+			MixtureModel pre = readModel(in);
+			MixtureModel post = readModel(in);
+
+			return new Entry(pre, post, hellingerDistance);
+		}
+	}
+
+	/**
+	 * Stores the argument mixture models under the argument key, replacing any previous entry.
+	 *
+	 * @param key the generator's options
+	 * @param hellingerDistance the estimated Hellinger distance between pre and post
+	 * @param pre the pre-concept drift mixture model
+	 * @param preInstanceSeed the seed of pre's instances' pseudo random number generator
+	 * @param preModelSeed the seed of pre's models' pseudo random number generator
+	 * @param post the post-concept drift mixture model
+	 * @param postInstanceSeed the seed of post's instances' pseudo random number generator
+	 * @param postModelSeed the seed of post's models' pseudo random number generator
+	 * @throws IOException if the entry cannot be written
+	 */
+	void store(String key, double hellingerDistance, MixtureModel pre, int preInstanceSeed, int preModelSeed,
+			MixtureModel post, int postInstanceSeed, int postModelSeed) throws IOException
+	{
+		if(!this.directory.isDirectory() && !this.directory.mkdirs())
+			throw new IOException("Cannot create the drift model cache directory "+this.directory);
+
+		File file = this.entryFile(key);
+		File temp = File.createTempFile(file.getName(), ".tmp", this.directory);
+
+		try
+		{
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp))))
+			{
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(key);
+				out.writeDouble(hellingerDistance);
+				writeModel(out, pre, preInstanceSeed, preModelSeed);
+				writeModel(out, post, postInstanceSeed, postModelSeed);
+			}
+
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally
+		{
+			temp.delete();
+		}
+	}
+
+	/**
+	 * @param key the generator's options
+	 * @return the file holding the entry for the key
+	 */
+	private File entryFile(String key)
+	{
+		try
+		{
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+			StringBuilder sb = new StringBuilder();
+
+			for(int i = 0 ; i < 16 ; i++)
+			{
+				sb.append(String.format("%02x", digest[i]));
+			}
+
+			return new File(this.directory, sb.append(".mmd").toString());
+		}
+		catch(NoSuchAlgorithmException e)
+		{
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Writes a mixture model's seeds followed by the model itself.
+	 */
+	private static void writeModel(DataOutputStream out, MixtureModel mm, int instanceSeed, int modelSeed) throws IOException
+	{
+		out.writeInt(instanceSeed);
+		out.writeInt(modelSeed);
+		mm.writeTo(out);
+	}
+
+	/**
+	 * Reads a mixture model written by writeModel.
+	 */
+	private static MixtureModel readModel(DataInputStream in) throws IOException
+	{
+		int instanceSeed = in.readInt();
+		int modelSeed = in.readInt();
+
+		return MixtureModel.readFrom(in, instanceSeed, modelSeed);
+	}
+
+	/**
+	 * A cache entry: the pre- and post-concept drift mixture models and the estimated Hellinger
+	 * distance between them.
+	 */
+	static class Entry
+	{
+		final MixtureModel pre, post;
+		final double hellingerDistance;
+
+		Entry(MixtureModel pre, MixtureModel post, double hellingerDistance)
+		{
+			this.pre = pre;
+			this.post = post;
+			this.hellingerDistance = hellingerDistance;
+		}
+	}
+}
@@ -0,0 +1,206 @@
+/*
+ *    DriftModelSearch.java
+ *
+ *    Copyright 2017 Richard Hugh Moulton
+ *
+ *    @author Richard Hugh Moulton
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams.generators.mixturemodel;
+
+import moa.tasks.TaskMonitor;
+
+/**
+ * Drives MixtureModelGeneratorDrift's search for a post-concept drift mixture model at the
+ * desired Hellinger distance from the pre-concept drift one. Every candidate the search
+ * evaluates is handed to evaluate, which keeps a copy of the closest candidate so far, reports
+ * progress through the task monitor and tells the search when to stop: once a candidate is
+ * within epsilon of the desired distance, once the wall-clock time or the Monte Carlo samples
+ * run out, or once the task is cancelled.
+ *
+ * The budget is checked between Hellinger distance estimates, so the search may overrun it by
+ * up to one estimate.
+ *
+ * @author Richard Hugh Moulton
+ */
+class DriftModelSearch
+{
+	private final TaskMonitor monitor;
+	private final double targetDist, epsilon;
+	private final long maxNanos, maxSamples, start;
+
+	private long candidates;
+	private boolean converged, cancelled, exhausted;
+	private double bestDist = Double.NaN;
+	private int bestPreOffset, bestPostOffset;
+	private double[] bestWeights;
+	private double[][] bestMeans;
+	private PackedFactors bestFactors;
+
+	/**
+	 * Constructor method for a new DriftModelSearch, whose clock starts immediately.
+	 *
+	 * @param monitor the task monitor to report progress to and to check for cancellation
+	 * @param targetDist the desired Hellinger distance between the mixture models
+	 * @param epsilon how far from targetDist a candidate may be
+	 * @param maxNanos the wall-clock time the search may take, in nanoseconds, or 0 for no limit
+	 * @param maxSamples the number of Monte Carlo samples the search may draw, or 0 for no limit
+	 */
+	DriftModelSearch(TaskMonitor monitor, double targetDist, double epsilon, long maxNanos, long maxSamples)
+	{
+		this.monitor = monitor;
+		this.targetDist = targetDist;
+		this.epsilon = epsilon;
+		this.maxNanos = maxNanos;
+		this.maxSamples = maxSamples;
+		this.start = System.nanoTime();
+
+		this.monitor.setCurrentActivity("Searching for the drift mixture models...", -1.0);
+	}
+
+	/**
+	 * Records an evaluated candidate and decides whether the search should stop.
+	 *
+	 * @param post the candidate post-concept drift mixture model, copied if it is the closest so far
+	 * @param preOffset the seed offset of the pre-concept drift mixture model
+	 * @param postOffset the seed offset from which the candidate was generated
+	 * @param hDist the candidate's Hellinger distance from the pre-concept drift mixture model
+	 * @param samplesDrawn the number of Monte Carlo samples drawn by the search so far
+	 * @return true if the search should stop, either with this candidate or with the closest one
+	 */
+	boolean evaluate(MixtureModel post, int preOffset, int postOffset, double hDist, long samplesDrawn)
+	{
+		this.candidates++;
+
+		double miss = Math.abs(hDist - this.targetDist);
+
+		if(!(miss > this.epsilon))
+		{
+			this.converged = true;
+			this.bestDist = hDist;
+			this.bestPreOffset = preOffset;
+			this.bestPostOffset = postOffset;
+			this.bestWeights = null;
+			this.bestMeans = null;
+			this.bestFactors = null;
+			return true;
+		}
+
+		if(Double.isNaN(this.bestDist) || miss < Math.abs(this.bestDist - this.targetDist))
+		{
+			this.bestDist = hDist;
+			this.bestPreOffset = preOffset;
+			this.bestPostOffset = postOffset;
+			this.bestWeights = post.getWeights().clone();
+			this.bestMeans = new double[post.getNumModels()][];
+
+			for(int i = 0 ; i < post.getNumModels() ; i++)
+			{
+				this.bestMeans[i] = post.getMeans(i);
+			}
+
+			this.bestFactors = post.copyFactors();
+		}
+
+		long elapsed = System.nanoTime() - this.start;
+		double fraction = -1.0;
+
+		if(this.maxNanos > 0)
+			fraction = Math.max(fraction, (double)elapsed/this.maxNanos);
+		if(this.maxSamples > 0)
+			fraction = Math.max(fraction, (double)samplesDrawn/this.maxSamples);
+
+		this.monitor.setCurrentActivityDescription("Searching for the drift mixture models: "+this.candidates
+				+" candidates evaluated, closest miss "+Math.abs(this.bestDist - this.targetDist));
+		this.monitor.setCurrentActivityFractionComplete(Math.min(fraction, 1.0));
+
+		this.cancelled = this.monitor.taskShouldAbort();
+		this.exhausted = (this.maxNanos > 0 && elapsed >= this.maxNanos) || (this.maxSamples > 0 && samplesDrawn >= this.maxSamples);
+
+		return this.cancelled || this.exhausted;
+	}
+
+	/**
+	 * @return whether a candidate within epsilon of the desired Hellinger distance was found
+	 */
+	boolean isConverged()
+	{
+		return this.converged;
+	}
+
+	/**
+	 * @return whether the search stopped because the task was cancelled
+	 */
+	boolean isCancelled()
+	{
+		return this.cancelled;
+	}
+
+	/**
+	 * @return the number of candidates evaluated
+	 */
+	long getCandidates()
+	{
+		return this.candidates;
+	}
+
+	/**
+	 * @return the Hellinger distance of the closest candidate, or NaN if no candidate was evaluated
+	 */
+	double getBestDistance()
+	{
+		return this.bestDist;
+	}
+
+	/**
+	 * @return the seed offset of the closest candidate's pre-concept drift mixture model
+	 */
+	int getBestPreOffset()
+	{
+		return this.bestPreOffset;
+	}
+
+	/**
+	 * @return the seed offset from which the closest candidate was generated
+	 */
+	int getBestPostOffset()
+	{
+		return this.bestPostOffset;
+	}
+
+	/**
+	 * Rebuilds the closest candidate from its copied weights, means and L matrices. Only the
+	 * closest candidates that were not within epsilon are copied, since the search ends with the
+	 * one that is. The copy is handed over, so this may be called once.
+	 *
+	 * @param instanceRandomSeed the seed for the instances' pseudo random number generator.
+	 * @param modelRandomSeed the seed for the models' pseudo random number generator.
+	 * @return the closest candidate post-concept drift mixture model, or null if there is no copy
+	 */
+	MixtureModel getBestPost(int instanceRandomSeed, int modelRandomSeed)
+	{
+		if(this.bestFactors == null)
+			return null;
+
+		MixtureModel bestPost = new MixtureModel(this.bestWeights, this.bestMeans, this.bestFactors, instanceRandomSeed, modelRandomSeed);
+
+		this.bestWeights = null;
+		this.bestMeans = null;
+		this.bestFactors = null;
+
+		return bestPost;
+	}
+}
@@ -0,0 +1,269 @@
+/*
+ *    GeneratorStatistics.java
+ *
+ *    Copyright 2017 Richard Hugh Moulton
+ *
+ *    @author Richard Hugh Moulton
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams.generators.mixturemodel;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counts what a generator does, for one generator instance, and exposes the counts as a JMX MBean
+ * named moa.streams.generators.mixturemodel:type=(generator class),id=(number). The generators
+ * create one when their jmx option is set and otherwise skip the counting altogether. The MBean
+ * stays registered until the generator's unregisterStatistics() is called or the generator is
+ * prepared again.
+ *
+ * The counters are LongAdders, which spread concurrent updates over several cells instead of
+ * contending for one, so that counting costs a few nanoseconds per instance even when several
+ * threads generate instances and a JMX client reads the counts at the same time.
+ *
+ * @author Richard Hugh Moulton
+ */
+public class GeneratorStatistics implements GeneratorStatisticsMBean
+{
+	private static final Logger LOGGER = Logger.getLogger(GeneratorStatistics.class.getName());
+	private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+	private final LongAdder instances = new LongAdder();
+	private final LongAdder[] classCounts;
+	private final LongAdder searchIterations = new LongAdder();
+	private final LongAdder hellingerNanos = new LongAdder();
+	private final LongAdder adjustNanos = new LongAdder();
+	private volatile long monteCarloSamples, setupNanos, startNanos;
+	private ObjectName name;
+
+	/**
+	 * Constructor method for new GeneratorStatistics, which are not registered with the MBean server.
+	 *
+	 * @param numClasses the number of classes the generator may emit
+	 */
+	GeneratorStatistics(int numClasses)
+	{
+		this.classCounts = new LongAdder[numClasses];
+
+		for(int i = 0 ; i < numClasses ; i++)
+		{
+			this.classCounts[i] = new LongAdder();
+		}
+
+		this.startNanos = System.nanoTime();
+	}
+
+	/**
+	 * Creates statistics for the argument generator and registers them with the platform MBean server.
+	 * If they cannot be registered, a warning is logged and the statistics are still counted.
+	 *
+	 * @param generator the generator whose statistics these are
+	 * @param numClasses the number of classes the generator may emit
+	 * @return the statistics
+	 */
+	static GeneratorStatistics register(Object generator, int numClasses)
+	{
+		GeneratorStatistics statistics = new GeneratorStatistics(numClasses);
+
+		try
+		{
+			ObjectName name = new ObjectName(GeneratorStatistics.class.getPackage().getName()
+					+":type="+generator.getClass().getSimpleName()+",id="+NEXT_ID.getAndIncrement());
+			ManagementFactory.getPlatformMBeanServer().registerMBean(statistics, name);
+			statistics.name = name;
+		}
+		catch(JMException e)
+		{
+			LOGGER.log(Level.WARNING, "Could not register the generator statistics MBean: {0}", e.getMessage());
+		}
+
+		return statistics;
+	}
+
+	/**
+	 * Removes the statistics from the platform MBean server, if they were registered.
+	 */
+	void unregister()
+	{
+		if(this.name == null)
+			return;
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+		try
+		{
+			if(server.isRegistered(this.name))
+				server.unregisterMBean(this.name);
+		}
+		catch(JMException e)
+		{
+			LOGGER.log(Level.WARNING, "Could not unregister the generator statistics MBean: {0}", e.getMessage());
+		}
+
+		this.name = null;
+	}
+
+	/**
+	 * @return the name under which the statistics are registered, or null if they are not
+	 */
+	ObjectName getName()
+	{
+		return this.name;
+	}
+
+	/**
+	 * Counts one emitted instance.
+	 *
+	 * @param classValue the instance's class
+	 */
+	void recordInstance(int classValue)
+	{
+		this.instances.increment();
+		this.classCounts[classValue].increment();
+	}
+
+	/**
+	 * Counts a batch of emitted instances.
+	 *
+	 * @param classes the buffer holding the instances' classes
+	 * @param offset the position in classes of the first instance's class
+	 * @param count the number of instances
+	 */
+	void recordBatch(int[] classes, int offset, int count)
+	{
+		this.instances.add(count);
+
+		for(int r = offset ; r < offset+count ; r++)
+		{
+			this.classCounts[classes[r]].increment();
+		}
+	}
+
+	/**
+	 * Counts one Hellinger distance estimate of the drift model search.
+	 *
+	 * @param nanos the time the estimate took, in nanoseconds
+	 */
+	void recordHellingerDistance(long nanos)
+	{
+		this.searchIterations.increment();
+		this.hellingerNanos.add(nanos);
+	}
+
+	/**
+	 * @param nanos the time an adjustment of a mixture model took, in nanoseconds
+	 */
+	void recordAdjustment(long nanos)
+	{
+		this.adjustNanos.add(nanos);
+	}
+
+	/**
+	 * @param samples the total number of Monte Carlo samples the drift model search has drawn
+	 */
+	void setMonteCarloSamples(long samples)
+	{
+		this.monteCarloSamples = samples;
+	}
+
+	/**
+	 * Records the time the generator took to prepare and starts measuring its throughput.
+	 *
+	 * @param nanos the time the generator took to prepare, in nanoseconds
+	 */
+	void setSetupTime(long nanos)
+	{
+		this.setupNanos = nanos;
+		this.startNanos = System.nanoTime();
+	}
+
+	@Override
+	public long getInstancesEmitted()
+	{
+		return this.instances.sum();
+	}
+
+	@Override
+	public double getInstancesPerSecond()
+	{
+		double seconds = (System.nanoTime() - this.startNanos)/1e9;
+		return (seconds > 0.0) ? this.instances.sum()/seconds : 0.0;
+	}
+
+	@Override
+	public long[] getClassCounts()
+	{
+		long[] counts = new long[this.classCounts.length];
+
+		for(int i = 0 ; i < counts.length ; i++)
+		{
+			counts[i] = this.classCounts[i].sum();
+		}
+
+		return counts;
+	}
+
+	@Override
+	public double getSetupSeconds()
+	{
+		return this.setupNanos/1e9;
+	}
+
+	@Override
+	public long getDriftSearchIterations()
+	{
+		return this.searchIterations.sum();
+	}
+
+	@Override
+	public long getMonteCarloSamples()
+	{
+		return this.monteCarloSamples;
+	}
+
+	@Override
+	public double getHellingerDistanceSeconds()
+	{
+		return this.hellingerNanos.sum()/1e9;
+	}
+
+	@Override
+	public double getAdjustMixtureModelSeconds()
+	{
+		return this.adjustNanos.sum()/1e9;
+	}
+
+	@Override
+	public void reset()
+	{
+		this.instances.reset();
+
+		for(LongAdder count : this.classCounts)
+		{
+			count.reset();
+		}
+
+		this.startNanos = System.nanoTime();
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ *    GeneratorStatisticsMBean.java
+ *
+ *    Copyright 2017 Richard Hugh Moulton
+ *
+ *    @author Richard Hugh Moulton
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams.generators.mixturemodel;
+
+/**
+ * The management interface through which a generator's statistics are exposed over JMX.
+ *
+ * @see moa.streams.generators.mixturemodel.GeneratorStatistics
+ *
+ * @author Richard Hugh Moulton
+ */
+public interface GeneratorStatisticsMBean
+{
+	/**
+	 * @return the number of instances the generator has emitted since it was prepared or the statistics were reset
+	 */
+	long getInstancesEmitted();
+
+	/**
+	 * @return the average number of instances emitted per second since the generator was prepared or the statistics were reset
+	 */
+	double getInstancesPerSecond();
+
+	/**
+	 * @return the number of instances emitted of each class
+	 */
+	long[] getClassCounts();
+
+	/**
+	 * @return the number of seconds the generator took to prepare, including any drift model search
+	 */
+	double getSetupSeconds();
+
+	/**
+	 * @return the number of Hellinger distances the drift model search has estimated
+	 */
+	long getDriftSearchIterations();
+
+	/**
+	 * @return the number of Monte Carlo samples the drift model search has drawn
+	 */
+	long getMonteCarloSamples();
+
+	/**
+	 * @return the number of seconds spent estimating Hellinger distances
+	 */
+	double getHellingerDistanceSeconds();
+
+	/**
+	 * @return the number of seconds spent adjusting mixture models, by the drift model search or by an evolving generator's drift
+	 */
+	double getAdjustMixtureModelSeconds();
+
+	/**
+	 * Sets the instance and class counts back to zero and restarts the throughput measurement.
+	 * The setup and search statistics are kept.
+	 */
+	void reset();
+}
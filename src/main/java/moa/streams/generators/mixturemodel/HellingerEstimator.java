@@ -0,0 +1,552 @@
+/*
+ *    HellingerEstimator.java
+ *
+ *    Copyright 2017 Richard Hugh Moulton
+ *
+ *    @author Richard Hugh Moulton
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams.generators.mixturemodel;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Estimates the Hellinger distance between two mixture models by Monte Carlo integration,
+ * optionally spread over several worker threads, and bounds it in closed form.
+ *
+ * The samples are drawn by a fixed number of independent streams, each with its own pseudo
+ * random number generator split from the estimator's seed. The streams draw their samples in
+ * rounds and, after each round, their running statistics are merged in stream order. The
+ * estimate is therefore the same for a given seed whatever the number of workers.
+ *
+ * @author Richard Hugh Moulton
+ */
+public class HellingerEstimator
+{
+	private static final int NUM_STREAMS = 64;
+	private static final int SAMPLES_PER_CHUNK = 256;
+	private static final double MIN_SAMPLES_UNIFORM = 1000000;
+	private static final double MIN_SAMPLES_IMPORTANCE = 10000;
+	private static final double MAX_ERROR = 0.001;
+	private static final long FIRST_CHECKPOINT = 1024;
+	private static final long SEQUENTIAL_BUDGET = 1L << 24;
+	private static final double CONFIDENCE_Z = 3.0;
+
+	private int numWorkers;
+	private long seed;
+	private ForkJoinPool pool;
+	private boolean sequentialTest;
+	private double tolerance;
+	private long samplesDrawn;
+
+	/**
+	 * Constructor method for a new HellingerEstimator.
+	 *
+	 * @param numWorkers the number of threads to evaluate the integrand on
+	 * @param seed the seed from which every sample stream's pseudo random number generator is split
+	 */
+	public HellingerEstimator(int numWorkers, long seed)
+	{
+		this.numWorkers = Math.max(1, numWorkers);
+		this.seed = seed;
+	}
+
+	/**
+	 * Switches the estimator between its fixed stopping rule and a sequential test. The sequential
+	 * test examines a confidence interval on the distance after 1024, 2048, 4096, ... samples and
+	 * stops as soon as the interval lies entirely outside or entirely inside targetDist +/- tolerance.
+	 * Candidates that are clearly too near or too far are rejected after a few thousand samples, and
+	 * only those whose interval straddles the edge of the desired range use the full sample budget.
+	 *
+	 * @param sequentialTest whether to use the sequential test
+	 * @param tolerance how far from the target distance an estimate may be and still be acceptable
+	 */
+	public void setSequentialTest(boolean sequentialTest, double tolerance)
+	{
+		this.sequentialTest = sequentialTest;
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * Uses Monte Carlo integration over a box of side integrateRange centred on the origin to
+	 * calculate the Hellinger distance between the two argument mixture models. The integration
+	 * stops once the error is small or, after a sufficient base of samples, once the target
+	 * distance lies outside the error margin around the estimate.
+	 *
+	 * The variance of this estimate grows with the volume of the box, and so exponentially with
+	 * the number of dimensions.
+	 *
+	 * @param mm1 the first mixture model
+	 * @param mm2 the second mixture model
+	 * @param targetDist the Hellinger distance that is being searched for
+	 * @param integrateRange the side of the box to integrate over
+	 * @return the Hellinger distance between mm1 and mm2
+	 */
+	public double uniformMonteCarlo(final MixtureModel mm1, final MixtureModel mm2, double targetDist, final double integrateRange)
+	{
+		final int dimensions = mm1.getDimensions();
+		double volume = Math.pow(integrateRange,(double)dimensions);
+
+		ChunkSampler sampler = new ChunkSampler()
+		{
+			@Override
+			public void sample(SampleStream stream, int count)
+			{
+				double[] points = stream.points;
+
+				// Randomly generate the points at which to evaluate the function
+				for(int i = 0 ; i < count*dimensions ; i++)
+				{
+					points[i] = (stream.random.nextDouble()*integrateRange) - (integrateRange/2.0);
+				}
+
+				mm1.logDensityAt(points, count, stream.logP, stream.workspace);
+				mm2.logDensityAt(points, count, stream.logQ, stream.workspace);
+
+				for(int n = 0 ; n < count ; n++)
+				{
+					stream.statistics.add(Math.exp(0.5*(stream.logP[n] + stream.logQ[n])));
+				}
+			}
+		};
+
+		return this.integrate(sampler, dimensions, volume, MIN_SAMPLES_UNIFORM, targetDist);
+	}
+
+	/**
+	 * Uses importance sampling to calculate the Hellinger distance between the two argument mixture
+	 * models. Points are drawn from the equal mixture m = (p+q)/2 of the two models themselves, half
+	 * from each, and the integrand sqrt(p*q)/m is averaged. This integrand lies in [0,1] whatever the
+	 * number of dimensions, so far fewer samples are needed than when integrating over a box.
+	 *
+	 * @param mm1 the first mixture model
+	 * @param mm2 the second mixture model
+	 * @param targetDist the Hellinger distance that is being searched for
+	 * @return the Hellinger distance between mm1 and mm2
+	 */
+	public double importanceSampling(final MixtureModel mm1, final MixtureModel mm2, double targetDist)
+	{
+		final int dimensions = mm1.getDimensions();
+		final double logWeightSum1 = Math.log(weightSum(mm1));
+		final double logWeightSum2 = Math.log(weightSum(mm2));
+
+		ChunkSampler sampler = new ChunkSampler()
+		{
+			@Override
+			public void sample(SampleStream stream, int count)
+			{
+				double[] points = stream.points;
+
+				// Stratify the proposal: alternate between the two mixture models
+				for(int n = 0 ; n < count ; n++)
+				{
+					if((n & 1) == 0)
+						mm1.sample(stream.random, stream.sampleWorkspace, points, n*dimensions);
+					else
+						mm2.sample(stream.random, stream.sampleWorkspace, points, n*dimensions);
+				}
+
+				mm1.logDensityAt(points, count, stream.logP, stream.workspace);
+				mm2.logDensityAt(points, count, stream.logQ, stream.workspace);
+
+				for(int n = 0 ; n < count ; n++)
+				{
+					// Work in log space so that the ratio survives densities that underflow
+					double logP = stream.logP[n];
+					double logQ = stream.logQ[n];
+					double logM = logHalfSum(logP - logWeightSum1, logQ - logWeightSum2);
+
+					stream.statistics.add((logM > Double.NEGATIVE_INFINITY) ? Math.exp(0.5*(logP + logQ) - logM) : 0.0);
+				}
+			}
+		};
+
+		return this.integrate(sampler, dimensions, 1.0, MIN_SAMPLES_IMPORTANCE, targetDist);
+	}
+
+	/**
+	 * Calculates closed-form lower and upper bounds on the Hellinger distance between the two argument
+	 * mixture models from the Bhattacharyya coefficients between their individual components. Writing
+	 * p = sum_i a_i p_i and q = sum_j b_j q_j, the concavity of the square root bounds the mixtures'
+	 * coefficient from below by sum_ij a_i b_j BC(p_i,q_j) and its subadditivity bounds it from above
+	 * by sum_ij sqrt(a_i b_j) BC(p_i,q_j).
+	 *
+	 * @param mm1 the first mixture model
+	 * @param mm2 the second mixture model
+	 * @return a two element array holding the lower and the upper bound on the Hellinger distance
+	 *
+	 * @see moa.streams.generators.mixturemodel.MixtureModel#bhattacharyyaCoefficient(MixtureModel, int, MixtureModel, int)
+	 */
+	public static double[] hellingerBounds(MixtureModel mm1, MixtureModel mm2)
+	{
+		double weightSum1 = weightSum(mm1);
+		double weightSum2 = weightSum(mm2);
+		double lowerCoefficient = 0.0;
+		double upperCoefficient = 0.0;
+
+		for(int i = 0 ; i < mm1.getNumModels() ; i++)
+		{
+			double a = Math.max(mm1.getWeight(i), 0.0);
+
+			for(int j = 0 ; j < mm2.getNumModels() ; j++)
+			{
+				double b = Math.max(mm2.getWeight(j), 0.0);
+				double coefficient = MixtureModel.bhattacharyyaCoefficient(mm1, i, mm2, j);
+
+				lowerCoefficient += a*b*coefficient;
+				upperCoefficient += Math.sqrt(a*b)*coefficient;
+			}
+		}
+
+		// Normalizing the weights scales the mixtures' coefficient by sqrt(weightSum1*weightSum2)
+		double scale = Math.sqrt(weightSum1*weightSum2);
+		lowerCoefficient = lowerCoefficient/scale;
+		upperCoefficient = Math.min(upperCoefficient, scale);
+
+		return new double[]{Math.sqrt(Math.max(0.0, 1.0 - upperCoefficient)), Math.sqrt(Math.max(0.0, 1.0 - lowerCoefficient))};
+	}
+
+	/**
+	 * @return the number of samples drawn by every estimate so far
+	 */
+	public long getSamplesDrawn()
+	{
+		return this.samplesDrawn;
+	}
+
+	/**
+	 * Releases the worker threads, if any. The estimator can still be used afterwards, in which
+	 * case new worker threads are started.
+	 */
+	public void shutdown()
+	{
+		if(this.pool != null)
+		{
+			this.pool.shutdown();
+			this.pool = null;
+		}
+	}
+
+	/**
+	 * Integrates sqrt(p*q) in rounds until the error is small or, after a sufficient base of samples,
+	 * until the target distance lies outside the error margin around the estimated distance. If the
+	 * sequential test is switched on then its stopping rule is used instead.
+	 *
+	 * @param sampler the integrand to sample
+	 * @param dimensions the dimensionality of the points to sample
+	 * @param scale the factor by which the integrand's mean is multiplied to give the integral
+	 * @param minSamples the number of samples to draw before the error is estimated
+	 * @param targetDist the Hellinger distance that is being searched for
+	 * @return the estimated Hellinger distance
+	 */
+	private double integrate(ChunkSampler sampler, int dimensions, double scale, double minSamples, double targetDist)
+	{
+		double error = Double.MAX_VALUE;
+		double hellingerDistance = -1.0;
+
+		SampleStream[] streams = this.createStreams(dimensions);
+		RunningStatistics total = new RunningStatistics();
+
+		if(this.sequentialTest)
+		{
+			return this.integrateSequentially(streams, sampler, scale, targetDist, total);
+		}
+
+		while(error > MAX_ERROR)
+		{
+			this.runRound(streams, sampler, SAMPLES_PER_CHUNK, total);
+
+			// Once a sufficient base of samples has been built, calculate the sample variance and estimate the error
+			if(total.count > minSamples)
+			{
+				error = scale*Math.sqrt(total.variance())/Math.sqrt(total.count);
+				hellingerDistance = Math.sqrt(Math.max(0.0, 1.0 - scale*total.mean));
+
+				// If the target distance is no longer within the error margin around the estimated distance
+				// then stop integrating
+				if(Math.abs(targetDist - hellingerDistance) > Math.sqrt(error))
+				{
+					break;
+				}
+			}
+		}
+
+		return hellingerDistance;
+	}
+
+	/**
+	 * Integrates sqrt(p*q), doubling the number of samples from one checkpoint to the next. At each
+	 * checkpoint a confidence interval of CONFIDENCE_Z standard errors around the integral is mapped to an
+	 * interval on the Hellinger distance. Integration stops when that interval excludes the desired
+	 * range (reject), when it lies inside the desired range (accept), when the error is small or when
+	 * the sample budget is spent.
+	 *
+	 * @param streams the sample streams
+	 * @param sampler the integrand to sample
+	 * @param scale the factor by which the integrand's mean is multiplied to give the integral
+	 * @param targetDist the Hellinger distance that is being searched for
+	 * @param total the running statistics, initially empty
+	 * @return the estimated Hellinger distance
+	 */
+	private double integrateSequentially(SampleStream[] streams, ChunkSampler sampler, double scale, double targetDist, RunningStatistics total)
+	{
+		double hellingerDistance;
+		long checkpoint = FIRST_CHECKPOINT;
+
+		while(true)
+		{
+			int samplesPerStream = (int)((checkpoint - (long)total.count)/streams.length);
+			this.runRound(streams, sampler, samplesPerStream, total);
+
+			double integral = scale*total.mean;
+			double error = scale*Math.sqrt(total.variance())/Math.sqrt(total.count);
+
+			// The distance decreases as the integral increases
+			hellingerDistance = Math.sqrt(Math.max(0.0, 1.0 - integral));
+			double lowerDistance = Math.sqrt(Math.max(0.0, 1.0 - (integral + CONFIDENCE_Z*error)));
+			double upperDistance = Math.sqrt(Math.max(0.0, 1.0 - (integral - CONFIDENCE_Z*error)));
+
+			boolean reject = (upperDistance < targetDist - this.tolerance) || (lowerDistance > targetDist + this.tolerance);
+			boolean accept = (lowerDistance >= targetDist - this.tolerance) && (upperDistance <= targetDist + this.tolerance);
+
+			if(reject || accept || error <= MAX_ERROR || checkpoint >= SEQUENTIAL_BUDGET)
+			{
+				break;
+			}
+
+			checkpoint *= 2;
+		}
+
+		return hellingerDistance;
+	}
+
+	/**
+	 * @param a the logarithm of the first value
+	 * @param b the logarithm of the second value
+	 * @return the logarithm of the mean of the two values, computed without underflow
+	 */
+	private static double logHalfSum(double a, double b)
+	{
+		double max = Math.max(a, b);
+
+		if(max == Double.NEGATIVE_INFINITY)
+			return max;
+
+		return max + Math.log(0.5*(Math.exp(a - max) + Math.exp(b - max)));
+	}
+
+	/**
+	 * @param mm a mixture model
+	 * @return the sum of mm's weights, ignoring any negative weights
+	 */
+	private static double weightSum(MixtureModel mm)
+	{
+		double sum = 0.0;
+
+		for(int i = 0 ; i < mm.getNumModels() ; i++)
+		{
+			sum += Math.max(mm.getWeight(i), 0.0);
+		}
+
+		return sum;
+	}
+
+	/**
+	 * Creates the sample streams for one estimate. Every estimate restarts from the same seed so that
+	 * candidate models are compared using the same random numbers.
+	 *
+	 * @param dimensions the dimensionality of the points to sample
+	 * @return the sample streams
+	 */
+	private SampleStream[] createStreams(int dimensions)
+	{
+		SplittableRandom root = new SplittableRandom(this.seed);
+		SampleStream[] streams = new SampleStream[NUM_STREAMS];
+
+		for(int s = 0 ; s < NUM_STREAMS ; s++)
+		{
+			streams[s] = new SampleStream(root.split().nextLong(), dimensions);
+		}
+
+		return streams;
+	}
+
+	/**
+	 * Has every stream draw the same number of samples, on the worker threads if there is more than
+	 * one worker, and merges the streams' statistics into the running total in stream order.
+	 *
+	 * @param streams the sample streams
+	 * @param sampler the integrand to sample
+	 * @param samplesPerStream the number of samples each stream draws
+	 * @param total the running statistics over all rounds
+	 */
+	private void runRound(SampleStream[] streams, ChunkSampler sampler, int samplesPerStream, RunningStatistics total)
+	{
+		if(this.numWorkers == 1)
+		{
+			for(int s = 0 ; s < streams.length ; s++)
+			{
+				sampleStream(streams[s], sampler, samplesPerStream);
+			}
+		}
+		else
+		{
+			if(this.pool == null)
+			{
+				this.pool = new ForkJoinPool(this.numWorkers);
+			}
+
+			this.pool.invoke(new RoundTask(streams, sampler, samplesPerStream, 0, streams.length));
+		}
+
+		for(int s = 0 ; s < streams.length ; s++)
+		{
+			total.merge(streams[s].statistics);
+			streams[s].statistics.clear();
+		}
+
+		this.samplesDrawn += (long)samplesPerStream*streams.length;
+	}
+
+	/**
+	 * Has a stream draw samples, one chunk of at most SAMPLES_PER_CHUNK at a time.
+	 *
+	 * @param stream the sample stream
+	 * @param sampler the integrand to sample
+	 * @param samples the number of samples to draw
+	 */
+	private static void sampleStream(SampleStream stream, ChunkSampler sampler, int samples)
+	{
+		for(int drawn = 0 ; drawn < samples ; drawn += SAMPLES_PER_CHUNK)
+		{
+			sampler.sample(stream, Math.min(SAMPLES_PER_CHUNK, samples - drawn));
+		}
+	}
+
+	/**
+	 * Draws a chunk of at most SAMPLES_PER_CHUNK samples of an integrand into a sample stream's statistics.
+	 */
+	private interface ChunkSampler
+	{
+		void sample(SampleStream stream, int count);
+	}
+
+	/**
+	 * An independent source of samples: its own pseudo random number generator, scratch space and statistics.
+	 * A chunk's points are stored row-major in one array so that their densities are evaluated as a block.
+	 */
+	private static class SampleStream
+	{
+		private ZigguratRandom random;
+		private double[] points;
+		private double[] logP, logQ;
+		private MixtureModel.SampleWorkspace sampleWorkspace;
+		private MixtureModel.DensityWorkspace workspace;
+		private RunningStatistics statistics;
+
+		private SampleStream(long seed, int dimensions)
+		{
+			this.random = new ZigguratRandom(seed);
+			this.points = new double[SAMPLES_PER_CHUNK*dimensions];
+			this.sampleWorkspace = new MixtureModel.SampleWorkspace(dimensions);
+			this.logP = new double[SAMPLES_PER_CHUNK];
+			this.logQ = new double[SAMPLES_PER_CHUNK];
+			this.workspace = new MixtureModel.DensityWorkspace(dimensions);
+			this.statistics = new RunningStatistics();
+		}
+	}
+
+	/**
+	 * Samples a range of streams, splitting the range in half until a single stream remains.
+	 */
+	private static class RoundTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private SampleStream[] streams;
+		private ChunkSampler sampler;
+		private int samplesPerStream;
+		private int from, to;
+
+		private RoundTask(SampleStream[] streams, ChunkSampler sampler, int samplesPerStream, int from, int to)
+		{
+			this.streams = streams;
+			this.sampler = sampler;
+			this.samplesPerStream = samplesPerStream;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if(this.to - this.from == 1)
+			{
+				sampleStream(this.streams[this.from], this.sampler, this.samplesPerStream);
+			}
+			else
+			{
+				int middle = (this.from + this.to) >>> 1;
+				invokeAll(new RoundTask(this.streams, this.sampler, this.samplesPerStream, this.from, middle),
+						new RoundTask(this.streams, this.sampler, this.samplesPerStream, middle, this.to));
+			}
+		}
+	}
+
+	/**
+	 * Welford's running mean and sum of squared deviations (M2), with Chan et al.'s rule for
+	 * merging two sets of statistics.
+	 */
+	static class RunningStatistics
+	{
+		double count, mean, m2;
+
+		void add(double x)
+		{
+			this.count++;
+			double delta1 = x - this.mean;
+			this.mean += delta1/this.count;
+			double delta2 = x - this.mean;
+			this.m2 += delta1*delta2;
+		}
+
+		void merge(RunningStatistics other)
+		{
+			if(other.count == 0)
+				return;
+
+			double n = this.count + other.count;
+			double delta = other.mean - this.mean;
+			this.mean += delta*other.count/n;
+			this.m2 += other.m2 + delta*delta*this.count*other.count/n;
+			this.count = n;
+		}
+
+		double variance()
+		{
+			return this.m2/(this.count-1);
+		}
+
+		void clear()
+		{
+			this.count = 0;
+			this.mean = 0;
+			this.m2 = 0;
+		}
+	}
+}
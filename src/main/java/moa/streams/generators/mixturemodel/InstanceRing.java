@@ -0,0 +1,105 @@
+/*
+ *    InstanceRing.java
+ *
+ *    Copyright 2017 Richard Hugh Moulton
+ *
+ *    @author Richard Hugh Moulton
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams.generators.mixturemodel;
+
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import moa.core.InstanceExample;
+
+/**
+ * A ring of preallocated instances that a generator recycles instead of creating a new instance
+ * for every call to nextInstance. Each instance wraps its own value array, which the generator
+ * overwrites in place, so generating an instance allocates nothing.
+ *
+ * An instance handed out by the ring is only valid until the ring comes back round to it, i.e.
+ * for the next size-1 instances; consumers that keep instances must copy them.
+ *
+ * @author Richard Hugh Moulton
+ */
+class InstanceRing
+{
+	private double[][] values;
+	private Instance[] instances;
+	private InstanceExample[] examples;
+	private InstancesHeader[] headers;
+	private int position;
+
+	/**
+	 * Constructor method for a new InstanceRing.
+	 *
+	 * @param size the number of instances in the ring
+	 * @param numValues the number of values in each instance, including the class
+	 */
+	InstanceRing(int size, int numValues)
+	{
+		this.values = new double[size][numValues];
+		this.instances = new Instance[size];
+		this.examples = new InstanceExample[size];
+		this.headers = new InstancesHeader[size];
+
+		for(int i = 0 ; i < size ; i++)
+		{
+			this.instances[i] = new DenseInstance(1.0, this.values[i]);
+			this.examples[i] = new InstanceExample(this.instances[i]);
+		}
+
+		this.position = size-1;
+	}
+
+	/**
+	 * Moves on to the next instance in the ring.
+	 *
+	 * @return the next instance's value array, to be overwritten with its attribute values
+	 */
+	double[] nextValues()
+	{
+		this.position = (this.position+1)%this.values.length;
+		return this.values[this.position];
+	}
+
+	/**
+	 * Completes the instance whose values were last returned by nextValues.
+	 *
+	 * @param header the stream's header
+	 * @param classValue the instance's class
+	 * @return the instance
+	 */
+	InstanceExample current(InstancesHeader header, double classValue)
+	{
+		Instance inst = this.instances[this.position];
+
+		// setDataset wraps the header in a new object, so only call it when the header changes
+		if(this.headers[this.position] != header)
+		{
+			inst.setDataset(header);
+			this.headers[this.position] = header;
+		}
+
+		// The consumer may have changed the weight the last time round
+		inst.setWeight(1.0);
+		inst.setClassValue(classValue);
+
+		return this.examples[this.position];
+	}
+}
@@ -26,30 +26,71 @@ import com.yahoo.labs.samoa.instances.Instance;
 import com.yahoo.labs.samoa.instances.InstancesHeader;
 
 import moa.core.InstanceExample;
-import moa.core.MiscUtils;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Logger;
 
-import org.apache.commons.math3.distribution.*;
 import org.apache.commons.math3.linear.*;
 
 /**
- * Makes use of the Apache Commons Math 3 package to represent a mixture model made up of individual multivariate distributions.
- * Currently limited to using multivariate normal distributions.
+ * Represents a mixture model made up of individual multivariate distributions.
+ * Currently limited to using multivariate normal distributions, each stored as its means and
+ * the lower triangular Cholesky factor L of its covariance matrix. The covariance matrices may
+ * be given a diagonal, banded, block diagonal or low-rank structure, in which case only the
+ * entries of L that the structure allows are stored, plus a low-rank factor W.
  * 
- * @see org.apache.commons.math3.distribution
+ * @see moa.streams.generators.mixturemodel.CovarianceStructure
+ * 
+ * Sampling and density evaluation work directly from L. The Apache Commons Math 3 package is
+ * used for the closed-form distance between components.
+ * 
+ * @see org.apache.commons.math3.linear
  * 
  * @author Richard Hugh Moulton
  */
 public class MixtureModel
 {	
+	private static final Logger LOGGER = Logger.getLogger(MixtureModel.class.getName());
+	private static final int FORMAT_MAGIC = 0x4D4D4F44;
+	private static final int FORMAT_VERSION = 2;
+	private static final int IO_BUFFER_SIZE = 1 << 16;
+	private static final int ACCURACY_CHECK_POINTS = 1000;
+	
+	/** The tolerance the generators give setSinglePrecision. */
+	static final double SINGLE_PRECISION_TOLERANCE = 1e-4;
+
 	private int numModels, dimensions;
 	private double[] weights;
-	private MultivariateNormalDistribution[] modelArray;
-	private double[][][] lArray;
+	private double[] logWeights;
+	private AliasTable componentTable;
+	private double[][] meansArray;
+	private CovarianceStructure structure;
+	private PackedFactors factors;
+	private boolean offHeap;
+	private double[][] invDiagArray;
+	private double[] logNormalizers;
+	private double[][] lowRankC, lowRankK;
+	private volatile boolean factorsStale;
+	private double[][] hellingerDistances;
+	private int hellingerMajClasses;
 	private Random modelRandom;
 	private Random instanceRandom;
 	private double range;
+	private int[] labelBuffer = new int[1];
+	private SampleWorkspace sampleWorkspace;
+	private double[] rowBuffer;
+	private boolean singlePrecision;
+	private float[][] meansFloat;
+	private float[][] lPacked;
+	private double singlePrecisionError;
 	
 	/**
 	 * Constructor method for a new MixtureModel that uses basic parameters.
@@ -61,22 +102,25 @@ public class MixtureModel
 	 */
 	public MixtureModel(int numClasses, int numAttributes, int instanceRandomSeed, int modelRandomSeed)
 	{
-		// Initialize Mixture Model Variables
-		this.numModels = numClasses;
-		this.dimensions = numAttributes;
-		this.weights = new double[this.numModels];
-		this.modelArray = new MultivariateNormalDistribution[this.numModels];
-		this.lArray = new double[this.numModels][this.dimensions][this.dimensions];
-		this.range = (double) this.numModels;
-		
-		// Initialize random number generators
-		this.modelRandom = new Random();
-		this.modelRandom.setSeed(modelRandomSeed);
-		this.instanceRandom = new Random();
-		this.instanceRandom.setSeed(instanceRandomSeed);
+		this(numClasses, numAttributes, CovarianceStructure.full(), instanceRandomSeed, modelRandomSeed);
+	}
+	
+	/**
+	 * Constructor method for a new MixtureModel whose multivariate normal distributions' covariance
+	 * matrices have the argument structure.
+	 * 
+	 * @param numClasses the number of classes/number of models to include in the mixture model.
+	 * @param numAttributes the dimensionality if the distributions.
+	 * @param structure the structure of the distributions' covariance matrices.
+	 * @param instanceRandomSeed the seed for the instances' pseudo random number generator.
+	 * @param modelRandomSeed the see for the models' pseudo random number generator.
+	 */
+	public MixtureModel(int numClasses, int numAttributes, CovarianceStructure structure, int instanceRandomSeed, int modelRandomSeed)
+	{
+		// Initialize Mixture Model Variables and random number generators
+		this.allocate(numClasses, numAttributes, structure, instanceRandomSeed, modelRandomSeed);
 		
 		double weightSum = 0.0;
-		double[] means = new double[this.dimensions];
 		
 		// initialize arrays
 		for(int i = 0 ; i < this.numModels ; i++)
@@ -87,12 +131,12 @@ public class MixtureModel
 			// Generate "centroids" for the Multivariate Normal Distribution
 			for(int j = 0 ; j < this.dimensions ; j++)
 			{
-				means[j] = (this.modelRandom.nextDouble()*range)-(range/2.0);
+				this.meansArray[i][j] = (this.modelRandom.nextDouble()*range)-(range/2.0);
 			}
 			
-			this.lArray[i] = this.generateL();
+			this.generateL(i);
 			
-			this.modelArray[i] = new MultivariateNormalDistribution(means, generateCovariance(this.lArray[i]));
+			this.computeDensityFactors(i);
 		}
 		
 		// Normalize weights array
@@ -101,9 +145,395 @@ public class MixtureModel
 			this.weights[i] = this.weights[i]/weightSum;
 		}
 		
+		this.weightsChanged();
+
 		//System.out.println(this.toString());
 	}
 
+	/**
+	 * Constructor method for a MixtureModel with the given parameters, for example ones that
+	 * were previously found by a model search. The arguments are copied; the weights are used
+	 * as they are, without being normalized.
+	 *
+	 * @param weights the weight of each multivariate normal distribution (MVND)
+	 * @param means the means of each MVND, one row per MVND
+	 * @param l the lower triangular Cholesky factor of each MVND's covariance matrix
+	 * @param instanceRandomSeed the seed for the instances' pseudo random number generator.
+	 * @param modelRandomSeed the see for the models' pseudo random number generator.
+	 */
+	public MixtureModel(double[] weights, double[][] means, double[][][] l, int instanceRandomSeed, int modelRandomSeed)
+	{
+		this.allocate(weights.length, (weights.length > 0) ? means[0].length : 0, CovarianceStructure.full(), instanceRandomSeed, modelRandomSeed);
+
+		if(means.length != this.numModels || l.length != this.numModels)
+			throw new IllegalArgumentException("Expected means and L for "+this.numModels+" models.");
+
+		System.arraycopy(weights, 0, this.weights, 0, this.numModels);
+
+		for(int i = 0 ; i < this.numModels ; i++)
+		{
+			if(means[i].length != this.dimensions || l[i].length != this.dimensions)
+				throw new IllegalArgumentException("Model "+i+" does not have "+this.dimensions+" dimensions.");
+
+			System.arraycopy(means[i], 0, this.meansArray[i], 0, this.dimensions);
+
+			// Only the lower triangle is copied so that L remains a Cholesky factor
+			for(int j = 0 ; j < this.dimensions ; j++)
+			{
+				for(int k = 0 ; k <= j ; k++)
+				{
+					this.factors.set(i, j, k, l[i][j][k]);
+				}
+			}
+		}
+
+		this.parametersChanged();
+	}
+
+	/**
+	 * Constructor method for a MixtureModel with the given parameters, held as DriftModelSearch
+	 * keeps its closest candidate. The arguments become the mixture model's own; they are not
+	 * copied.
+	 *
+	 * @param weights the weight of each multivariate normal distribution (MVND)
+	 * @param means the means of each MVND, one row per MVND
+	 * @param factors the packed Cholesky factors of the MVNDs' covariance matrices, on the heap
+	 * @param instanceRandomSeed the seed for the instances' pseudo random number generator.
+	 * @param modelRandomSeed the see for the models' pseudo random number generator.
+	 */
+	MixtureModel(double[] weights, double[][] means, PackedFactors factors, int instanceRandomSeed, int modelRandomSeed)
+	{
+		this.allocate(weights.length, (weights.length > 0) ? means[0].length : 0, factors.structure(), instanceRandomSeed, modelRandomSeed);
+
+		this.weights = weights;
+		this.meansArray = means;
+		this.factors = factors;
+		this.parametersChanged();
+	}
+
+	/**
+	 * Constructor method for an empty MixtureModel, used when reading a serialized one.
+	 */
+	private MixtureModel()
+	{
+	}
+
+	/**
+	 * Allocates the mixture model's arrays, which the caller fills in before calling
+	 * parametersChanged, and initializes its pseudo random number generators.
+	 */
+	private void allocate(int numModels, int dimensions, CovarianceStructure structure, int instanceRandomSeed, int modelRandomSeed)
+	{
+		int rank = structure.getRank();
+		
+		this.numModels = numModels;
+		this.dimensions = dimensions;
+		this.structure = structure;
+		this.weights = new double[this.numModels];
+		this.logWeights = new double[this.numModels];
+		this.meansArray = new double[this.numModels][this.dimensions];
+		this.factors = new PackedFactors(this.numModels, this.dimensions, structure, false);
+		this.invDiagArray = new double[this.numModels][this.dimensions];
+		this.logNormalizers = new double[this.numModels];
+		this.lowRankC = (rank > 0) ? new double[this.numModels][this.dimensions*rank] : null;
+		this.lowRankK = (rank > 0) ? new double[this.numModels][(rank*(rank+1))/2] : null;
+		this.sampleWorkspace = new SampleWorkspace(this.dimensions);
+		this.rowBuffer = new double[this.dimensions];
+		this.range = (double) this.numModels;
+
+		this.modelRandom = new Random();
+		this.modelRandom.setSeed(modelRandomSeed);
+		this.instanceRandom = new ZigguratRandom(instanceRandomSeed);
+	}
+
+	/**
+	 * Reads a mixture model written by writeTo from the argument stream. Exactly the model's bytes
+	 * are consumed, so further data may follow it in the stream. The covariances are taken from the
+	 * stored Cholesky factors; no model search is repeated.
+	 *
+	 * @param in the stream to read from
+	 * @param instanceRandomSeed the seed for the instances' pseudo random number generator.
+	 * @param modelRandomSeed the see for the models' pseudo random number generator.
+	 * @return the mixture model
+	 * @throws IOException if the stream cannot be read or does not hold a mixture model in a supported version of the format
+	 *
+	 * @see moa.streams.generators.mixturemodel.MixtureModel#writeTo(OutputStream)
+	 */
+	public static MixtureModel readFrom(InputStream in, int instanceRandomSeed, int modelRandomSeed) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.flip();
+
+		return read(in, buffer, instanceRandomSeed, modelRandomSeed);
+	}
+
+	/**
+	 * Reads a mixture model written by writeTo from the argument buffer, starting at its position
+	 * and leaving its position just past the model.
+	 *
+	 * @param buffer the buffer to read from
+	 * @param instanceRandomSeed the seed for the instances' pseudo random number generator.
+	 * @param modelRandomSeed the see for the models' pseudo random number generator.
+	 * @return the mixture model
+	 * @throws IOException if the buffer does not hold a mixture model in a supported version of the format
+	 * @throws java.nio.BufferUnderflowException if the buffer ends before the model does
+	 *
+	 * @see moa.streams.generators.mixturemodel.MixtureModel#writeTo(ByteBuffer)
+	 */
+	public static MixtureModel readFrom(ByteBuffer buffer, int instanceRandomSeed, int modelRandomSeed) throws IOException
+	{
+		ByteOrder order = buffer.order();
+
+		try
+		{
+			return read(null, buffer.order(ByteOrder.LITTLE_ENDIAN), instanceRandomSeed, modelRandomSeed);
+		}
+		finally
+		{
+			buffer.order(order);
+		}
+	}
+
+	/**
+	 * Writes the mixture model to the argument stream in a compact, versioned binary format.
+	 * All values are little endian:
+	 * <ul>
+	 * <li>the magic number 0x4D4D4F44 and the format version, as ints;</li>
+	 * <li>the number of dimensions d and the number of models k, as ints;</li>
+	 * <li>the covariance structure's type and parameter, as ints;</li>
+	 * <li>the k weights, as doubles;</li>
+	 * <li>the k*d means, model by model, as doubles;</li>
+	 * <li>the stored entries of each model's L, row by row, followed by the entries of its W, row
+	 * by row, as doubles. For full covariance matrices these are the d*(d+1)/2 entries of the lower
+	 * triangle of the Cholesky factor.</li>
+	 * </ul>
+	 * Version 1 of the format, which has no covariance structure, is read as full covariance matrices.
+	 * The pseudo random number generators' seeds are not written; they are supplied to readFrom.
+	 *
+	 * @param out the stream to write to
+	 * @throws IOException if the stream cannot be written
+	 */
+	public void writeTo(OutputStream out) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+		this.write(out, buffer);
+		out.write(buffer.array(), 0, buffer.position());
+	}
+
+	/**
+	 * Writes the mixture model to the argument buffer, starting at its position, in the format
+	 * described by writeTo(OutputStream).
+	 *
+	 * @param buffer the buffer to write to, with at least getSerializedSize() bytes remaining
+	 * @throws java.nio.BufferOverflowException if the buffer has too little space remaining
+	 *
+	 * @see moa.streams.generators.mixturemodel.MixtureModel#writeTo(OutputStream)
+	 */
+	public void writeTo(ByteBuffer buffer)
+	{
+		ByteOrder order = buffer.order();
+
+		try
+		{
+			this.write(null, buffer.order(ByteOrder.LITTLE_ENDIAN));
+		}
+		catch(IOException e)
+		{
+			// Nothing is written to a stream
+			throw new IllegalStateException(e);
+		}
+		finally
+		{
+			buffer.order(order);
+		}
+	}
+
+	/**
+	 * @return the number of bytes that writeTo writes for this mixture model
+	 */
+	public long getSerializedSize()
+	{
+		long d = this.dimensions;
+		return 24L + 8L*this.numModels*(1L + d + this.factors().size());
+	}
+
+	/**
+	 * Writes the mixture model into the buffer, emptying the buffer into the stream whenever it fills up.
+	 *
+	 * @param out the stream to write to, or null to write only to the buffer
+	 * @param buffer the buffer to write to
+	 */
+	private void write(OutputStream out, ByteBuffer buffer) throws IOException
+	{
+		buffer.putInt(FORMAT_MAGIC).putInt(FORMAT_VERSION).putInt(this.dimensions).putInt(this.numModels);
+		buffer.putInt(this.structure.getType()).putInt(this.structure.getParameter());
+
+		putDoubles(out, buffer, this.weights, 0, this.numModels);
+
+		for(int i = 0 ; i < this.numModels ; i++)
+		{
+			putDoubles(out, buffer, this.meansArray[i], 0, this.dimensions);
+		}
+
+		// Each packed factor holds L's rows and then W's one after the other, as they are written
+		PackedFactors factors = this.factors();
+		double[] scratch = factors.isOffHeap() ? new double[factors.size()] : null;
+
+		for(int i = 0 ; i < this.numModels ; i++)
+		{
+			putDoubles(out, buffer, factors.array(i, scratch), factors.offset(i), factors.size());
+		}
+	}
+
+	/**
+	 * Reads a mixture model from the buffer, refilling the buffer from the stream whenever it runs out.
+	 *
+	 * @param in the stream to read from, or null to read only from the buffer
+	 * @param buffer the buffer to read from
+	 */
+	private static MixtureModel read(InputStream in, ByteBuffer buffer, int instanceRandomSeed, int modelRandomSeed) throws IOException
+	{
+		fill(in, buffer, 16);
+
+		int magic = buffer.getInt();
+		int version = buffer.getInt();
+
+		if(magic != FORMAT_MAGIC)
+			throw new IOException("Not a serialized mixture model.");
+		if(version < 1 || version > FORMAT_VERSION)
+			throw new IOException("Unsupported mixture model format version "+version+".");
+
+		int dimensions = buffer.getInt();
+		int numModels = buffer.getInt();
+
+		if(dimensions < 0 || numModels < 0)
+			throw new IOException("Corrupt mixture model: "+numModels+" models of "+dimensions+" dimensions.");
+
+		CovarianceStructure structure = CovarianceStructure.full();
+
+		if(version >= 2)
+		{
+			fill(in, buffer, 8);
+
+			try
+			{
+				structure = new CovarianceStructure(buffer.getInt(), buffer.getInt());
+			}
+			catch(IllegalArgumentException e)
+			{
+				throw new IOException("Corrupt mixture model: "+e.getMessage());
+			}
+		}
+
+		MixtureModel mm = new MixtureModel();
+		mm.allocate(numModels, dimensions, structure, instanceRandomSeed, modelRandomSeed);
+
+		getDoubles(in, buffer, mm.weights, 0, numModels);
+
+		for(int i = 0 ; i < numModels ; i++)
+		{
+			getDoubles(in, buffer, mm.meansArray[i], 0, dimensions);
+		}
+
+		for(int i = 0 ; i < numModels ; i++)
+		{
+			getDoubles(in, buffer, mm.factors.array(i, null), mm.factors.offset(i), mm.factors.size());
+		}
+
+		mm.parametersChanged();
+
+		return mm;
+	}
+
+	/**
+	 * Copies length values, starting at values[start], into the buffer in bulk.
+	 */
+	private static void putDoubles(OutputStream out, ByteBuffer buffer, double[] values, int start, int length) throws IOException
+	{
+		int offset = start;
+		int end = start+length;
+
+		while(offset < end)
+		{
+			if(out != null && buffer.remaining() < 8)
+			{
+				out.write(buffer.array(), 0, buffer.position());
+				buffer.clear();
+			}
+
+			int count = (out == null) ? end-offset : Math.min(end-offset, buffer.remaining()/8);
+			buffer.asDoubleBuffer().put(values, offset, count);
+			buffer.position(buffer.position() + 8*count);
+			offset += count;
+		}
+	}
+
+	/**
+	 * Copies length values out of the buffer in bulk, into values[start] onwards.
+	 */
+	private static void getDoubles(InputStream in, ByteBuffer buffer, double[] values, int start, int length) throws IOException
+	{
+		int offset = start;
+		int end = start+length;
+
+		while(offset < end)
+		{
+			int count = end-offset;
+
+			if(in != null)
+			{
+				fill(in, buffer, 8*Math.min(count, buffer.capacity()/8));
+				count = Math.min(count, buffer.remaining()/8);
+			}
+
+			buffer.asDoubleBuffer().get(values, offset, count);
+			buffer.position(buffer.position() + 8*count);
+			offset += count;
+		}
+	}
+
+	/**
+	 * Makes sure that at least the given number of bytes remain in the buffer, reading no more
+	 * than that from the stream so that nothing after the model is consumed.
+	 *
+	 * @param in the stream to read from, or null if there is only the buffer
+	 * @param buffer the buffer, ready to be read from
+	 * @param bytes the number of bytes needed
+	 */
+	private static void fill(InputStream in, ByteBuffer buffer, int bytes) throws IOException
+	{
+		if(in == null || buffer.remaining() >= bytes)
+			return;
+
+		buffer.compact();
+
+		while(buffer.position() < bytes)
+		{
+			int read = in.read(buffer.array(), buffer.position(), bytes - buffer.position());
+
+			if(read < 0)
+				throw new EOFException("The stream ended before the mixture model did.");
+
+			buffer.position(buffer.position() + read);
+		}
+
+		buffer.flip();
+	}
+
+	/**
+	 * Brings every quantity derived from the weights, means and Cholesky factors up to date.
+	 */
+	private void parametersChanged()
+	{
+		for(int i = 0 ; i < this.numModels ; i++)
+		{
+			this.computeDensityFactors(i);
+		}
+
+		this.weightsChanged();
+	}
+
 	/**
 	 * Sets a given probability in the model weight probability vector to a specified weight.
 	 * 
@@ -117,12 +547,12 @@ public class MixtureModel
 		// Ensure that "weight" is a valid probability (between 0 and 1)
 		if(weight > 1.0)
 		{
-			System.out.println("Invalid weight for a probability vector; greater than 1.0!");
+			LOGGER.warning("Invalid weight for a probability vector; greater than 1.0!");
 			weight = 1.0;
 		}
 		else if (weight < 0.0)
 		{
-			System.out.println("Invalid weight for a probability vector; less than 0.0!");
+			LOGGER.warning("Invalid weight for a probability vector; less than 0.0!");
 			weight = 0.0;
 		}
 		
@@ -141,250 +571,1585 @@ public class MixtureModel
 			else
 				this.weights[i] = (this.weights[i]*(1.0-weight))/weightSum;
 		}
+		
+		this.weightsChanged();
+	}
+	
+	/**
+	 * Sets the model weights so that, in a one-class classification scenario, the majority classes'
+	 * weights sum to the argument weight.
+	 * 
+	 * @param numMajClasses the number of majority classes
+	 * @param weight the total of the majority classes' weights
+	 */
+	public void setWeights(int numMajClasses, double majWeight)
+	{
+		double weightSum = 0.0;
+		double minWeight = 1.0 - majWeight;
+		
+		// MAJORITY CLASSES
+		for(int i = 0 ; i < numMajClasses ; i++)
+		{
+			weights[i] = modelRandom.nextDouble();
+			weightSum += weights[i];
+		}
+		
+		// Normalize weights array
+		for(int i = 0 ; i < numMajClasses ; i++)
+		{
+			weights[i] = (majWeight*weights[i])/weightSum;
+		}
+		
+		// MINORITY CLASSES
+		weightSum = 0.0;
+		
+		for(int i = numMajClasses ; i < this.numModels ; i++)
+		{
+			weights[i] = modelRandom.nextDouble();
+			weightSum += weights[i];
+		}
+		
+		// Normalize weights array
+		for(int i = numMajClasses ; i < this.numModels ; i++)
+		{
+			weights[i] = (minWeight*weights[i])/weightSum;
+		}
+		
+		this.weightsChanged();
+	}
+	
+	
+	/**
+	 * Generates the next instance in the data stream by selecting a model (via the weights array) and then sampling that model.
+	 * This is a thin wrapper around sampleBatch that draws a single row.
+	 * 
+	 * @see moa.streams.generators.mixturemodel.MixtureModel#weights
+	 * @see moa.streams.generators.mixturemodel.MixtureModel#sampleBatch(int, double[], int[])
+	 * 
+	 * @param instHead the header for instances in the data stream
+	 * @return the next instance in the data stream
+	 */
+	public InstanceExample nextInstance(InstancesHeader instHeader)
+	{
+		// The class label occupies the last attribute, after the sampled point
+		double[] attVals = new double[dimensions+1];
+		this.sampleBatch(1, attVals, this.labelBuffer);
+		
+		Instance inst = new DenseInstance(1.0, attVals);
+        inst.setDataset(instHeader);
+        inst.setClassValue(this.labelBuffer[0]);
+        return new InstanceExample(inst);
+	}
+	
+	/**
+	 * Generates the next n points in the data stream and writes them into caller-owned primitive buffers.
+	 * Row r of the batch occupies featuresOut[r*dimensions] through featuresOut[(r+1)*dimensions - 1]
+	 * and its class label (the index of the model that generated it) is written to labelsOut[r].
+	 * No Instance objects are created, so the buffers can be reused from one batch to the next.
+	 * 
+	 * @param n the number of points to generate
+	 * @param featuresOut the row-major buffer receiving the points, of length at least n*dimensions
+	 * @param labelsOut the buffer receiving the class labels, of length at least n
+	 */
+	public void sampleBatch(int n, double[] featuresOut, int[] labelsOut)
+	{
+		this.sampleBatch(n, featuresOut, labelsOut, 0);
+	}
+	
+	/**
+	 * Generates the next n points in the data stream into rows offset to offset+n-1 of the
+	 * argument buffers, laid out as in sampleBatch(int, double[], int[]).
+	 * 
+	 * @param n the number of points to generate
+	 * @param featuresOut the row-major buffer receiving the points, of length at least (offset+n)*dimensions
+	 * @param labelsOut the buffer receiving the class labels, of length at least offset+n
+	 * @param offset the row at which to write the first point
+	 * 
+	 * @see moa.streams.generators.mixturemodel.MixtureModel#sampleBatch(int, double[], int[])
+	 */
+	public void sampleBatch(int n, double[] featuresOut, int[] labelsOut, int offset)
+	{
+		if(featuresOut.length < ((long)offset+n)*this.dimensions || labelsOut.length < (long)offset+n)
+		{
+			throw new IllegalArgumentException("Buffers are too small for a batch of "+n+" instances.");
+		}
+		
+		for(int r = offset ; r < offset+n ; r++)
+		{
+			int index = this.nextComponent();
+			this.sampleComponent(index, this.instanceRandom, this.sampleWorkspace, featuresOut, r*this.dimensions);
+			labelsOut[r] = index;
+		}
+	}
+	
+	/**
+	 * Chooses the multivariate normal distribution (MVND), i.e. the class, of the next point in the
+	 * data stream according to the weights. Together with sampleFromComponent this draws the same
+	 * points as sampleBatch, but lets the caller draw a point of a given class instead.
+	 * 
+	 * @return the index of the chosen MVND
+	 */
+	public int nextComponent()
+	{
+		return this.componentTable.sample(this.instanceRandom);
+	}
+	
+	/**
+	 * Draws a point from the index-th multivariate normal distribution (MVND) alone, i.e. a point of
+	 * the index-th class, whatever its weight. Nothing is allocated.
+	 * 
+	 * @param index the index of the MVND to sample
+	 * @param out the buffer receiving the point, of length at least dimensions
+	 */
+	public void sampleFromComponent(int index, double[] out)
+	{
+		this.sampleFromComponent(index, out, 0);
+	}
+	
+	/**
+	 * Draws a point from the index-th multivariate normal distribution (MVND) alone into out from
+	 * position offset on.
+	 * 
+	 * @param index the index of the MVND to sample
+	 * @param out the buffer receiving the point, of length at least offset+dimensions
+	 * @param offset the position in out at which to write the point's first attribute
+	 * 
+	 * @see moa.streams.generators.mixturemodel.MixtureModel#sampleFromComponent(int, double[])
+	 */
+	public void sampleFromComponent(int index, double[] out, int offset)
+	{
+		if(index < 0 || index >= this.numModels)
+		{
+			throw new IllegalArgumentException("There is no model "+index+" in a mixture of "+this.numModels+" models.");
+		}
+		if(out.length < offset+this.dimensions)
+		{
+			throw new IllegalArgumentException("The buffer is too small for a point of "+this.dimensions+" dimensions.");
+		}
+		
+		this.sampleComponent(index, this.instanceRandom, this.sampleWorkspace, out, offset);
+	}
+	
+	/**
+	 * Draws a point from the mixture model using the argument pseudo random number generator and
+	 * workspace instead of the model's own, so that several threads can sample the same model.
+	 * 
+	 * @param random the pseudo random number generator to draw from
+	 * @param workspace scratch space for a mixture model of this dimensionality
+	 * @param out the buffer receiving the point
+	 * @param offset the position in out at which to write the point's first attribute
+	 * @return the index of the model that generated the point
+	 */
+	int sample(Random random, SampleWorkspace workspace, double[] out, int offset)
+	{
+		int index = this.componentTable.sample(random);
+		this.sampleComponent(index, random, workspace, out, offset);
+		return index;
+	}
+	
+	/**
+	 * Draws a point from the index-th multivariate normal distribution (MVND) as mean + L*z + W*u,
+	 * where L is the packed lower triangular factor, W the low-rank factor, if any, and z and u are
+	 * vectors of independent standard normal variates. Only the entries of L that the covariance
+	 * structure stores are visited, and the point is written directly into the output buffer so
+	 * that no arrays are allocated.
+	 * 
+	 * @param index the index of the MVND to sample
+	 * @param random the pseudo random number generator to draw z from
+	 * @param workspace scratch space for a mixture model of this dimensionality
+	 * @param out the buffer receiving the point
+	 * @param offset the position in out at which to write the point's first attribute
+	 */
+	private void sampleComponent(int index, Random random, SampleWorkspace workspace, double[] out, int offset)
+	{
+		if(this.singlePrecision)
+		{
+			this.refreshFactors();
+			this.sampleComponentFloat(index, random, workspace, out, offset);
+			return;
+		}
+		
+		PackedFactors factors = this.factors;
+		double[] means = this.meansArray[index];
+		double[] l = factors.array(index, workspace.factorScratch(factors));
+		int base = factors.offset(index);
+		double[] z = workspace.z;
+		
+		for(int j = 0 ; j < this.dimensions ; j++)
+		{
+			z[j] = random.nextGaussian();
+		}
+		
+		// Row j of L holds columns firstColumn(j) to j; for full covariance matrices it starts j*(j+1)/2 values into the packed factor
+		for(int j = 0 ; j < this.dimensions ; j++)
+		{
+			int first = factors.firstColumn(j);
+			int shift = base + factors.rowStart(j) - first;
+			double value = means[j];
+			
+			for(int k = first ; k <= j ; k++)
+			{
+				value += l[shift+k]*z[k];
+			}
+			
+			out[offset+j] = value;
+		}
+		
+		int rank = factors.rank();
+		
+		if(rank > 0)
+		{
+			double[] u = workspace.lowRankScratch(rank);
+			
+			for(int c = 0 ; c < rank ; c++)
+			{
+				u[c] = random.nextGaussian();
+			}
+			
+			for(int j = 0, rowStart = base + factors.lowRankStart() ; j < this.dimensions ; j++, rowStart += rank)
+			{
+				double value = 0.0;
+				
+				for(int c = 0 ; c < rank ; c++)
+				{
+					value += l[rowStart+c]*u[c];
+				}
+				
+				out[offset+j] += value;
+			}
+		}
+	}
+	
+	/**
+	 * Draws a point from the index-th MVND as sampleComponent does, but from the single precision
+	 * means and packed L and with float arithmetic. L is packed column by column, so the point is
+	 * accumulated one column at a time over contiguous memory; each coordinate still adds up its
+	 * terms in the same order as sampleComponent.
+	 */
+	private void sampleComponentFloat(int index, Random random, SampleWorkspace workspace, double[] out, int offset)
+	{
+		float[] means = this.meansFloat[index];
+		float[] l = this.lPacked[index];
+		float[] z = workspace.zFloat;
+		float[] point = workspace.point;
+		int d = this.dimensions;
+		
+		for(int j = 0 ; j < d ; j++)
+		{
+			z[j] = (float)random.nextGaussian();
+			point[j] = means[j];
+		}
+		
+		// Column k holds rows k to d-1 and starts at k*d - k*(k-1)/2
+		for(int k = 0, columnStart = 0 ; k < d ; columnStart += d - k, k++)
+		{
+			float zK = z[k];
+			int base = columnStart - k;
+			
+			for(int j = k ; j < d ; j++)
+			{
+				point[j] += l[base+j]*zK;
+			}
+		}
+		
+		for(int j = 0 ; j < d ; j++)
+		{
+			out[offset+j] = point[j];
+		}
+	}
+	
+	/**
+	 * Generates the next n points in the data stream into single precision buffers, laid out as in
+	 * sampleBatch(int, double[], int[]). The points are the same as those sampleBatch would generate,
+	 * rounded to single precision.
+	 * 
+	 * @param n the number of points to generate
+	 * @param featuresOut the row-major buffer receiving the points, of length at least n*dimensions
+	 * @param labelsOut the buffer receiving the class labels, of length at least n
+	 * 
+	 * @see moa.streams.generators.mixturemodel.MixtureModel#sampleBatch(int, double[], int[])
+	 */
+	public void sampleBatch(int n, float[] featuresOut, int[] labelsOut)
+	{
+		if(featuresOut.length < (long)n*this.dimensions || labelsOut.length < n)
+		{
+			throw new IllegalArgumentException("Buffers are too small for a batch of "+n+" instances.");
+		}
+		
+		for(int r = 0 ; r < n ; r++)
+		{
+			labelsOut[r] = this.sample(this.instanceRandom, this.sampleWorkspace, this.rowBuffer, 0);
+			
+			for(int j = 0 ; j < this.dimensions ; j++)
+			{
+				featuresOut[r*this.dimensions + j] = (float)this.rowBuffer[j];
+			}
+		}
+	}
+	
+	/**
+	 * Switches the mixture model between double and single precision sampling. In single precision
+	 * the means and the lower triangle of each L are kept as floats, L packed column by column, and points
+	 * are sampled with float arithmetic. The double precision L matrices are released, which halves
+	 * the memory they take and the memory traffic of sampling. The double precision means are kept
+	 * alongside the float ones, since densities, distances and writeTo read them, so the model's
+	 * parameters as a whole shrink by a little less than half: each model's means take d values
+	 * against the d(d+1)/2 of its L.
+	 * 
+	 * Before switching, the single precision samples are checked against the double precision ones
+	 * for the same standard normal variates, and the model stays in double precision, logging a
+	 * warning, if they differ by more than the tolerance.
+	 * 
+	 * Methods that need the double precision L (densities, distances, adjustMixtureModel, getL,
+	 * getCovariance and writeTo) widen the single precision one again when they are first called,
+	 * giving up the memory saving. Switching back to double precision keeps the rounded parameters.
+	 * 
+	 * Only full covariance matrices are stored in single precision. The factors of the other
+	 * structures take O(d) values rather than O(d^2), so those mixture models stay in double precision.
+	 * 
+	 * @param singlePrecision whether to sample in single precision
+	 * @param tolerance the largest acceptable difference between single and double precision samples,
+	 *                  relative to the magnitude of the sample
+	 * @return whether the mixture model now samples in single precision
+	 * 
+	 * @see moa.streams.generators.mixturemodel.MixtureModel#getSinglePrecisionError()
+	 */
+	public boolean setSinglePrecision(boolean singlePrecision, double tolerance)
+	{
+		if(!singlePrecision)
+		{
+			if(this.factors == null)
+				this.widen();
+			
+			this.singlePrecision = false;
+			this.meansFloat = null;
+			this.lPacked = null;
+			return false;
+		}
+		
+		if(!this.structure.isFull())
+			return false;
+		
+		if(!this.singlePrecision)
+		{
+			this.meansFloat = new float[this.numModels][this.dimensions];
+			this.lPacked = new float[this.numModels][(this.dimensions*(this.dimensions+1))/2];
+			
+			for(int i = 0 ; i < this.numModels ; i++)
+			{
+				this.narrow(i);
+			}
+			
+			this.singlePrecisionError = this.checkSinglePrecision();
+			
+			if(this.singlePrecisionError > tolerance)
+			{
+				LOGGER.warning("Single precision samples would differ from double precision ones by up to "
+						+this.singlePrecisionError+"; sampling in double precision instead.");
+				this.meansFloat = null;
+				this.lPacked = null;
+				return false;
+			}
+			
+			this.singlePrecision = true;
+			this.factors = null;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * @return whether the mixture model samples in single precision
+	 */
+	public boolean isSinglePrecision()
+	{
+		return this.singlePrecision;
+	}
+	
+	/**
+	 * @return the largest relative difference between single and double precision samples found by the
+	 *         last call to setSinglePrecision(true, tolerance)
+	 */
+	public double getSinglePrecisionError()
+	{
+		return this.singlePrecisionError;
+	}
+	
+	/**
+	 * Draws ACCURACY_CHECK_POINTS points from each MVND in both double and single precision, from
+	 * the same standard normal variates, and compares them.
+	 * 
+	 * @return the largest difference between a single and double precision coordinate, relative to
+	 *         the magnitude of the double precision one (or absolute, below a magnitude of one)
+	 */
+	private double checkSinglePrecision()
+	{
+		SampleWorkspace workspace = new SampleWorkspace(this.dimensions);
+		double[] z = new double[this.dimensions];
+		double[] pointFloat = new double[this.dimensions];
+		double maxError = 0.0;
+		
+		for(int i = 0 ; i < this.numModels ; i++)
+		{
+			// Both paths draw the same variates, rounded to single precision
+			ZigguratRandom doubleRandom = new ZigguratRandom(i);
+			ZigguratRandom floatRandom = new ZigguratRandom(i);
+			
+			for(int p = 0 ; p < ACCURACY_CHECK_POINTS ; p++)
+			{
+				this.sampleComponentFloat(i, floatRandom, workspace, pointFloat, 0);
+				
+				for(int j = 0 ; j < this.dimensions ; j++)
+				{
+					z[j] = (float)doubleRandom.nextGaussian();
+				}
+				
+				for(int j = 0 ; j < this.dimensions ; j++)
+				{
+					double value = this.meansArray[i][j];
+					
+					for(int k = 0 ; k <= j ; k++)
+					{
+						value += this.factors.get(i, j, k)*z[k];
+					}
+					
+					maxError = Math.max(maxError, Math.abs(pointFloat[j] - value)/Math.max(1.0, Math.abs(value)));
+				}
+			}
+		}
+		
+		return maxError;
+	}
+	
+	/**
+	 * Rounds the index-th MVND's means and L to single precision, packing L's lower triangle column by column.
+	 */
+	private void narrow(int index)
+	{
+		double[] means = this.meansArray[index];
+		double[] l = this.factors.array(index, this.factors.isOffHeap() ? new double[this.factors.size()] : null);
+		int base = this.factors.offset(index);
+		float[] meansFloat = this.meansFloat[index];
+		float[] lFloat = this.lPacked[index];
+		int position = 0;
+		
+		for(int j = 0 ; j < this.dimensions ; j++)
+		{
+			meansFloat[j] = (float)means[j];
+		}
+		
+		for(int k = 0 ; k < this.dimensions ; k++)
+		{
+			for(int j = k ; j < this.dimensions ; j++)
+			{
+				lFloat[position++] = (float)l[base + this.factors.rowStart(j) + k];
+			}
+		}
+	}
+	
+	/**
+	 * Returns the double precision L matrices, first widening the single precision ones if the
+	 * double precision ones were released by setSinglePrecision.
+	 * 
+	 * @return the packed L matrices
+	 */
+	private PackedFactors factors()
+	{
+		if(this.factors == null)
+			this.widen();
+		
+		return this.factors;
+	}
+	
+	/**
+	 * @return a copy of the packed L matrices, on the heap
+	 */
+	PackedFactors copyFactors()
+	{
+		return this.factors().copy(false);
+	}
+	
+	/**
+	 * Rebuilds the double precision L matrices from the single precision ones.
+	 */
+	private void widen()
+	{
+		this.factors = new PackedFactors(this.numModels, this.dimensions, this.structure, this.offHeap);
+		
+		for(int i = 0 ; i < this.numModels ; i++)
+		{
+			float[] lFloat = this.lPacked[i];
+			int position = 0;
+			
+			for(int k = 0 ; k < this.dimensions ; k++)
+			{
+				for(int j = k ; j < this.dimensions ; j++)
+				{
+					this.factors.set(i, j, k, lFloat[position++]);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Moves the mixture model's L matrices onto or off the Java heap. Off the heap they are kept
+	 * in direct buffers, which neither count towards the heap's maximum size nor burden the garbage
+	 * collector, at the cost of copying each L into a scratch array before it is used.
+	 * 
+	 * @param offHeap whether to store the L matrices outside the Java heap
+	 */
+	public void setOffHeap(boolean offHeap)
+	{
+		if(this.factors != null && this.factors.isOffHeap() != offHeap)
+			this.factors = this.factors.copy(offHeap);
+		
+		this.offHeap = offHeap;
+	}
+	
+	/**
+	 * @return whether the mixture model's L matrices are stored outside the Java heap
+	 */
+	public boolean isOffHeap()
+	{
+		return this.offHeap;
+	}
+	
+	/**
+	 * Calculates the concept assignment map. Each majority class is its own concept, each minority class is assigned to its closest concept.
+	 * @param numMajClasses the number of majority classes
+	 * 
+	 * @return an array mapping classes to concepts
+	 * 
+	 * @see moa.streams.generators.mixturemodel.MixtureModel#getHellingerDistances(int)
+	 */
+	public double[] getConceptAssignments(int numMajClasses)
+	{
+		double[] conceptAssignments = new double[this.numModels];
+		double[][] distances = this.getHellingerDistances(numMajClasses);
+		
+		//System.out.print("ConceptAssignments:");
+		for(int i = 0 ; i < numMajClasses ; i++)
+		{
+			conceptAssignments[i] = i;
+			//System.out.print(" "+i+":"+conceptAssignments[i]+":0 /");
+		}
+		
+		for(int i = numMajClasses ; i < this.numModels ; i++)
+		{
+			conceptAssignments[i] = getIndexOfClosestMajorityClass(distances[i-numMajClasses]);
+			//System.out.print(" "+i+":"+conceptAssignments[i]+":1 /");
+		}
+		
+		//System.out.println();
+		
+		return conceptAssignments;
+	}
+	
+	/**
+	 * Determines to which majority class/concept a minority class is closest.
+	 * 
+	 * @param distances the Hellinger distances from the minority class to each majority class
+	 * 
+	 * @return the index of the majority class to which the minority class is closest
+	 */
+	private static double getIndexOfClosestMajorityClass(double[] distances)
+	{
+		double concept = -1;
+		double minDistance = Double.MAX_VALUE;
+		
+		for(int i = 0 ; i < distances.length ; i++)
+		{
+			if(distances[i] < minDistance)
+			{
+				minDistance = distances[i];
+				concept = i;
+			}
+		}		
+		
+		return concept;
+	}
+	
+	/**
+	 * Calculates the Hellinger distance between each minority class's multivariate normal distribution
+	 * (MVND), those from numMajClasses on, and each majority class's MVND. Row i-numMajClasses holds
+	 * minority class i's distances to majority classes 0 to numMajClasses-1.
+	 * 
+	 * The distances are computed in log space from the MVNDs' Cholesky factors, which stays finite in
+	 * hundreds of dimensions where the determinants themselves underflow. Each MVND's L*L' and log
+	 * determinant are computed once, leaving one Cholesky decomposition of the averaged covariance
+	 * matrix and one triangular solve per pair, and the rows are filled in parallel. The matrix is
+	 * kept until adjustMixtureModel or moveTowards change the MVNDs, so asking again, e.g. when a
+	 * generator restarts, costs nothing. The array is not a copy.
+	 * 
+	 * @param numMajClasses the number of majority classes
+	 * @return the Hellinger distances between the minority and majority classes' MVNDs
+	 */
+	public double[][] getHellingerDistances(int numMajClasses)
+	{
+		synchronized(this)
+		{
+			if(this.hellingerDistances != null && this.hellingerMajClasses == numMajClasses)
+				return this.hellingerDistances;
+		}
+		
+		// Widen a single precision model here rather than in several tasks at once
+		this.factors();
+		this.refreshFactors();
+		
+		double[][] products = new double[this.numModels][];
+		double[][] distances = new double[this.numModels - numMajClasses][numMajClasses];
+		
+		// The majority classes' products are shared by every row, so they are computed first
+		ForkJoinPool.commonPool().invoke(new HellingerTask(this, products, null, numMajClasses, 0, numMajClasses));
+		ForkJoinPool.commonPool().invoke(new HellingerTask(this, products, distances, numMajClasses, numMajClasses, this.numModels));
+		
+		synchronized(this)
+		{
+			this.hellingerDistances = distances;
+			this.hellingerMajClasses = numMajClasses;
+		}
+		
+		return distances;
+	}
+	
+	/**
+	 * Computes the lower triangle of the index-th MVND's L*L' within L's row envelope, packed as L is.
+	 * 
+	 * @param index the index of the MVND
+	 * @return the packed lower triangle of L*L'
+	 */
+	private double[] lowerProducts(int index)
+	{
+		PackedFactors factors = this.factors();
+		double[] l = factors.array(index, factors.isOffHeap() ? new double[factors.size()] : null);
+		int base = factors.offset(index);
+		double[] products = new double[factors.lowRankStart()];
+		
+		for(int j = 0 ; j < this.dimensions ; j++)
+		{
+			int firstJ = factors.firstColumn(j);
+			int shiftJ = base + factors.rowStart(j) - firstJ;
+			
+			for(int k = firstJ ; k <= j ; k++)
+			{
+				int firstK = factors.firstColumn(k);
+				int shiftK = base + factors.rowStart(k) - firstK;
+				double sum = 0.0;
+				
+				for(int m = Math.max(firstJ, firstK) ; m <= k ; m++)
+				{
+					sum += l[shiftJ+m]*l[shiftK+m];
+				}
+				
+				products[factors.rowStart(j) + k - firstJ] = sum;
+			}
+		}
+		
+		return products;
+	}
+	
+	/**
+	 * Fills a range of rows of the Hellinger distance matrix, splitting the range in two until each
+	 * task has a single row. Without a distance matrix, only the MVNDs' L*L' are computed.
+	 */
+	private static class HellingerTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private MixtureModel mm;
+		private double[][] products, distances;
+		private int numMajClasses, from, to;
+		
+		private HellingerTask(MixtureModel mm, double[][] products, double[][] distances, int numMajClasses, int from, int to)
+		{
+			this.mm = mm;
+			this.products = products;
+			this.distances = distances;
+			this.numMajClasses = numMajClasses;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute()
+		{
+			if(this.to - this.from > 1)
+			{
+				int middle = (this.from + this.to) >>> 1;
+				invokeAll(new HellingerTask(this.mm, this.products, this.distances, this.numMajClasses, this.from, middle),
+						new HellingerTask(this.mm, this.products, this.distances, this.numMajClasses, middle, this.to));
+				return;
+			}
+			
+			if(this.to == this.from)
+				return;
+			
+			int index = this.from;
+			this.products[index] = this.mm.lowerProducts(index);
+			
+			if(this.distances == null)
+				return;
+			
+			for(int i = 0 ; i < this.numMajClasses ; i++)
+			{
+				double logCoefficient = logBhattacharyyaCoefficient(this.mm, index, this.products[index], this.mm, i, this.products[i]);
+				this.distances[index-this.numMajClasses][i] = Math.sqrt(Math.max(0.0, 1.0 - Math.exp(logCoefficient)));
+			}
+			
+			// Only the majority classes' products are needed again
+			this.products[index] = null;
+		}
+	}
+	
+	/**
+	 * Calculates the Bhattacharyya coefficient, the integral of sqrt(p*q), between two multivariate
+	 * normal distributions that may belong to different mixture models. The squared Hellinger
+	 * distance between the two distributions is one minus this coefficient.
+	 * 
+	 * Unless both MVNDs have full covariance matrices, the coefficient is computed from their
+	 * structured factors in O(d) or O(d*parameter^2) time instead of from dense matrices.
+	 * 
+	 * @param mmA the mixture model containing the first MVND
+	 * @param modelA the index of the first MVND in mmA
+	 * @param mmB the mixture model containing the second MVND
+	 * @param modelB the index of the second MVND in mmB
+	 * @return the Bhattacharyya coefficient between the two MVNDs
+	 */
+	public static double bhattacharyyaCoefficient(MixtureModel mmA, int modelA, MixtureModel mmB, int modelB)
+	{
+		mmA.refreshFactors();
+		mmB.refreshFactors();
+		
+		if(!mmA.structure.isFull() || !mmB.structure.isFull())
+			return Math.exp(logBhattacharyyaCoefficient(mmA, modelA, null, mmB, modelB, null));
+		
+		Array2DRowRealMatrix meansA = new Array2DRowRealMatrix(mmA.getMeans(modelA));
+		Array2DRowRealMatrix covarianceA = new Array2DRowRealMatrix(mmA.getCovariance(modelA));
+		Array2DRowRealMatrix meansB = new Array2DRowRealMatrix(mmB.getMeans(modelB));
+		Array2DRowRealMatrix covarianceB = new Array2DRowRealMatrix(mmB.getCovariance(modelB));
+		
+		Array2DRowRealMatrix covarianceCombined = (Array2DRowRealMatrix)(covarianceA.add(covarianceB)).scalarMultiply(0.5);
+		Array2DRowRealMatrix covarianceCombinedInverse = (Array2DRowRealMatrix)new LUDecomposition(covarianceCombined).getSolver().getInverse();
+		Array2DRowRealMatrix meansDifference = (Array2DRowRealMatrix)(meansA.subtract(meansB));
+		
+		double detA = new LUDecomposition(covarianceA).getDeterminant();
+		double detB = new LUDecomposition(covarianceB).getDeterminant();
+		double detCmbnd = new LUDecomposition(covarianceCombined).getDeterminant();
+
+		
+		double partA = (Math.pow(detA, 0.25)*Math.pow(detB, 0.25))/Math.pow(detCmbnd, 0.5);
+		Array2DRowRealMatrix partBMatrix = (Array2DRowRealMatrix)((meansDifference.transpose()).multiply(covarianceCombinedInverse)).multiply(meansDifference);
+		double partB = Math.exp(-0.125 * partBMatrix.getEntry(0, 0));
+		
+		return partA*partB;
+	}
+	
+	/**
+	 * Calculates the logarithm of the Bhattacharyya coefficient between two MVNDs from their structured
+	 * factors. With S the average of their covariance matrices and m the difference of their means,
+	 * log BC = log|det S_A|/4 + log|det S_B|/4 - log|det S|/2 - m'*S^-1*m/8.
+	 * 
+	 * The average of the two L*L' has the envelope of the two L's, and so does its Cholesky
+	 * factor, so the factor is computed within that envelope. The two W's, side by side and scaled
+	 * by sqrt(1/2), are then the low-rank factor of S and are handled as in computeDensityFactors.
+	 * 
+	 * @param productsA the first MVND's L*L' as computed by lowerProducts, or null to compute it here
+	 * @param productsB the second MVND's L*L' as computed by lowerProducts, or null to compute it here
+	 * 
+	 * @see moa.streams.generators.mixturemodel.MixtureModel#bhattacharyyaCoefficient(MixtureModel, int, MixtureModel, int)
+	 */
+	private static double logBhattacharyyaCoefficient(MixtureModel mmA, int modelA, double[] productsA, MixtureModel mmB, int modelB, double[] productsB)
+	{
+		int d = mmA.dimensions;
+		PackedFactors factorsA = mmA.factors();
+		PackedFactors factorsB = mmB.factors();
+		int[] firstColumns = new int[d];
+		int[] rowStarts = new int[d+1];
+		
+		for(int j = 0 ; j < d ; j++)
+		{
+			firstColumns[j] = Math.min(factorsA.firstColumn(j), factorsB.firstColumn(j));
+			rowStarts[j+1] = rowStarts[j] + (j - firstColumns[j] + 1);
+		}
+		
+		double[] l = new double[rowStarts[d]];
+		double[] invDiag = new double[d];
+		
+		for(int j = 0 ; j < d ; j++)
+		{
+			for(int k = firstColumns[j] ; k <= j ; k++)
+			{
+				l[rowStarts[j] + k - firstColumns[j]] = 0.5*(lowerProduct(factorsA, modelA, productsA, j, k) + lowerProduct(factorsB, modelB, productsB, j, k));
+			}
+		}
+		
+		double logDeterminant = cholesky(l, d, firstColumns, rowStarts, invDiag);
+		
+		double[] y = new double[d];
+		
+		for(int j = 0 ; j < d ; j++)
+		{
+			y[j] = mmA.meansArray[modelA][j] - mmB.meansArray[modelB][j];
+		}
+		
+		solveLower(l, 0, firstColumns, rowStarts, invDiag, d, y, 1);
+		
+		double mahalanobis = 0.0;
+		
+		for(int j = 0 ; j < d ; j++)
+		{
+			mahalanobis += y[j]*y[j];
+		}
+		
+		int rankA = factorsA.rank();
+		int rank = rankA + factorsB.rank();
+		
+		if(rank > 0)
+		{
+			double[] c = new double[d*rank];
+			double[] k = new double[(rank*(rank+1))/2];
+			double scale = Math.sqrt(0.5);
+			
+			for(int j = 0 ; j < d ; j++)
+			{
+				for(int r = 0 ; r < rank ; r++)
+				{
+					c[j*rank+r] = scale*((r < rankA) ? factorsA.getLowRank(modelA, j, r) : factorsB.getLowRank(modelB, j, r-rankA));
+				}
+			}
+			
+			solveLower(l, 0, firstColumns, rowStarts, invDiag, d, c, rank);
+			logDeterminant += capacitanceFactor(c, d, rank, k);
+			mahalanobis -= lowRankCorrection(c, k, d, rank, y, new double[rank]);
+		}
+		
+		// The normalizing constants hold -(d*log(2*pi))/2 - log|det S|/2 for each MVND
+		return -0.5*(mmA.logNormalizers[modelA] + mmB.logNormalizers[modelB])
+				- 0.5*d*Math.log(2.0*Math.PI) - logDeterminant - 0.125*mahalanobis;
+	}
+	
+	/**
+	 * @param factors the packed factors
+	 * @param model the index of the MVND
+	 * @param products the MVND's L*L' as computed by lowerProducts, or null
+	 * @param j a row of L
+	 * @param k a row of L, at most j
+	 * @return the (j,k) entry of L*L'
+	 */
+	private static double lowerProduct(PackedFactors factors, int model, double[] products, int j, int k)
+	{
+		if(products != null)
+			return (k < factors.firstColumn(j)) ? 0.0 : products[factors.rowStart(j) + k - factors.firstColumn(j)];
+		
+		double sum = 0.0;
+		
+		for(int m = Math.max(factors.firstColumn(j), factors.firstColumn(k)) ; m <= k ; m++)
+		{
+			sum += factors.get(model, j, m)*factors.get(model, k, m);
+		}
+		
+		return sum;
+	}
+	
+	/**
+	 * Restarts the mixture model by reinitializing the pseudo random number generators' seeds.
+	 * 
+	 * @param instanceRandomSeed the seed for the instances' pseudo random number generator.
+	 * @param modelRandomSeed the see for the models' pseudo random number generator.
+	 */
+	public void restart(int instanceRandomSeed, int modelRandomSeed)
+	{
+		this.instanceRandom.setSeed(instanceRandomSeed);
+		this.modelRandom.setSeed(modelRandomSeed);
+	}
+
+	/**
+	 * Calculates the density of the mixture model at the argument point. This is done
+	 * via a weighted sum of the density of each multivariate normal distribution in the
+	 * mixture model  evaluated at the argument point.
+	 * 
+	 * @param point the point at which to calculate the mixture model's density.
+	 * @return the mixture model's density at the argument point.
+	 * 
+	 * @see moa.streams.generators.mixturemodel.MixtureModel#logDensityAt(double[])
+	 */
+	public double densityAt(double[] point)
+	{
+		return Math.exp(this.logDensityAt(point, new double[this.dimensions], new double[this.structure.getRank()]));
+	}
+	
+	/**
+	 * Calculates the natural logarithm of the density of the mixture model at the argument point.
+	 * Unlike densityAt, this does not underflow to zero far from the models or in many dimensions.
+	 * 
+	 * @param point the point at which to calculate the mixture model's log density.
+	 * @return the logarithm of the mixture model's density at the argument point.
+	 */
+	public double logDensityAt(double[] point)
+	{
+		return this.logDensityAt(point, new double[this.dimensions], new double[this.structure.getRank()]);
+	}
+	
+	/**
+	 * Calculates the density of the mixture model at each of the argument points.
+	 * 
+	 * @param points the points at which to calculate the mixture model's density, one per row
+	 * @param out the buffer receiving the densities, of length at least points.length
+	 * 
+	 * @see moa.streams.generators.mixturemodel.MixtureModel#densityAt(double[], int, double[])
+	 */
+	public void densityAt(double[][] points, double[] out)
+	{
+		DensityWorkspace workspace = new DensityWorkspace(this.dimensions);
+		
+		for(int start = 0 ; start < points.length ; start += DensityWorkspace.BLOCK_SIZE)
+		{
+			int blockSize = Math.min(DensityWorkspace.BLOCK_SIZE, points.length - start);
+			
+			for(int p = 0 ; p < blockSize ; p++)
+			{
+				double[] point = points[start+p];
+				
+				for(int j = 0 ; j < this.dimensions ; j++)
+				{
+					workspace.x[j][p] = point[j];
+				}
+			}
+			
+			this.logDensityBlock(workspace, blockSize, out, start);
+		}
+		
+		for(int p = 0 ; p < points.length ; p++)
+		{
+			out[p] = Math.exp(out[p]);
+		}
+	}
+	
+	/**
+	 * Calculates the density of the mixture model at each of numPoints points stored row-major in a
+	 * flat array, point r occupying points[r*dimensions] through points[(r+1)*dimensions - 1].
+	 * 
+	 * @param points the points at which to calculate the mixture model's density
+	 * @param numPoints the number of points
+	 * @param out the buffer receiving the densities, of length at least numPoints
+	 * 
+	 * @see moa.streams.generators.mixturemodel.MixtureModel#logDensityAt(double[], int, double[])
+	 */
+	public void densityAt(double[] points, int numPoints, double[] out)
+	{
+		this.logDensityAt(points, numPoints, out, new DensityWorkspace(this.dimensions));
+		
+		for(int p = 0 ; p < numPoints ; p++)
+		{
+			out[p] = Math.exp(out[p]);
+		}
+	}
+	
+	/**
+	 * Calculates the logarithm of the density of the mixture model at each of numPoints points
+	 * stored row-major in a flat array.
+	 * 
+	 * @param points the points at which to calculate the mixture model's log density
+	 * @param numPoints the number of points
+	 * @param out the buffer receiving the log densities, of length at least numPoints
+	 */
+	public void logDensityAt(double[] points, int numPoints, double[] out)
+	{
+		this.logDensityAt(points, numPoints, out, new DensityWorkspace(this.dimensions));
+	}
+	
+	/**
+	 * Calculates the logarithm of the density of the mixture model at each of numPoints points
+	 * stored row-major in a flat array, using a caller-owned workspace. The points are processed
+	 * in blocks that are first transposed into the workspace.
+	 * 
+	 * @param points the points at which to calculate the mixture model's log density
+	 * @param numPoints the number of points
+	 * @param out the buffer receiving the log densities, of length at least numPoints
+	 * @param workspace scratch space for this model's dimensionality
+	 */
+	void logDensityAt(double[] points, int numPoints, double[] out, DensityWorkspace workspace)
+	{
+		for(int start = 0 ; start < numPoints ; start += DensityWorkspace.BLOCK_SIZE)
+		{
+			int blockSize = Math.min(DensityWorkspace.BLOCK_SIZE, numPoints - start);
+			
+			for(int p = 0 ; p < blockSize ; p++)
+			{
+				int row = (start+p)*this.dimensions;
+				
+				for(int j = 0 ; j < this.dimensions ; j++)
+				{
+					workspace.x[j][p] = points[row+j];
+				}
+			}
+			
+			this.logDensityBlock(workspace, blockSize, out, start);
+		}
+	}
+	
+	/**
+	 * Calculates the log density at a block of points already transposed into workspace.x, so that
+	 * attribute j of the block's points is the contiguous row x[j]. The forward substitution then runs
+	 * over all of the block's points at once: for each entry of L, the innermost loop is a unit-stride
+	 * multiply-subtract between two rows, which the JIT compiler turns into SIMD instructions. Keeping
+	 * each attribute in its own array, rather than at offsets into one array, is what allows this.
+	 * The low-rank correction, if any, is applied to the whole block in the same way.
+	 * 
+	 * @param workspace the workspace holding the transposed block
+	 * @param blockSize the number of points in the block
+	 * @param out the buffer receiving the log densities
+	 * @param offset the position in out at which to write the block's first log density
+	 */
+	private void logDensityBlock(DensityWorkspace workspace, int blockSize, double[] out, int offset)
+	{
+		double[][] x = workspace.x;
+		double[][] y = workspace.y;
+		double[] mahalanobis = workspace.mahalanobis;
+		double[] max = workspace.max;
+		double[] sum = workspace.sum;
+		PackedFactors factors = this.factors();
+		double[] scratch = workspace.factorScratch(factors);
+		int rank = factors.rank();
+		
+		this.refreshFactors();
+		
+		for(int p = 0 ; p < blockSize ; p++)
+		{
+			max[p] = Double.NEGATIVE_INFINITY;
+			sum[p] = 0.0;
+		}
+		
+		for(int i = 0 ; i < this.numModels ; i++)
+		{
+			if(this.logWeights[i] == Double.NEGATIVE_INFINITY)
+				continue;
+			
+			double[] means = this.meansArray[i];
+			double[] l = factors.array(i, scratch);
+			int base = factors.offset(i);
+			double[] invDiag = this.invDiagArray[i];
+			double logConstant = this.logWeights[i] + this.logNormalizers[i];
+			
+			for(int p = 0 ; p < blockSize ; p++)
+			{
+				mahalanobis[p] = 0.0;
+			}
+			
+			for(int j = 0 ; j < this.dimensions ; j++)
+			{
+				int first = factors.firstColumn(j);
+				int shift = base + factors.rowStart(j) - first;
+				double mean = means[j];
+				double[] xJ = x[j];
+				double[] yJ = y[j];
+				
+				for(int p = 0 ; p < blockSize ; p++)
+				{
+					yJ[p] = xJ[p] - mean;
+				}
+				
+				for(int k = first ; k < j ; k++)
+				{
+					double lJK = l[shift+k];
+					double[] yK = y[k];
+					
+					for(int p = 0 ; p < blockSize ; p++)
+					{
+						yJ[p] -= lJK*yK[p];
+					}
+				}
+				
+				double inverse = invDiag[j];
+				
+				for(int p = 0 ; p < blockSize ; p++)
+				{
+					double value = yJ[p]*inverse;
+					yJ[p] = value;
+					mahalanobis[p] += value*value;
+				}
+			}
+			
+			if(rank > 0)
+				this.lowRankCorrectionBlock(i, workspace, blockSize);
+			
+			// Running log-sum-exp over the models
+			for(int p = 0 ; p < blockSize ; p++)
+			{
+				double logDensity = logConstant - 0.5*mahalanobis[p];
+				
+				if(logDensity <= max[p])
+				{
+					sum[p] += Math.exp(logDensity - max[p]);
+				}
+				else
+				{
+					sum[p] = (sum[p]*Math.exp(max[p] - logDensity)) + 1.0;
+					max[p] = logDensity;
+				}
+			}
+		}
+		
+		for(int p = 0 ; p < blockSize ; p++)
+		{
+			out[offset+p] = max[p] + Math.log(sum[p]);
+		}
+	}
+	
+	/**
+	 * Subtracts the low-rank correction of lowRankCorrection from the squared Mahalanobis distances
+	 * of a block of points, whose forward substitutions are in workspace.y.
+	 * 
+	 * @param index the index of the MVND
+	 * @param workspace the workspace holding the block
+	 * @param blockSize the number of points in the block
+	 */
+	private void lowRankCorrectionBlock(int index, DensityWorkspace workspace, int blockSize)
+	{
+		int rank = this.structure.getRank();
+		double[] c = this.lowRankC[index];
+		double[] k = this.lowRankK[index];
+		double[][] y = workspace.y;
+		double[][] t = workspace.projections(rank);
+		double[] mahalanobis = workspace.mahalanobis;
+		
+		for(int r = 0 ; r < rank ; r++)
+		{
+			double[] tR = t[r];
+			
+			for(int p = 0 ; p < blockSize ; p++)
+			{
+				tR[p] = 0.0;
+			}
+		}
+		
+		for(int j = 0 ; j < this.dimensions ; j++)
+		{
+			double[] yJ = y[j];
+			
+			for(int r = 0 ; r < rank ; r++)
+			{
+				double cJR = c[j*rank+r];
+				double[] tR = t[r];
+				
+				for(int p = 0 ; p < blockSize ; p++)
+				{
+					tR[p] += cJR*yJ[p];
+				}
+			}
+		}
+		
+		for(int r = 0, rowStart = 0 ; r < rank ; rowStart += ++r)
+		{
+			double[] tR = t[r];
+			
+			for(int q = 0 ; q < r ; q++)
+			{
+				double kRQ = k[rowStart+q];
+				double[] tQ = t[q];
+				
+				for(int p = 0 ; p < blockSize ; p++)
+				{
+					tR[p] -= kRQ*tQ[p];
+				}
+			}
+			
+			double inverse = 1.0/k[rowStart+r];
+			
+			for(int p = 0 ; p < blockSize ; p++)
+			{
+				double value = tR[p]*inverse;
+				tR[p] = value;
+				mahalanobis[p] -= value*value;
+			}
+		}
+	}
+	
+	/**
+	 * Calculates the logarithm of the mixture model's density at the argument point using
+	 * caller-owned scratch vectors. For each MVND, the forward substitution L*y = (point - means)
+	 * gives the squared Mahalanobis distance as y.y, less the low-rank correction if there is a W,
+	 * and the weighted log densities are combined with a running log-sum-exp. Models with a weight
+	 * of zero or less contribute nothing.
+	 * 
+	 * @param point the point at which to calculate the mixture model's log density
+	 * @param y a scratch vector of length at least dimensions
+	 * @param t a scratch vector of length at least the covariance structure's rank
+	 * @return the logarithm of the mixture model's density at the argument point
+	 */
+	double logDensityAt(double[] point, double[] y, double[] t)
+	{
+		double max = Double.NEGATIVE_INFINITY;
+		double sum = 0.0;
+		PackedFactors factors = this.factors();
+		double[] scratch = factors.isOffHeap() ? new double[factors.size()] : null;
+		
+		this.refreshFactors();
+		
+		for(int i = 0 ; i < this.numModels ; i++)
+		{
+			if(this.logWeights[i] == Double.NEGATIVE_INFINITY)
+				continue;
+			
+			double[] means = this.meansArray[i];
+			double[] l = factors.array(i, scratch);
+			int base = factors.offset(i);
+			double[] invDiag = this.invDiagArray[i];
+			double mahalanobis = 0.0;
+			
+			for(int j = 0 ; j < this.dimensions ; j++)
+			{
+				int first = factors.firstColumn(j);
+				int shift = base + factors.rowStart(j) - first;
+				double residual = point[j] - means[j];
+				
+				for(int k = first ; k < j ; k++)
+				{
+					residual -= l[shift+k]*y[k];
+				}
+				
+				y[j] = residual*invDiag[j];
+				mahalanobis += y[j]*y[j];
+			}
+			
+			if(factors.rank() > 0)
+				mahalanobis -= lowRankCorrection(this.lowRankC[i], this.lowRankK[i], this.dimensions, factors.rank(), y, t);
+			
+			double logDensity = this.logWeights[i] + this.logNormalizers[i] - 0.5*mahalanobis;
+			
+			if(logDensity <= max)
+			{
+				sum += Math.exp(logDensity - max);
+			}
+			else
+			{
+				sum = (sum*Math.exp(max - logDensity)) + 1.0;
+				max = logDensity;
+			}
+		}
+		
+		return max + Math.log(sum);
+	}
+	
+	/**
+	 * Recomputes the density factors, and the single precision parameters if the mixture model
+	 * samples in single precision, if adjustMixtureModel has changed the parameters since they
+	 * were last computed. Several threads may sample or evaluate densities at once, so the first
+	 * of them to find the factors stale recomputes them while the others wait.
+	 */
+	private void refreshFactors()
+	{
+		if(!this.factorsStale)
+			return;
+		
+		synchronized(this)
+		{
+			if(this.factorsStale)
+			{
+				for(int i = 0 ; i < this.numModels ; i++)
+				{
+					this.computeDensityFactors(i);
+				}
+				
+				this.factorsStale = false;
+			}
+		}
 	}
 	
 	/**
-	 * Sets the model weights so that, in a one-class classification scenario, the majority classes'
-	 * weights sum to the argument weight.
+	 * Precomputes the factors that densityAt needs for the index-th multivariate normal
+	 * distribution (MVND): the reciprocals of L's diagonal, used in the forward substitution,
+	 * and the logarithm of the MVND's normalizing constant, -(d*log(2*pi))/2 - log|det L|.
 	 * 
-	 * @param numMajClasses the number of majority classes
-	 * @param weight the total of the majority classes' weights
+	 * If the MVND has a low-rank factor W, the covariance matrix is L*L' + W*W' and, by the Woodbury
+	 * identity and the matrix determinant lemma, its inverse and determinant follow from those of L
+	 * and of the rank by rank matrix I + C'*C, where C solves L*C = W. C and the Cholesky factor K of
+	 * I + C'*C are kept, and log|det K| is subtracted from the normalizing constant as well.
+	 * 
+	 * @param index the index of the MVND whose L has been created or changed
 	 */
-	public void setWeights(int numMajClasses, double majWeight)
+	private void computeDensityFactors(int index)
 	{
-		double weightSum = 0.0;
-		double minWeight = 1.0 - majWeight;
-		
-		// MAJORITY CLASSES
-		for(int i = 0 ; i < numMajClasses ; i++)
-		{
-			weights[i] = modelRandom.nextDouble();
-			weightSum += weights[i];
-		}
+		PackedFactors factors = this.factors();
+		double[] invDiag = this.invDiagArray[index];
+		double logDeterminant = 0.0;
 		
-		// Normalize weights array
-		for(int i = 0 ; i < numMajClasses ; i++)
+		for(int j = 0 ; j < this.dimensions ; j++)
 		{
-			weights[i] = (majWeight*weights[i])/weightSum;
+			double diagonal = factors.get(index, j, j);
+			invDiag[j] = 1.0/diagonal;
+			logDeterminant += Math.log(Math.abs(diagonal));
 		}
 		
-		// MINORITY CLASSES
-		weightSum = 0.0;
+		int rank = factors.rank();
 		
-		for(int i = numMajClasses ; i < this.numModels ; i++)
+		if(rank > 0)
 		{
-			weights[i] = modelRandom.nextDouble();
-			weightSum += weights[i];
+			double[] l = factors.array(index, factors.isOffHeap() ? new double[factors.size()] : null);
+			int base = factors.offset(index);
+			double[] c = this.lowRankC[index];
+			
+			System.arraycopy(l, base + factors.lowRankStart(), c, 0, this.dimensions*rank);
+			solveLower(l, base, factors.firstColumns(), factors.rowStarts(), invDiag, this.dimensions, c, rank);
+			logDeterminant += capacitanceFactor(c, this.dimensions, rank, this.lowRankK[index]);
 		}
 		
-		// Normalize weights array
-		for(int i = numMajClasses ; i < this.numModels ; i++)
-		{
-			weights[i] = (minWeight*weights[i])/weightSum;
-		}
+		this.logNormalizers[index] = -0.5*this.dimensions*Math.log(2.0*Math.PI) - logDeterminant;
 		
+		if(this.singlePrecision)
+			this.narrow(index);
 	}
 	
-	
 	/**
-	 * Generates the next instance in the data stream by selecting a model (via the weights array) and then sampling that model.
+	 * Overwrites the d by columns row-major matrix x with the solution of L*x = x, where L is
+	 * stored in l from offset on with the argument row envelope.
 	 * 
-	 * @see moa.streams.generators.mixturemodel.MixtureModel#weights
-	 * 
-	 * @param instHead the header for instances in the data stream
-	 * @return the next instance in the data stream
+	 * @param l the array holding L
+	 * @param offset the position of L[0][0] in l
+	 * @param firstColumns the first stored column of each row of L
+	 * @param rowStarts the position of each row's first stored value, relative to offset
+	 * @param invDiag the reciprocals of L's diagonal
+	 * @param d the number of rows of L
+	 * @param x the right hand side, overwritten with the solution
+	 * @param columns the number of columns of x
 	 */
-	public InstanceExample nextInstance(InstancesHeader instHeader)
+	private static void solveLower(double[] l, int offset, int[] firstColumns, int[] rowStarts, double[] invDiag, int d, double[] x, int columns)
 	{
-		int index = MiscUtils.chooseRandomIndexBasedOnWeights(this.weights,
-                this.instanceRandom);
-		//System.out.println("MMnI: index "+index+" is chosen.\n"+modelArray[index].toString());
-		double[] point = modelArray[index].sample();
-		double[] attVals = new double[dimensions+1];
-		
-		// Add the class label to the sampled point as the last attribute
-		//System.out.println("Instance:");
-		for(int i = 0 ; i < dimensions ; i++)
+		for(int j = 0 ; j < d ; j++)
 		{
-			attVals[i] = point[i];
-			//System.out.print(attVals[i]+" ");
+			int first = firstColumns[j];
+			int shift = offset + rowStarts[j] - first;
+			int rowJ = j*columns;
+			
+			for(int k = first ; k < j ; k++)
+			{
+				double lJK = l[shift+k];
+				int rowK = k*columns;
+				
+				for(int q = 0 ; q < columns ; q++)
+				{
+					x[rowJ+q] -= lJK*x[rowK+q];
+				}
+			}
+			
+			for(int q = 0 ; q < columns ; q++)
+			{
+				x[rowJ+q] *= invDiag[j];
+			}
 		}
-		
-		Instance inst = new DenseInstance(1.0, attVals);
-        inst.setDataset(instHeader);
-        inst.setClassValue(index);
-        return new InstanceExample(inst);
 	}
 	
 	/**
-	 * Calculates the concept assignment map. Each majority class is its own concept, each minority class is assigned to its closest concept.
-	 * @param numMajClasses the number of majority classes
+	 * Overwrites a symmetric positive definite matrix, of which only the lower triangle within the
+	 * argument row envelope is stored, with its Cholesky factor. The factor has the same envelope.
 	 * 
-	 * @return an array mapping classes to concepts
+	 * @param a the array holding the matrix
+	 * @param n the number of rows of the matrix
+	 * @param firstColumns the first stored column of each row, or null if every row starts at column 0
+	 * @param rowStarts the position in a of each row's first stored value, or null if row j starts at j*(j+1)/2
+	 * @param invDiag the buffer receiving the reciprocals of the factor's diagonal
+	 * @return the logarithm of the factor's determinant
 	 */
-	public double[] getConceptAssignments(int numMajClasses)
+	private static double cholesky(double[] a, int n, int[] firstColumns, int[] rowStarts, double[] invDiag)
 	{
-		double[] conceptAssignments = new double[this.numModels];
-		
-		//System.out.print("ConceptAssignments:");
-		for(int i = 0 ; i < numMajClasses ; i++)
-		{
-			conceptAssignments[i] = i;
-			//System.out.print(" "+i+":"+conceptAssignments[i]+":0 /");
-		}
+		double logDeterminant = 0.0;
 		
-		for(int i = numMajClasses ; i < this.numModels ; i++)
+		for(int j = 0 ; j < n ; j++)
 		{
-			conceptAssignments[i] = getIndexOfClosestMajorityClass(i, numMajClasses);
-			//System.out.print(" "+i+":"+conceptAssignments[i]+":1 /");
+			int firstJ = (firstColumns == null) ? 0 : firstColumns[j];
+			int shiftJ = ((rowStarts == null) ? (j*(j+1))/2 : rowStarts[j]) - firstJ;
+			
+			for(int k = firstJ ; k <= j ; k++)
+			{
+				int firstK = (firstColumns == null) ? 0 : firstColumns[k];
+				int shiftK = ((rowStarts == null) ? (k*(k+1))/2 : rowStarts[k]) - firstK;
+				double sum = a[shiftJ+k];
+				
+				for(int m = Math.max(firstJ, firstK) ; m < k ; m++)
+				{
+					sum -= a[shiftJ+m]*a[shiftK+m];
+				}
+				
+				if(k < j)
+				{
+					a[shiftJ+k] = sum*invDiag[k];
+				}
+				else
+				{
+					double diagonal = Math.sqrt(sum);
+					a[shiftJ+j] = diagonal;
+					invDiag[j] = 1.0/diagonal;
+					logDeterminant += Math.log(diagonal);
+				}
+			}
 		}
 		
-		//System.out.println();
-		
-		return conceptAssignments;
+		return logDeterminant;
 	}
 	
 	/**
-	 * Determines to which majority class/concept the argument minority class is closest.
+	 * Computes the Cholesky factor K of the rank by rank matrix I + C'*C, packed row by row.
 	 * 
-	 * @param index the index of the minority class
-	 * @param numMajClasses the number of majority classes
-	 * 
-	 * @return the index of the majority class to which the minority class is closest
+	 * @param c the d by rank row-major matrix C
+	 * @param d the number of rows of C
+	 * @param rank the number of columns of C
+	 * @param k the buffer receiving K, of length rank*(rank+1)/2
+	 * @return log|det K|
 	 */
-	private double getIndexOfClosestMajorityClass(int index, int numMajClasses)
+	private static double capacitanceFactor(double[] c, int d, int rank, double[] k)
 	{
-		double concept = -1;
-		double minDistance = Double.MAX_VALUE;
-		double currDistance;
-		
-		for(int i = 0 ; i < numMajClasses ; i++)
+		for(int r = 0, rowStart = 0 ; r < rank ; rowStart += ++r)
 		{
-			currDistance = hellingerDistance(index, i);
-			
-			if(currDistance < minDistance)
+			for(int q = 0 ; q <= r ; q++)
 			{
-				minDistance = currDistance;
-				concept = i;
+				double sum = (q == r) ? 1.0 : 0.0;
+				
+				for(int j = 0 ; j < d ; j++)
+				{
+					sum += c[j*rank+r]*c[j*rank+q];
+				}
+				
+				k[rowStart+q] = sum;
 			}
-		}		
+		}
 		
-		return concept;
+		return cholesky(k, rank, null, null, new double[rank]);
 	}
 	
 	/**
-	 * Calculates the Hellinger distance between two multivariate normal distributions.
+	 * Returns y'*C*(I + C'*C)^-1*C'*y, the amount by which the low-rank factor reduces the squared
+	 * Mahalanobis distance y'*y, as s'*s where K*s = C'*y.
 	 * 
-	 * @param modelA the first MVND
-	 * @param modelB the second MVND
-	 * @return the Hellinger distance bewteen modelA and modelB
+	 * @param c the d by rank row-major matrix C
+	 * @param k the Cholesky factor of I + C'*C, packed row by row
+	 * @param d the number of rows of C
+	 * @param rank the number of columns of C
+	 * @param y the forward substitution of the point
+	 * @param t a scratch vector of length at least rank
+	 * @return the correction to the squared Mahalanobis distance
 	 */
-	private double hellingerDistance(int modelA, int modelB)
+	private static double lowRankCorrection(double[] c, double[] k, int d, int rank, double[] y, double[] t)
 	{
-		Array2DRowRealMatrix meansA = new Array2DRowRealMatrix(getMeans(modelA));
-		Array2DRowRealMatrix covarianceA = new Array2DRowRealMatrix(getCovariance(modelA));
-		Array2DRowRealMatrix meansB = new Array2DRowRealMatrix(getMeans(modelB));
-		Array2DRowRealMatrix covarianceB = new Array2DRowRealMatrix(getCovariance(modelB));
+		for(int r = 0 ; r < rank ; r++)
+		{
+			t[r] = 0.0;
+		}
 		
-		Array2DRowRealMatrix covarianceCombined = (Array2DRowRealMatrix)(covarianceA.add(covarianceB)).scalarMultiply(0.5);
-		Array2DRowRealMatrix covarianceCombinedInverse = (Array2DRowRealMatrix)new LUDecomposition(covarianceCombined).getSolver().getInverse();
-		Array2DRowRealMatrix meansDifference = (Array2DRowRealMatrix)(meansA.subtract(meansB));
+		for(int j = 0 ; j < d ; j++)
+		{
+			double yJ = y[j];
+			
+			for(int r = 0 ; r < rank ; r++)
+			{
+				t[r] += c[j*rank+r]*yJ;
+			}
+		}
 		
-		double detA = new LUDecomposition(covarianceA).getDeterminant();
-		double detB = new LUDecomposition(covarianceB).getDeterminant();
-		double detCmbnd = new LUDecomposition(covarianceCombined).getDeterminant();
-
+		double correction = 0.0;
 		
-		double partA = (Math.pow(detA, 0.25)*Math.pow(detB, 0.25))/Math.pow(detCmbnd, 0.5);
-		Array2DRowRealMatrix partBMatrix = (Array2DRowRealMatrix)((meansDifference.transpose()).multiply(covarianceCombinedInverse)).multiply(meansDifference);
-		double partB = Math.exp(-0.125 * partBMatrix.getEntry(0, 0));
+		for(int r = 0, rowStart = 0 ; r < rank ; rowStart += ++r)
+		{
+			double value = t[r];
+			
+			for(int q = 0 ; q < r ; q++)
+			{
+				value -= k[rowStart+q]*t[q];
+			}
+			
+			value = value/k[rowStart+r];
+			t[r] = value;
+			correction += value*value;
+		}
 		
-		double distance = 1.0 - (partA*partB);
-
-		return Math.sqrt(distance);
+		return correction;
 	}
 	
 	/**
-	 * Restarts the mixture model by reinitializing the pseudo random number generators' seeds.
-	 * 
-	 * @param instanceRandomSeed the seed for the instances' pseudo random number generator.
-	 * @param modelRandomSeed the see for the models' pseudo random number generator.
-	 */
-	public void restart(int instanceRandomSeed, int modelRandomSeed)
-	{
-		this.instanceRandom.setSeed(instanceRandomSeed);
-		this.modelRandom.setSeed(modelRandomSeed);
-	}
-
-	/**
-	 * Calculates the density of the mixture model at the argument point. This is done
-	 * via a weighted sum of the density of each multivariate normal distribution in the
-	 * mixture model  evaluated at the argument point.
-	 * 
-	 * @param point the point at which to calculate the mixture model's density.
-	 * @return the mixture model's density at the argument point.
+	 * Brings everything derived from the weights up to date after they change: the alias
+	 * table used to choose a model for each instance and the log weights used by densityAt.
 	 */
-	public double densityAt(double[] point)
+	private void weightsChanged()
 	{
-		double density = 0.0;
+		if(this.componentTable == null)
+			this.componentTable = new AliasTable(this.weights);
+		else
+			this.componentTable.rebuild(this.weights);
 		
 		for(int i = 0 ; i < this.numModels ; i++)
 		{
-			density += weights[i]*modelArray[i].density(point);
+			this.logWeights[i] = (this.weights[i] > 0.0) ? Math.log(this.weights[i]) : Double.NEGATIVE_INFINITY;
 		}
-		
-		return density;
 	}
 	
 	/**
 	 * Generates L, a lower triangular matrix with all real entries and with non-negative
 	 * entries on the diagonal. This matrix will be used as the Cholesky decomposition of
-	 * a covariance matrix (which must itself be positive semi-definite).
+	 * a covariance matrix (which must itself be positive semi-definite). Only the entries that
+	 * the covariance structure stores are generated, followed by those of W, if any, which lie
+	 * in the same range as L's off-diagonal entries.
 	 * 
-	 * @return L, lower triangular matrix with non-negative entries on the diagonal.
+	 * @param index the index of the MVND whose L is generated
 	 */
-	private double[][] generateL()
+	private void generateL(int index)
 	{
-		double[][] l = new double[this.dimensions][this.dimensions];
-		
 		for(int j = 0 ; j < this.dimensions ; j++)
 		{
-			for(int k = 0 ; k < j ; k++)
+			for(int k = this.factors.firstColumn(j) ; k < j ; k++)
 			{
-				l[j][k] = (modelRandom.nextDouble()*2.0)-1.0;
+				this.factors.set(index, j, k, (modelRandom.nextDouble()*2.0)-1.0);
 			}
 			
-			l[j][j] = modelRandom.nextDouble();
+			this.factors.set(index, j, j, modelRandom.nextDouble());
+		}
+		
+		for(int j = 0 ; j < this.dimensions ; j++)
+		{
+			for(int c = 0 ; c < this.factors.rank() ; c++)
+			{
+				this.factors.setLowRank(index, j, c, (modelRandom.nextDouble()*2.0)-1.0);
+			}
 		}
-
-		return l;
 	}
 	
 	/**
-	 * Using the argument matrix l* as a Cholesky decomposition, this method generates
-	 * and returns a covariance matrix (which must be positive semi-definite).
+	 * Using the index-th MVND's L as a Cholesky decomposition, this method generates
+	 * and returns a covariance matrix (which must be positive semi-definite), adding W*W'
+	 * if the MVND has a low-rank factor.
 	 * 
-	 * * - the argument matrix l must be a lower triangular matrix with all real entries
-	 * and with non-negative entries on the diagonal. Such a matrix is generated by the
-	 * generateL() method in this class.
-	 * 
-	 * @param l the Cholesky decomposition for the eventual covariance matrix.
-	 * @return the covariance matrix recovered from its Cholesky decomposition, l.
+	 * @param index the index of the MVND
+	 * @return the covariance matrix recovered from its Cholesky decomposition, L.
 	 */
-	private double[][] generateCovariance(double[][] l)
+	private double[][] generateCovariance(int index)
 	{
+		PackedFactors factors = this.factors();
+		double[] l = factors.array(index, factors.isOffHeap() ? new double[factors.size()] : null);
+		int base = factors.offset(index);
 		double[][] covariances = new double[this.dimensions][this.dimensions];
 		double matrixSum;
 
+		int rank = factors.rank();
+		int lowRankBase = base + factors.lowRankStart();
+
 		for(int j = 0 ; j < this.dimensions ; j++)
 		{
+			int firstJ = factors.firstColumn(j);
+			int shiftJ = base + factors.rowStart(j) - firstJ;
+			
 			for(int k = 0 ; k <= j ; k++)
 			{
+				int firstK = factors.firstColumn(k);
+				int shiftK = base + factors.rowStart(k) - firstK;
 				matrixSum = 0.0;
 
-				for(int m = 0 ; m < this.dimensions ; m++)
+				// L is lower triangular, so only the terms from both rows' first stored columns to k are non-zero
+				for(int m = Math.max(firstJ, firstK) ; m <= k ; m++)
+				{
+					matrixSum += l[shiftJ+m]*l[shiftK+m];
+				}
+				
+				for(int c = 0 ; c < rank ; c++)
 				{
-					matrixSum += l[j][m]*l[k][m];
+					matrixSum += l[lowRankBase + j*rank + c]*l[lowRankBase + k*rank + c];
 				}
 
 				covariances[j][k] = matrixSum;
@@ -399,51 +2164,120 @@ public class MixtureModel
 	 * Adjust this mixture model towards or away from the argument mixture model
 	 * as dictated by the argument miss distance.
 	 * 
+	 * The means and factors are updated in place, in O(k*d^2) time for full covariance matrices,
+	 * and nothing is allocated when the factors are stored on the heap. The alias table is rebuilt
+	 * in place straight away, but the density factors and single precision parameters are only
+	 * marked stale and recomputed by the first sample or density evaluation that needs them, so
+	 * that repeated adjustments pay for them once.
+	 * 
 	 * @param targetMM the MixtureModel towards/away from which to adjust this MixtureModel
 	 * @param distMiss the required correction between the respective MixtureModels
 	 */
 	public void adjustMixtureModel(MixtureModel targetMM, double distMiss)
 	{
-		// Adjust the weights
+		this.adjust(targetMM, distMiss, true);
+	}
+	
+	/**
+	 * Moves this mixture model's weights, means and factors the argument fraction of the way
+	 * towards those of the argument mixture model, which must have as many MVNDs. Unlike
+	 * adjustMixtureModel no random perturbation is added, so that a fraction of 1 reaches the
+	 * target, up to rounding, and moving by 1/s, 1/(s-1), ..., 1/2, 1 follows the straight line from the
+	 * current parameters to the target's in s equal steps. Each step costs the same as
+	 * adjustMixtureModel and allocates nothing when the factors are stored on the heap.
+	 * 
+	 * @param targetMM the MixtureModel towards which to move this MixtureModel
+	 * @param fraction the fraction of the remaining distance to cover, between 0 and 1
+	 * 
+	 * @see moa.streams.generators.mixturemodel.MixtureModelGeneratorEvolving
+	 */
+	public void moveTowards(MixtureModel targetMM, double fraction)
+	{
+		if(targetMM.getNumModels() != this.numModels || targetMM.getDimensions() != this.dimensions)
+			throw new IllegalArgumentException("The target mixture model must have as many models and dimensions as this one.");
+		
+		this.adjust(targetMM, fraction, false);
+	}
+	
+	/**
+	 * Adjusts this mixture model towards the argument one, for adjustMixtureModel and moveTowards.
+	 * 
+	 * @param targetMM the MixtureModel towards/away from which to adjust this MixtureModel
+	 * @param distMiss the required correction between the respective MixtureModels
+	 * @param perturb whether to add a small random perturbation to every parameter
+	 */
+	private void adjust(MixtureModel targetMM, double distMiss, boolean perturb)
+	{
+		// Adjust the weights; adjustMixtureModel keeps pairing them by dimension so that the drift search is unchanged
 		for(int i = 0 ; i < this.getNumModels() ; i++)
 		{
-			double weightMiss = targetMM.getWeight((i%targetMM.getDimensions())) - this.weights[i];
-			this.weights[i] = this.weights[i] + (weightMiss*distMiss) + (this.modelRandom.nextDouble()/100.0);
+			int target = perturb ? (i%targetMM.getDimensions()) : i;
+			double weightMiss = targetMM.getWeight(target) - this.weights[i];
+			this.weights[i] = this.weights[i] + (weightMiss*distMiss) + (perturb ? this.modelRandom.nextDouble()/100.0 : 0.0);
 		}
 		
-		// Adjust the MVNDs
+		this.weightsChanged();
+		
+		// Adjust the MVNDs in place, one packed factor at a time
 		int numTargetModels = targetMM.getNumModels();
+		PackedFactors factors = this.factors();
+		PackedFactors targetFactors = targetMM.factors();
+		double[] scratch = this.sampleWorkspace.factorScratch(factors);
+		double[] targetScratch = targetFactors.isOffHeap() ? new double[targetFactors.size()] : null;
+		boolean sameStructure = this.structure.equals(targetMM.structure);
+		int rank = factors.rank();
+		
 		for(int i = 0 ; i < this.getNumModels() ; i++)
 		{
-			MultivariateNormalDistribution mvndi = this.modelArray[i];
-			double[] oldMeans = mvndi.getMeans();
-			double[][] oldX = this.getL(i);
-			
-			double[] targetMeans = targetMM.getMeans(i%numTargetModels);
-			double[][] targetX = targetMM.getL(i%numTargetModels);
+			double[] means = this.meansArray[i];
+			double[] x = factors.array(i, scratch);
+			int base = factors.offset(i);
 			
-			double[] newMeans = new double[this.dimensions];
-			double[][] newX = new double[this.dimensions][this.dimensions];
+			int target = i%numTargetModels;
+			double[] targetMeans = targetMM.meansArray[target];
+			double[] targetX = targetFactors.array(target, targetScratch);
+			int targetBase = targetFactors.offset(target);
 			
 			for(int j = 0 ; j < this.dimensions ; j++)
 			{
 				// Update the means
-				double meanDist = targetMeans[j] - oldMeans[j];
-				newMeans[j] = oldMeans[j] + (meanDist*distMiss) + (this.modelRandom.nextDouble()/100.0);
+				double meanDist = targetMeans[j] - means[j];
+				means[j] = means[j] + (meanDist*distMiss) + (perturb ? this.modelRandom.nextDouble()/100.0 : 0.0);
 				
-				// Update the X matrix
-				for(int k = 0 ; k < this.dimensions ; k++)
+				// Update the X matrix, keeping it lower triangular and within the structure so that it remains a Cholesky factor
+				int first = factors.firstColumn(j);
+				int shift = base + factors.rowStart(j) - first;
+				int targetShift = targetBase + targetFactors.rowStart(j) - targetFactors.firstColumn(j);
+				
+				for(int k = first ; k <= j ; k++)
 				{
-					double xMiss = targetX[j][k] - oldX[j][k];
-					newX[j][k] = oldX[j][k] + (xMiss*distMiss) + (this.modelRandom.nextDouble()/100.0);
+					double targetValue = sameStructure ? targetX[targetShift+k] : targetFactors.get(target, j, k);
+					double xMiss = targetValue - x[shift+k];
+					x[shift+k] = x[shift+k] + (xMiss*distMiss) + (perturb ? this.modelRandom.nextDouble()/100.0 : 0.0);
 				}				
 			}
 			
-			this.lArray[i] = newX;
-
-			MultivariateNormalDistribution mvndNew = new MultivariateNormalDistribution(newMeans, this.generateCovariance(newX));
-			this.modelArray[i] = mvndNew;
+			// Update the low-rank factor, a target without the column counting as zero
+			for(int j = 0, rowStart = base + factors.lowRankStart() ; j < this.dimensions ; j++, rowStart += rank)
+			{
+				for(int c = 0 ; c < rank ; c++)
+				{
+					double targetValue = (c < targetFactors.rank()) ? targetFactors.getLowRank(target, j, c) : 0.0;
+					double xMiss = targetValue - x[rowStart+c];
+					x[rowStart+c] = x[rowStart+c] + (xMiss*distMiss) + (perturb ? this.modelRandom.nextDouble()/100.0 : 0.0);
+				}
+			}
+			
+			if(factors.isOffHeap())
+				factors.copyFrom(i, x, 0);
 		}
+		
+		synchronized(this)
+		{
+			this.hellingerDistances = null;
+		}
+		
+		this.factorsStale = true;
 	}	
 	
 	/**
@@ -476,7 +2310,8 @@ public class MixtureModel
 	}
 	
 	/**
-	 * Returns the vector of weights for the mixture model.
+	 * Returns the vector of weights for the mixture model. The array is not a copy; weights
+	 * should be changed through setWeight or setWeights so that the component sampler is rebuilt.
 	 * 
 	 * @return the weights of the mixture model
 	 */
@@ -494,7 +2329,7 @@ public class MixtureModel
 	 */
 	public double[] getMeans(int i)
 	{
-		return this.modelArray[i].getMeans();
+		return this.meansArray[i].clone();
 	}
 	
 	/**
@@ -506,19 +2341,66 @@ public class MixtureModel
 	 */
 	public double[][] getCovariance(int i)
 	{
-		return this.modelArray[i].getCovariances().getData();
+		return this.generateCovariance(i);
 	}
 	
 	/**
 	 * Returns the Cholesky decomposition of the covariance matrix belonging
-	 * to the ith multivariate normal distribution (MVND).
+	 * to the ith multivariate normal distribution (MVND). L is stored packed, so
+	 * the returned square matrix is a copy. For a low-rank covariance structure, the
+	 * Cholesky decomposition of the dense covariance matrix is computed, in O(d^3) time.
 	 * 
 	 * @param i the index of the MVND
 	 * @return the Cholesky decomposition of the ith MVND's covariance matrix
 	 */
 	public double[][] getL(int i)
 	{
-		return this.lArray[i];
+		PackedFactors factors = this.factors();
+		double[][] l = new double[this.dimensions][this.dimensions];
+		
+		if(factors.rank() > 0)
+		{
+			double[][] covariance = this.generateCovariance(i);
+			double[] packed = new double[(this.dimensions*(this.dimensions+1))/2];
+			
+			for(int j = 0, position = 0 ; j < this.dimensions ; j++)
+			{
+				for(int k = 0 ; k <= j ; k++)
+				{
+					packed[position++] = covariance[j][k];
+				}
+			}
+			
+			cholesky(packed, this.dimensions, null, null, new double[this.dimensions]);
+			
+			for(int j = 0, position = 0 ; j < this.dimensions ; j++)
+			{
+				for(int k = 0 ; k <= j ; k++)
+				{
+					l[j][k] = packed[position++];
+				}
+			}
+			
+			return l;
+		}
+		
+		for(int j = 0 ; j < this.dimensions ; j++)
+		{
+			for(int k = factors.firstColumn(j) ; k <= j ; k++)
+			{
+				l[j][k] = factors.get(i, j, k);
+			}
+		}
+		
+		return l;
+	}
+	
+	/**
+	 * @return the structure of the multivariate normal distributions' covariance matrices
+	 */
+	public CovarianceStructure getStructure()
+	{
+		return this.structure;
 	}
 	
 	/**
@@ -565,4 +2447,97 @@ public class MixtureModel
 		
 		return sb.toString();
 	}
+	
+	/**
+	 * Scratch space common to the sampling and density workspaces. When the L matrices are stored
+	 * off the heap, each is copied into an array here before it is read.
+	 */
+	static class Workspace
+	{
+		private double[] factor, lowRank;
+		
+		/**
+		 * @param factors the L matrices about to be read
+		 * @return an array large enough for one packed L, or null if the L matrices are on the heap
+		 */
+		double[] factorScratch(PackedFactors factors)
+		{
+			if(!factors.isOffHeap())
+				return null;
+			
+			if(this.factor == null || this.factor.length < factors.size())
+				this.factor = new double[factors.size()];
+			
+			return this.factor;
+		}
+		
+		/**
+		 * @param rank the number of columns of the low-rank factors about to be read
+		 * @return an array of length at least rank
+		 */
+		double[] lowRankScratch(int rank)
+		{
+			if(this.lowRank == null || this.lowRank.length < rank)
+				this.lowRank = new double[rank];
+			
+			return this.lowRank;
+		}
+	}
+	
+	/**
+	 * Scratch space for drawing points from the mixture model. A workspace may be reused for any
+	 * number of calls but must not be shared between threads.
+	 */
+	static class SampleWorkspace extends Workspace
+	{
+		final double[] z;
+		final float[] zFloat, point;
+		
+		/**
+		 * @param dimensions the dimensionality of the mixture models the workspace will be used with
+		 */
+		SampleWorkspace(int dimensions)
+		{
+			this.z = new double[dimensions];
+			this.zFloat = new float[dimensions];
+			this.point = new float[dimensions];
+		}
+	}
+	
+	/**
+	 * Scratch space for evaluating the mixture model's density at a block of points. A workspace
+	 * may be reused for any number of calls but must not be shared between threads.
+	 */
+	static class DensityWorkspace extends Workspace
+	{
+		static final int BLOCK_SIZE = 64;
+		
+		final double[][] x, y;
+		final double[] mahalanobis, max, sum;
+		private double[][] projections;
+		
+		/**
+		 * @param dimensions the dimensionality of the mixture models the workspace will be used with
+		 */
+		DensityWorkspace(int dimensions)
+		{
+			this.x = new double[dimensions][BLOCK_SIZE];
+			this.y = new double[dimensions][BLOCK_SIZE];
+			this.mahalanobis = new double[BLOCK_SIZE];
+			this.max = new double[BLOCK_SIZE];
+			this.sum = new double[BLOCK_SIZE];
+		}
+		
+		/**
+		 * @param rank the number of columns of the low-rank factors about to be read
+		 * @return rank rows of BLOCK_SIZE values each, receiving a block's projections onto C
+		 */
+		double[][] projections(int rank)
+		{
+			if(this.projections == null || this.projections.length < rank)
+				this.projections = new double[rank][BLOCK_SIZE];
+			
+			return this.projections;
+		}
+	}
 }
@@ -21,14 +21,18 @@
  */
 package moa.streams.generators.mixturemodel;
 
+import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.IntOption;
+import com.github.javacliparser.MultiChoiceOption;
 import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.DenseInstance;
 import com.yahoo.labs.samoa.instances.Instance;
 import com.yahoo.labs.samoa.instances.Instances;
 import com.yahoo.labs.samoa.instances.InstancesHeader;
 
 import moa.core.Example;
 import moa.core.FastVector;
+import moa.core.InstanceExample;
 import moa.core.ObjectRepository;
 import moa.options.AbstractOptionHandler;
 import moa.streams.InstanceStream;
@@ -39,7 +43,7 @@ import moa.tasks.TaskMonitor;
  * 
  * @author Richard Hugh Moulton
  */
-public class MixtureModelGenerator extends AbstractOptionHandler implements InstanceStream
+public class MixtureModelGenerator extends AbstractOptionHandler implements BatchInstanceStream
 {
 	private static final long serialVersionUID = 1L;
 
@@ -54,6 +58,40 @@ public class MixtureModelGenerator extends AbstractOptionHandler implements Inst
             "The number of classes in the data stream and the number of models to include in the mixture model.",
             2, 2, Integer.MAX_VALUE);
     
+    public IntOption numPartitionsOption = new IntOption("numPartitions", 'p',
+            "The number of independently seeded partitions to generate the stream in, which can then be generated in parallel."
+            + " The stream depends on the number of partitions but not on the number of threads. 0 generates the stream sequentially."
+            + " Each partition buffers two blocks of 4096 instances, which must fit in half the maximum heap size.",
+            0, 0, 1024);
+
+    public IntOption numThreadsOption = new IntOption("numThreads", 't',
+            "The number of threads generating the partitions when numPartitions is positive.", 1, 1, 1024);
+
+    public IntOption instanceRingOption = new IntOption("instanceRing", 'f',
+            "The number of preallocated instances that nextInstance recycles, overwriting their values in place,"
+            + " instead of creating a new instance for every call. Each instance is then only valid until the next instanceRing-1 calls."
+            + " 0 creates a new instance every time.", 0, 0, 65536);
+
+    public MultiChoiceOption covarianceOption = new MultiChoiceOption("covariance", 'v',
+            "The structure of the covariance matrices. The same structure applies to every component of the mixture model;"
+            + " structures cannot be chosen per component.",
+            CovarianceStructure.NAMES, CovarianceStructure.DESCRIPTIONS, CovarianceStructure.FULL);
+
+    public IntOption covarianceParameterOption = new IntOption("covarianceParameter", 'k',
+            "The bandwidth of Banded, the block size of BlockDiagonal or the rank of LowRank covariance matrices.", 5, 1, Integer.MAX_VALUE);
+
+    public FlagOption singlePrecisionOption = new FlagOption("singlePrecision", 'F',
+            "Store the mixture model's covariance factors in single precision and sample with float arithmetic, halving the memory they take."
+            + " Falls back to double precision if the samples would differ from double precision ones by more than 1e-4 (relative)."
+            + " Only applies to Full covariance matrices.");
+
+    public FlagOption offHeapOption = new FlagOption("offHeap", 'H',
+            "Store the mixture model's Cholesky factors in direct buffers outside the Java heap, so that very large models"
+            + " neither count towards the maximum heap size nor burden the garbage collector.");
+
+    public FlagOption jmxOption = new FlagOption("jmx", 'J',
+            "Register a JMX MBean reporting the generator's throughput and class counts.");
+
     public IntOption modelRandomSeedOption = new IntOption("modelRandomSeed",
             'm', "Seed for random generation of model.", 1);
 
@@ -62,6 +100,10 @@ public class MixtureModelGenerator extends AbstractOptionHandler implements Inst
 	
     protected InstancesHeader streamHeader;
     protected MixtureModel mixtureModel;
+    protected PartitionedSampler partitionedSampler;
+    protected InstanceRing instanceRing;
+    protected GeneratorStatistics statistics;
+    private int[] labelBuffer = new int[1];
     
     /**
 	 * @see moa.options.AbstractOptionHandler#prepareForUseImpl(moa.tasks.TaskMonitor, moa.core.ObjectRepository)
@@ -70,13 +112,45 @@ public class MixtureModelGenerator extends AbstractOptionHandler implements Inst
 	@Override
 	protected void prepareForUseImpl(TaskMonitor monitor, ObjectRepository repository)
 	{
+		long setupStart = System.nanoTime();
 		generateHeader();
-		this.mixtureModel = new MixtureModel(this.numClassesOption.getValue(), this.numAttsOption.getValue(),
+		CovarianceStructure structure = new CovarianceStructure(this.covarianceOption.getChosenIndex(), this.covarianceParameterOption.getValue());
+		this.mixtureModel = new MixtureModel(this.numClassesOption.getValue(), this.numAttsOption.getValue(), structure,
 				this.instanceRandomSeedOption.getValue(), this.modelRandomSeedOption.getValue());
+
+		if(this.singlePrecisionOption.isSet() && structure.isFull())
+			this.mixtureModel.setSinglePrecision(true, MixtureModel.SINGLE_PRECISION_TOLERANCE);
+
+		this.mixtureModel.setOffHeap(this.offHeapOption.isSet());
+
+		if(this.partitionedSampler != null)
+			this.partitionedSampler.shutdown();
+
+		this.partitionedSampler = null;
+
+		if(this.numPartitionsOption.getValue() > 0)
+		{
+			this.partitionedSampler = new PartitionedSampler(this.mixtureModel, this.numPartitionsOption.getValue(),
+					this.numThreadsOption.getValue(), this.instanceRandomSeedOption.getValue());
+		}
+
+		this.instanceRing = null;
+
+		if(this.instanceRingOption.getValue() > 0)
+			this.instanceRing = new InstanceRing(this.instanceRingOption.getValue(), this.numAttsOption.getValue()+1);
+
+		this.unregisterStatistics();
+
+		if(this.jmxOption.isSet())
+		{
+			this.statistics = GeneratorStatistics.register(this, this.numClassesOption.getValue());
+			this.statistics.setSetupTime(System.nanoTime() - setupStart);
+		}
 	}
 
 	/**
-	 * @return the next instance in the data stream by calling the MixtureModel object's nextInstance method.
+	 * @return the next instance in the data stream by calling the MixtureModel object's nextInstance method,
+	 * or one of the instance ring's recycled instances if instanceRing is positive.
 	 * 
 	 * @see moa.streams.ExampleStream#nextInstance()
 	 * @see moa.streams.generators.mixturemodel.MixtureModel#nextInstance(InstancesHeader)
@@ -84,7 +158,65 @@ public class MixtureModelGenerator extends AbstractOptionHandler implements Inst
 	@Override
 	public Example<Instance> nextInstance()
 	{
-		return this.mixtureModel.nextInstance(this.getHeader());
+		if(this.instanceRing != null)
+		{
+			this.nextBatch(1, this.instanceRing.nextValues(), this.labelBuffer);
+			return this.instanceRing.current(this.getHeader(), this.labelBuffer[0]);
+		}
+
+		if(this.partitionedSampler == null)
+		{
+			InstanceExample example = this.mixtureModel.nextInstance(this.getHeader());
+
+			if(this.statistics != null)
+				this.statistics.recordInstance((int)example.getData().classValue());
+
+			return example;
+		}
+
+		double[] attVals = new double[this.numAttsOption.getValue()+1];
+		this.partitionedSampler.sampleBatch(1, attVals, this.labelBuffer);
+
+		if(this.statistics != null)
+			this.statistics.recordInstance(this.labelBuffer[0]);
+
+		Instance inst = new DenseInstance(1.0, attVals);
+		inst.setDataset(this.getHeader());
+		inst.setClassValue(this.labelBuffer[0]);
+		return new InstanceExample(inst);
+	}
+
+	/**
+	 * @return the number of attributes, not counting the class
+	 * @see moa.streams.generators.mixturemodel.BatchInstanceStream#getNumBatchAttributes()
+	 */
+	@Override
+	public int getNumBatchAttributes()
+	{
+		return this.numAttsOption.getValue();
+	}
+
+	/**
+	 * Generates the next n instances in the data stream into caller-owned primitive buffers, without
+	 * creating Instance objects. Row r occupies featuresOut[r*numAtts] through featuresOut[(r+1)*numAtts - 1]
+	 * and its class index is written to labelsOut[r]. The rows are the same as those nextInstance would return.
+	 *
+	 * @param n the number of instances to generate
+	 * @param featuresOut the row-major buffer receiving the attribute values, of length at least n*numAtts
+	 * @param labelsOut the buffer receiving the class indices, of length at least n
+	 *
+	 * @see moa.streams.generators.mixturemodel.MixtureModel#sampleBatch(int, double[], int[])
+	 */
+	@Override
+	public void nextBatch(int n, double[] featuresOut, int[] labelsOut)
+	{
+		if(this.partitionedSampler == null)
+			this.mixtureModel.sampleBatch(n, featuresOut, labelsOut);
+		else
+			this.partitionedSampler.sampleBatch(n, featuresOut, labelsOut);
+
+		if(this.statistics != null)
+			this.statistics.recordBatch(labelsOut, 0, n);
 	}
 	
 	/**
@@ -157,6 +289,23 @@ public class MixtureModelGenerator extends AbstractOptionHandler implements Inst
 	public void restart()
 	{
 		this.mixtureModel.restart(this.instanceRandomSeedOption.getValue(), this.modelRandomSeedOption.getValue());
+
+		if(this.partitionedSampler != null)
+			this.partitionedSampler.restart();
+	}
+
+	/**
+	 * Removes the statistics MBean that the generator registers when jmx is set from the platform
+	 * MBean server, and stops counting. The MBean otherwise stays registered for the life of the
+	 * JVM, so call this once the generator is no longer used. Preparing the generator again
+	 * registers a new MBean if jmx is still set.
+	 */
+	public void unregisterStatistics()
+	{
+		if(this.statistics != null)
+			this.statistics.unregister();
+
+		this.statistics = null;
 	}
 
 	 @Override
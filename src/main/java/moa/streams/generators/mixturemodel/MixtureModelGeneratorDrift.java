@@ -23,8 +23,16 @@ package moa.streams.generators.mixturemodel;
 
 import com.github.javacliparser.IntOption;
 import com.github.javacliparser.MultiChoiceOption;
+import com.github.javacliparser.Option;
+import com.github.javacliparser.StringOption;
+
+import java.io.File;
+import java.io.IOException;
 import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.FloatOption;
 import com.yahoo.labs.samoa.instances.Attribute;
 import com.yahoo.labs.samoa.instances.DenseInstance;
@@ -45,13 +53,13 @@ import moa.tasks.TaskMonitor;
  * 
  * @author Richard Hugh Moulton
  */
-public class MixtureModelGeneratorDrift extends AbstractOptionHandler implements InstanceStream
+public class MixtureModelGeneratorDrift extends AbstractOptionHandler implements BatchInstanceStream
 {
 
 	private static final long serialVersionUID = 1L;
 
 	public IntOption numAttsOption = new IntOption("numAtts", 'a',
-			"The number of attributes to generate.", 2, 1, 10);
+			"The number of attributes to generate.", 2, 1, Integer.MAX_VALUE);
 
 	//public IntOption distributionOption = new IntOption("distribution", 'z',
 	//      "Distribution used for models. Uniform 0, Gaussian 1, etc.",
@@ -84,6 +92,58 @@ public class MixtureModelGeneratorDrift extends AbstractOptionHandler implements
 			"Precision of the drift magnitude for p(x) (how far from the set magnitude is acceptable)",
 			0.01, 1e-20, 1.0);
 
+	public MultiChoiceOption hellingerEstimatorOption = new MultiChoiceOption("hellingerEstimator", 'E',
+			"How to estimate the Hellinger distance between the pre- and post-concept drift mixture models.",
+			new String[]{"ImportanceSampling","UniformMonteCarlo"}, new String[]{"Samples from the mixture models themselves; scales to many attributes.",
+	"Samples uniformly from a box around the models; only practical for up to about 10 attributes."}, 0);
+
+	public FlagOption hellingerBoundsOption = new FlagOption("hellingerBounds", 'u',
+			"Reject candidate post-concept drift mixture models whose closed-form bounds on the Hellinger distance exclude the desired range, without integrating.");
+
+	public FlagOption sequentialTestOption = new FlagOption("sequentialTest", 'q',
+			"Stop estimating the Hellinger distance as soon as a confidence interval around it excludes or falls inside the desired range,"
+			+ " checking after 1k, 2k, 4k, ... samples.");
+
+	public IntOption numWorkersOption = new IntOption("numWorkers", 'w',
+			"The number of threads used for Monte Carlo integration of the Hellinger distance.", 1, 1, 1024);
+
+	public IntOption searchTimeLimitOption = new IntOption("searchTimeLimit", 'T',
+			"The number of seconds the search for the mixture models may take before settling for the closest candidate found."
+			+ " 0 for no limit.", 0, 0, Integer.MAX_VALUE);
+
+	public IntOption searchSampleLimitOption = new IntOption("searchSampleLimit", 'S',
+			"The number of Monte Carlo samples, in millions, the search for the mixture models may draw before settling for the"
+			+ " closest candidate found. 0 for no limit.", 0, 0, Integer.MAX_VALUE);
+
+	public StringOption modelCacheOption = new StringOption("modelCache", 'c',
+			"Directory in which to cache the pre- and post-concept drift mixture models found for each set of options,"
+			+ " so that a repeated configuration skips the model search. Leave empty to disable the cache.", "");
+
+	public IntOption instanceRingOption = new IntOption("instanceRing", 'f',
+			"The number of preallocated instances that nextInstance recycles, overwriting their values in place,"
+			+ " instead of creating a new instance for every call. Each instance is then only valid until the next instanceRing-1 calls."
+			+ " 0 creates a new instance every time.", 0, 0, 65536);
+
+	public MultiChoiceOption covarianceOption = new MultiChoiceOption("covariance", 'v',
+			"The structure of the covariance matrices. The same structure applies to every component of the mixture model;"
+			+ " structures cannot be chosen per component.",
+			CovarianceStructure.NAMES, CovarianceStructure.DESCRIPTIONS, CovarianceStructure.FULL);
+
+	public IntOption covarianceParameterOption = new IntOption("covarianceParameter", 'k',
+			"The bandwidth of Banded, the block size of BlockDiagonal or the rank of LowRank covariance matrices.", 5, 1, Integer.MAX_VALUE);
+
+	public FlagOption singlePrecisionOption = new FlagOption("singlePrecision", 'F',
+			"Store the mixture model's covariance factors in single precision and sample with float arithmetic, halving the memory they take."
+			+ " Falls back to double precision if the samples would differ from double precision ones by more than 1e-4 (relative)."
+			+ " Only applies to Full covariance matrices.");
+
+	public FlagOption offHeapOption = new FlagOption("offHeap", 'H',
+			"Store the mixture model's Cholesky factors in direct buffers outside the Java heap, so that very large models"
+			+ " neither count towards the maximum heap size nor burden the garbage collector.");
+
+	public FlagOption jmxOption = new FlagOption("jmx", 'J',
+			"Register a JMX MBean reporting the generator's throughput, class counts and the cost of the drift model search.");
+
 	public IntOption modelRandomSeedOption = new IntOption("modelRandomSeed",
 			'm', "Seed for random generation of model.", 1);
 
@@ -91,11 +151,31 @@ public class MixtureModelGeneratorDrift extends AbstractOptionHandler implements
 			"instanceRandomSeed", 'i',
 			"Seed for random generation of instances.", 1);
 
+	private static final Logger LOGGER = Logger.getLogger(MixtureModelGeneratorDrift.class.getName());
+
+	/** The strategies by which a phase of the drift timeline draws its instances. */
+	private static final int PRE_CONCEPT = 0, POST_CONCEPT = 1, GRADUAL = 2, INCREMENTAL = 3;
+
+	/** The phase of the drift timeline during which the concept drifts, indexing the phase tables. */
+	private static final int DRIFT_PHASE = 1;
+
 	protected InstancesHeader streamHeader;
 	protected MixtureModel mixtureModelPre, mixtureModelPost;
-	protected int numInstances, lastInstancePre, firstInstancePost;
+	protected long numInstances;
 	protected Random monteCarloRandom;
+	protected HellingerEstimator hellingerEstimator;
 	protected double integrateRange;
+	protected InstanceRing instanceRing;
+	protected GeneratorStatistics statistics;
+	protected double achievedDriftMagnitude;
+	protected boolean driftMagnitudeAchieved;
+	private int[] labelBuffer = new int[1];
+	private double[] blendBuffer;
+	private long[] phaseEnds;
+	private int[] phaseStrategies;
+	private InstancesHeader[] phaseHeaders;
+	private int phase;
+	private double inverseDuration;
 
 	/**
 	 * @see moa.options.AbstractOptionHandler#prepareForUseImpl(moa.tasks.TaskMonitor, moa.core.ObjectRepository)
@@ -104,184 +184,468 @@ public class MixtureModelGeneratorDrift extends AbstractOptionHandler implements
 	@Override
 	protected void prepareForUseImpl(TaskMonitor monitor, ObjectRepository repository)
 	{
-		System.out.println("Initialized...");
-		this.numInstances = 0;
-		this.lastInstancePre = this.burnInInstances.getValue();
-		this.firstInstancePost = lastInstancePre+this.driftDuration.getValue()+1;
+		long setupStart = System.nanoTime();
+		LOGGER.fine("Preparing the drift generator.");
+		this.compileTimeline();
+
+		this.unregisterStatistics();
+		this.statistics = this.jmxOption.isSet()
+				? GeneratorStatistics.register(this, Math.max(this.numClassesPreOption.getValue(), this.numClassesPostOption.getValue())) : null;
 		this.monteCarloRandom = new Random();
-		this.integrateRange = Math.max(this.numClassesPreOption.getValue(),this.numClassesPreOption.getValue())+4.0;
-		int y = 0;
+		this.hellingerEstimator = new HellingerEstimator(this.numWorkersOption.getValue(),
+				this.instanceRandomSeedOption.getValue()+this.modelRandomSeedOption.getValue());
+		this.hellingerEstimator.setSequentialTest(this.sequentialTestOption.isSet(), this.precisionDriftMagnitude.getValue());
+		this.instanceRing = null;
+
+		if(this.instanceRingOption.getValue() > 0)
+			this.instanceRing = new InstanceRing(this.instanceRingOption.getValue(), this.numAttsOption.getValue()+1);
+
+		this.integrateRange = Math.max(this.numClassesPreOption.getValue(),this.numClassesPostOption.getValue())+4.0;
+
+		DriftModelCache cache = null;
+		String cacheKey = null;
+
+		if(this.modelCacheOption.getValue().length() > 0)
+		{
+			cache = new DriftModelCache(new File(this.modelCacheOption.getValue()));
+			cacheKey = this.cacheKey();
+
+			try
+			{
+				DriftModelCache.Entry entry = cache.load(cacheKey);
 
-		generateHeader(this.numClassesPreOption.getValue());
+				if(entry != null)
+				{
+					LOGGER.info("Loaded the mixture models from the model cache.");
+					this.mixtureModelPre = entry.pre;
+					this.mixtureModelPost = entry.post;
+					this.achievedDriftMagnitude = entry.hellingerDistance;
+					this.driftMagnitudeAchieved = true;
+					this.monteCarloRandom.setSeed(this.instanceRandomSeedOption.getValue()+this.modelRandomSeedOption.getValue());
+					this.useStorageOptions();
+					this.finishSetup(setupStart);
+					return;
+				}
+			}
+			catch(IOException e)
+			{
+				LOGGER.warning("Could not read the model cache, searching for the mixture models instead: "+e.getMessage());
+			}
+		}
+
+		CovarianceStructure structure = new CovarianceStructure(this.covarianceOption.getChosenIndex(), this.covarianceParameterOption.getValue());
+		DriftModelSearch search = new DriftModelSearch(monitor, this.driftMagnitude.getValue(), this.precisionDriftMagnitude.getValue(),
+				1000000000L*this.searchTimeLimitOption.getValue(), 1000000L*this.searchSampleLimitOption.getValue());
+
+		try
+		{
+			this.searchDriftModels(structure, search);
+		}
+		finally
+		{
+			// The worker pool would otherwise outlive a search that throws
+			this.hellingerEstimator.shutdown();
+		}
+
+		this.monteCarloRandom.setSeed(this.instanceRandomSeedOption.getValue()+this.modelRandomSeedOption.getValue());
+		this.achievedDriftMagnitude = search.getBestDistance();
+		this.driftMagnitudeAchieved = search.isConverged();
+
+		if(!search.isConverged())
+		{
+			// Fall back to the closest candidate found before the budget ran out or the task was cancelled
+			int preSeedOffset = search.getBestPreOffset();
+			int postSeedOffset = search.getBestPostOffset();
+			this.mixtureModelPre = new MixtureModel(this.numClassesPreOption.getValue(), this.numAttsOption.getValue(), structure,
+					this.instanceRandomSeedOption.getValue()+preSeedOffset, this.modelRandomSeedOption.getValue()+preSeedOffset);
+			this.mixtureModelPost = search.getBestPost(this.instanceRandomSeedOption.getValue()+postSeedOffset,
+					this.modelRandomSeedOption.getValue()+postSeedOffset);
+
+			LOGGER.warning("The drift model search was "+(search.isCancelled() ? "cancelled" : "out of budget")+" after "
+					+search.getCandidates()+" candidates; using the closest one, at a Hellinger distance of "+this.achievedDriftMagnitude
+					+" instead of "+this.driftMagnitude.getValue()+".");
+		}
+		else if(cache != null)
+		{
+			try
+			{
+				int preSeedOffset = search.getBestPreOffset();
+				int postSeedOffset = search.getBestPostOffset();
+				cache.store(cacheKey, this.achievedDriftMagnitude,
+						this.mixtureModelPre, this.instanceRandomSeedOption.getValue()+preSeedOffset, this.modelRandomSeedOption.getValue()+preSeedOffset,
+						this.mixtureModelPost, this.instanceRandomSeedOption.getValue()+postSeedOffset, this.modelRandomSeedOption.getValue()+postSeedOffset);
+			}
+			catch(IOException e)
+			{
+				LOGGER.warning("Could not write the model cache: "+e.getMessage());
+			}
+		}
+
+		this.useStorageOptions();
+		this.finishSetup(setupStart);
+	}
 
-		double hDist;
-		double distMiss;
-		do
+	/**
+	 * Searches for pre- and post-concept drift mixture models at the desired Hellinger distance,
+	 * leaving them in mixtureModelPre and mixtureModelPost. Each pre-concept drift mixture model is
+	 * paired with up to 100 randomly generated candidates, each adjusted towards the desired
+	 * distance, and with a copy of itself, likewise adjusted, before moving on to the next one.
+	 * The search stops as soon as the search driver says so: once a candidate is close enough, or
+	 * once the budget is exhausted or the task cancelled, in which case the models left behind
+	 * are not the closest ones and must be taken from the driver.
+	 *
+	 * @param structure the structure of the mixture models' covariance matrices
+	 * @param search the search driver
+	 */
+	private void searchDriftModels(CovarianceStructure structure, DriftModelSearch search)
+	{
+		for(int y = 0 ; ; y++)
 		{
 			// Initialize pre-concept drift mixture model
-			this.mixtureModelPre = new MixtureModel(this.numClassesPreOption.getValue(), this.numAttsOption.getValue(),
+			this.mixtureModelPre = new MixtureModel(this.numClassesPreOption.getValue(), this.numAttsOption.getValue(), structure,
 					this.instanceRandomSeedOption.getValue()+y, this.modelRandomSeedOption.getValue()+y);
 			int z = y+1;
 
 			do
 			{
 				// Try randomly generating the post-concept drift mixture model
-				this.mixtureModelPost = new MixtureModel(this.numClassesPostOption.getValue(), this.numAttsOption.getValue(),
+				int postSeedOffset = z;
+				this.mixtureModelPost = new MixtureModel(this.numClassesPostOption.getValue(), this.numAttsOption.getValue(), structure,
 						this.instanceRandomSeedOption.getValue()+z, this.modelRandomSeedOption.getValue()+z++);
-				hDist = hellingerDistance(this.mixtureModelPre, this.mixtureModelPost, this.driftMagnitude.getValue());
-				distMiss = hDist - this.driftMagnitude.getValue();
-				
-				System.out.println(y+"."+(z-1)+"a: The Hellinger distance was calculated as "+hDist+", desired range was "+this.driftMagnitude.getValue()+
-						" +/- "+this.precisionDriftMagnitude.getValue()+" (miss "+distMiss+")");
-
-				// Attempt to adjust the MixtureModels so as to better approximate the desired Hellinger distance
-				int q = 0;
-				double cumulativeMiss = 0;
-				while((cumulativeMiss < 5.0) && (Math.abs(distMiss) > this.precisionDriftMagnitude.getValue()))
-				{
-					cumulativeMiss += Math.abs(distMiss);
-
-					// Adjust the "random" candidate
-					this.mixtureModelPost.adjustMixtureModel(this.mixtureModelPre,distMiss);
-					hDist = hellingerDistance(this.mixtureModelPre, this.mixtureModelPost, this.driftMagnitude.getValue());
-					distMiss = hDist - this.driftMagnitude.getValue();
-					
-					System.out.println(y+"."+(z-1)+"a."+(q++)+": The Hellinger distance was calculated as "+hDist+", desired range was "+this.driftMagnitude.getValue()+
-							" +/- "+this.precisionDriftMagnitude.getValue()+" (miss "+distMiss+")");
-				}
 
-				if(Math.abs(distMiss) < this.precisionDriftMagnitude.getValue())
-					break;
+				if(this.adjustCandidate(search, y, postSeedOffset, 'a'))
+					return;
 
 				// Try using the pre-concept drift mixture model for the post-concept drift mixture model
-				this.mixtureModelPost = new MixtureModel(this.numClassesPreOption.getValue(), this.numAttsOption.getValue(),
+				this.mixtureModelPost = new MixtureModel(this.numClassesPreOption.getValue(), this.numAttsOption.getValue(), structure,
 						this.instanceRandomSeedOption.getValue()+y, this.modelRandomSeedOption.getValue()+y);
-				hDist = hellingerDistance(this.mixtureModelPre, this.mixtureModelPost, this.driftMagnitude.getValue());
-				distMiss = hDist - this.driftMagnitude.getValue();
-				System.out.println(y+"."+(z-1)+"b: The Hellinger distance was calculated as "+hDist+", desired range was "+this.driftMagnitude.getValue()+
-						" +/- "+this.precisionDriftMagnitude.getValue()+" (miss "+distMiss+")");
-
-				// Attempt to adjust the MixtureModels so as to better approximate the desired Hellinger distance
-				q = 0;
-				cumulativeMiss = 0;
-				while((cumulativeMiss < 5.0) && (Math.abs(distMiss) > this.precisionDriftMagnitude.getValue()))
-				{
-					cumulativeMiss += Math.abs(distMiss);
-
-					// Adjust the "identical" candidate
-					this.mixtureModelPost.adjustMixtureModel(this.mixtureModelPre,distMiss);
-					hDist = hellingerDistance(this.mixtureModelPre, this.mixtureModelPost, this.driftMagnitude.getValue());
-					distMiss = hDist - this.driftMagnitude.getValue();
-					System.out.println(y+"."+(z-1)+"b."+(q++)+": The Hellinger distance was calculated as "+hDist+", desired range was "+this.driftMagnitude.getValue()+
-							" +/- "+this.precisionDriftMagnitude.getValue()+" (miss "+distMiss+")");
-				}
 
-			}while((z < 100) && (Math.abs(distMiss) > this.precisionDriftMagnitude.getValue()));
+				if(this.adjustCandidate(search, y, y, 'b'))
+					return;
+
+			}while(z < 100);
+		}
+	}
+
+	/**
+	 * Estimates the Hellinger distance between the pre-concept drift mixture model and the
+	 * candidate in mixtureModelPost, then attempts to adjust the candidate so as to better
+	 * approximate the desired Hellinger distance, until the adjustments have missed by 5.0 in total.
+	 *
+	 * @param search the search driver, which is told about every estimate
+	 * @param preSeedOffset the seed offset of the pre-concept drift mixture model
+	 * @param postSeedOffset the seed offset from which the candidate was generated
+	 * @param candidate 'a' for the randomly generated candidate, 'b' for one started from the pre-concept drift mixture model
+	 * @return true if the search should stop
+	 */
+	private boolean adjustCandidate(DriftModelSearch search, int preSeedOffset, int postSeedOffset, char candidate)
+	{
+		double hDist = hellingerDistance(this.mixtureModelPre, this.mixtureModelPost, this.driftMagnitude.getValue());
+		double distMiss = hDist - this.driftMagnitude.getValue();
+		this.logSearchStep(preSeedOffset, postSeedOffset, candidate, -1, hDist, distMiss);
+
+		int q = 0;
+		double cumulativeMiss = 0;
+
+		while(!search.evaluate(this.mixtureModelPost, preSeedOffset, postSeedOffset, hDist, this.hellingerEstimator.getSamplesDrawn()))
+		{
+			if(cumulativeMiss >= 5.0)
+				return false;
+
+			cumulativeMiss += Math.abs(distMiss);
+
+			this.adjustPost(distMiss);
+			hDist = hellingerDistance(this.mixtureModelPre, this.mixtureModelPost, this.driftMagnitude.getValue());
+			distMiss = hDist - this.driftMagnitude.getValue();
+			this.logSearchStep(preSeedOffset, postSeedOffset, candidate, q++, hDist, distMiss);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Logs one step of the drift model search at level FINE, as key=value pairs.
+	 *
+	 * @param preOffset the seed offset of the pre-concept drift mixture model
+	 * @param postOffset the seed offset from which the candidate was generated
+	 * @param candidate 'a' for the randomly generated candidate, 'b' for one started from the pre-concept drift mixture model
+	 * @param adjustment the number of adjustments made to the candidate so far, or -1 before the first
+	 * @param hDist the candidate's Hellinger distance from the pre-concept drift mixture model
+	 * @param distMiss the difference between hDist and the desired drift magnitude
+	 */
+	private void logSearchStep(int preOffset, int postOffset, char candidate, int adjustment, double hDist, double distMiss)
+	{
+		if(!LOGGER.isLoggable(Level.FINE))
+			return;
+
+		LOGGER.fine("driftSearch pre="+preOffset+" post="+postOffset+" candidate="+candidate+" adjustment="+adjustment
+				+" hellingerDistance="+hDist+" target="+this.driftMagnitude.getValue()+" epsilon="+this.precisionDriftMagnitude.getValue()
+				+" miss="+distMiss);
+	}
+
+	/**
+	 * Adjusts the post-concept drift mixture model towards or away from the pre-concept drift one.
+	 *
+	 * @param distMiss the required correction between the mixture models
+	 */
+	private void adjustPost(double distMiss)
+	{
+		if(this.statistics == null)
+		{
+			this.mixtureModelPost.adjustMixtureModel(this.mixtureModelPre, distMiss);
+			return;
+		}
+
+		long start = System.nanoTime();
+		this.mixtureModelPost.adjustMixtureModel(this.mixtureModelPre, distMiss);
+		this.statistics.recordAdjustment(System.nanoTime() - start);
+	}
+
+	/**
+	 * Records how long the generator took to prepare and how many Monte Carlo samples the drift model search drew.
+	 *
+	 * @param setupStart the value of System.nanoTime() when preparation started
+	 */
+	private void finishSetup(long setupStart)
+	{
+		long setupNanos = System.nanoTime() - setupStart;
+
+		if(LOGGER.isLoggable(Level.FINE))
+			LOGGER.fine("driftSetup seconds="+(setupNanos/1e9)+" monteCarloSamples="+this.hellingerEstimator.getSamplesDrawn());
+
+		if(this.statistics != null)
+		{
+			this.statistics.setMonteCarloSamples(this.hellingerEstimator.getSamplesDrawn());
+			this.statistics.setSetupTime(setupNanos);
+		}
+	}
+
+	/**
+	 * Switches the pre- and post-concept drift mixture models to single precision sampling if
+	 * singlePrecision is set and their covariance matrices are full, and moves their L matrices off the heap if offHeap is set. This is
+	 * done once the model search, which needs double precision, is over.
+	 */
+	private void useStorageOptions()
+	{
+		this.mixtureModelPre.setOffHeap(this.offHeapOption.isSet());
+		this.mixtureModelPost.setOffHeap(this.offHeapOption.isSet());
+
+		if(!this.singlePrecisionOption.isSet() || !this.mixtureModelPre.getStructure().isFull())
+			return;
 
-			y++;
+		this.mixtureModelPre.setSinglePrecision(true, MixtureModel.SINGLE_PRECISION_TOLERANCE);
+		this.mixtureModelPost.setSinglePrecision(true, MixtureModel.SINGLE_PRECISION_TOLERANCE);
+	}
+
+	/**
+	 * Builds the key under which this generator's mixture models are cached: every option's value,
+	 * apart from the cache directory, the number of workers, the instance ring, the precision,
+	 * where the L matrices are stored, the JMX MBean and the search's budget, which do not change
+	 * the models: only models found within the budget are cached.
+	 *
+	 * @return the model cache key for the current options
+	 */
+	private String cacheKey()
+	{
+		StringBuilder sb = new StringBuilder(this.getClass().getName());
+
+		for(Option option : this.getOptions().getOptionArray())
+		{
+			if(option == this.modelCacheOption || option == this.numWorkersOption || option == this.instanceRingOption
+					|| option == this.singlePrecisionOption || option == this.offHeapOption || option == this.jmxOption
+					|| option == this.searchTimeLimitOption || option == this.searchSampleLimitOption)
+				continue;
+
+			sb.append(" -").append(option.getName()).append('=').append(option.getValueAsCLIString());
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * Compiles the drift timeline into a table of phases: the pre-concept drift phase, the drift
+	 * itself and the post-concept drift phase. Each phase has the number of instances at which it
+	 * ends, the strategy by which it draws its instances and the stream's header, so that generating
+	 * instances only has to look at the timeline when it crosses from one phase into the next.
+	 */
+	private void compileTimeline()
+	{
+		long burnIn = this.burnInInstances.getValue();
+		long duration = this.driftDuration.getValue();
+		InstancesHeader preHeader = generateHeader(this.numClassesPreOption.getValue());
+		InstancesHeader postHeader = generateHeader(this.numClassesPostOption.getValue());
+
+		this.phaseEnds = new long[]{burnIn, burnIn+duration, Long.MAX_VALUE};
+		this.phaseStrategies = new int[]{PRE_CONCEPT, this.driftType.getChosenLabel().equals("Gradual") ? GRADUAL : INCREMENTAL, POST_CONCEPT};
+
+		// The drift already uses the post-concept drift header if it brings new classes
+		this.phaseHeaders = new InstancesHeader[]{preHeader,
+				(this.numClassesPostOption.getValue() > this.numClassesPreOption.getValue()) ? postHeader : preHeader, postHeader};
+		this.inverseDuration = (duration > 0) ? 1.0/(double)duration : 0.0;
 
-		}while(Math.abs(distMiss) > this.precisionDriftMagnitude.getValue());	
+		this.numInstances = 0;
+		this.phase = 0;
+		this.streamHeader = this.phaseHeaders[0];
 	}
 
 	/**
-	 * @return the next instance in the data stream by calling the MixtureModel object's nextInstance method.
+	 * @return the next instance in the data stream, drawn by nextBatch, or one of the instance ring's
+	 * recycled instances if instanceRing is positive.
 	 * 
 	 * @see moa.streams.ExampleStream#nextInstance()
-	 * @see moa.streams.generators.mixturemodel.MixtureModel#nextInstance(InstancesHeader)
+	 * @see moa.streams.generators.mixturemodel.MixtureModelGeneratorDrift#nextBatch(int, double[], int[])
 	 */
 	@Override
 	public Example<Instance> nextInstance()
 	{
-		this.numInstances++;
+		double[] attVals = (this.instanceRing == null) ? new double[this.numAttsOption.getValue()+1] : this.instanceRing.nextValues();
+		this.nextBatch(1, attVals, this.labelBuffer);
+
+		if(this.instanceRing != null)
+			return this.instanceRing.current(this.getHeader(), this.labelBuffer[0]);
+
+		Instance inst = new DenseInstance(1.0, attVals);
+		inst.setDataset(this.getHeader());
+		inst.setClassValue(this.labelBuffer[0]);
+		return new InstanceExample(inst);
+	}
+
+	/**
+	 * Draws an instance during an incremental drift into out from position offset on. The class is
+	 * chosen by the post-concept drift mixture model with probability threshold and by the pre-concept
+	 * drift one otherwise. A point of that class is then drawn from each mixture model and the two are
+	 * blended, weighting the post-concept drift point by threshold. A class that only the larger
+	 * mixture model has is drawn from it alone. Each instance therefore takes exactly two draws
+	 * whatever the classes' weights, and nothing is allocated.
+	 *
+	 * @param threshold the progress of the drift, from 0 to 1
+	 * @param out the buffer receiving the instance's attributes
+	 * @param offset the position in out of the instance's first attribute
+	 * @return the instance's class
+	 */
+	private int nextIncremental(double threshold, double[] out, int offset)
+	{
+		int numAtts = this.numAttsOption.getValue();
+
+		if(this.blendBuffer == null || this.blendBuffer.length < numAtts)
+			this.blendBuffer = new double[numAtts];
 
-		// Post concept drift model
-		if(this.numInstances > firstInstancePost)
-		{			
-			return this.mixtureModelPost.nextInstance(this.getHeader());
+		// The post-concept drift point is drawn into out, the pre-concept drift point into blendBuffer
+		boolean postChooses = this.monteCarloRandom.nextDouble() < threshold;
+		MixtureModel other = postChooses ? this.mixtureModelPre : this.mixtureModelPost;
+		int classValue;
+
+		if(postChooses)
+		{
+			classValue = this.mixtureModelPost.nextComponent();
+			this.mixtureModelPost.sampleFromComponent(classValue, out, offset);
 		}
-		if (this.numInstances == firstInstancePost)
+		else
 		{
-			generateHeader(this.numClassesPostOption.getValue());
-			return this.mixtureModelPost.nextInstance(this.getHeader());
+			classValue = this.mixtureModelPre.nextComponent();
+			this.mixtureModelPre.sampleFromComponent(classValue, this.blendBuffer, 0);
 		}
-		// Pre concept drift model
-		else if (this.numInstances <= lastInstancePre)
+
+		if(classValue >= other.getNumModels())
 		{
-			return this.mixtureModelPre.nextInstance(this.getHeader());
+			if(!postChooses)
+				System.arraycopy(this.blendBuffer, 0, out, offset, numAtts);
+
+			return classValue;
 		}
-		// During concept drift mix of models
+
+		if(postChooses)
+			this.mixtureModelPre.sampleFromComponent(classValue, this.blendBuffer, 0);
 		else
+			this.mixtureModelPost.sampleFromComponent(classValue, out, offset);
+
+		for(int i = 0 ; i < numAtts ; i++)
 		{
+			out[offset+i] = (out[offset+i]*threshold) + (this.blendBuffer[i]*(1.0 - threshold));
+		}
 
-			InstanceExample instPre, instPost;
-			double threshold = ((double)this.numInstances-(double)this.burnInInstances.getValue())/(double)this.driftDuration.getValue();
+		return classValue;
+	}
 
-			if(this.numInstances == (lastInstancePre+1) &&
-					this.numClassesPostOption.getValue() > this.numClassesPreOption.getValue())
-			{
-				generateHeader(this.numClassesPostOption.getValue());
-			}
+	/**
+	 * @return the number of attributes, not counting the class
+	 * @see moa.streams.generators.mixturemodel.BatchInstanceStream#getNumBatchAttributes()
+	 */
+	@Override
+	public int getNumBatchAttributes()
+	{
+		return this.numAttsOption.getValue();
+	}
 
-			if(this.driftType.getChosenLabel().equals("Gradual"))
+	/**
+	 * Generates the next n instances in the data stream into caller-owned primitive buffers. The
+	 * instances are generated a phase of the drift timeline at a time: runs within the stable pre- or
+	 * post-concept drift phases are sampled in bulk and runs within the drift in a tight loop, so the
+	 * strategy only changes at the phases' boundaries.
+	 * 
+	 * @see moa.streams.generators.mixturemodel.BatchInstanceStream#nextBatch(int, double[], int[])
+	 */
+	@Override
+	public void nextBatch(int n, double[] attributesOut, int[] classesOut)
+	{
+		int numAtts = this.numAttsOption.getValue();
+		
+		if(attributesOut.length < (long)n*numAtts || classesOut.length < n)
+		{
+			throw new IllegalArgumentException("Buffers are too small for a batch of "+n+" instances.");
+		}
+		
+		int r = 0;
+		while(r < n)
+		{
+			while(this.numInstances == this.phaseEnds[this.phase])
 			{
-				if (this.monteCarloRandom.nextDouble() < threshold)
-					return this.mixtureModelPost.nextInstance(this.getHeader());
-				else
-					return this.mixtureModelPre.nextInstance(this.getHeader());
+				this.phase++;
+				this.streamHeader = this.phaseHeaders[this.phase];
 			}
-			else if(this.driftType.getChosenLabel().equals("Incremental"));
+			
+			int count = (int)Math.min(n - r, this.phaseEnds[this.phase] - this.numInstances);
+			
+			switch(this.phaseStrategies[this.phase])
 			{
-				// Class determined by the post-concept drift mixture model
-				if (this.monteCarloRandom.nextDouble() < threshold)
-				{
-					instPost = this.mixtureModelPost.nextInstance(this.getHeader());
-
-					if(instPost.instance.classValue() > this.numClassesPreOption.getValue())
-						instPre = new InstanceExample(instPost.instance);
-					else
-					{
-						do
-						{
-							instPre = this.mixtureModelPre.nextInstance(this.getHeader());
-						}while(instPre.instance.classValue() != instPost.instance.classValue());
-					}
-
-				}
-				else
+			case PRE_CONCEPT:
+				this.mixtureModelPre.sampleBatch(count, attributesOut, classesOut, r);
+				break;
+			case POST_CONCEPT:
+				this.mixtureModelPost.sampleBatch(count, attributesOut, classesOut, r);
+				break;
+			case GRADUAL:
+				// The instance numbered numInstances+1 is the first of the drift, one past the end of the previous phase
+				for(int q = 0, progress = (int)(this.numInstances + 1 - this.phaseEnds[this.phase-1]) ; q < count ; q++, progress++)
 				{
-					instPre = this.mixtureModelPre.nextInstance(this.getHeader());
-
-					if(instPre.instance.classValue() > this.numClassesPostOption.getValue())
-						instPost = new InstanceExample(instPre.instance);
-					else
-					{
-						do
-						{
-							instPost = this.mixtureModelPost.nextInstance(this.getHeader());
-						}while(instPre.instance.classValue() != instPost.instance.classValue());
-					}
+					MixtureModel mm = (this.monteCarloRandom.nextDouble() < progress*this.inverseDuration) ? this.mixtureModelPost : this.mixtureModelPre;
+					int classValue = mm.nextComponent();
+					mm.sampleFromComponent(classValue, attributesOut, (r+q)*numAtts);
+					classesOut[r+q] = classValue;
 				}
-
-				double[] attVals = new double[this.numAttsOption.getValue()+1];
-
-				for(int i = 0 ; i < attVals.length ; i++)
+				break;
+			default:
+				for(int q = 0, progress = (int)(this.numInstances + 1 - this.phaseEnds[this.phase-1]) ; q < count ; q++, progress++)
 				{
-					attVals[i] = (instPost.instance.value(i)*threshold) + (instPre.instance.value(i)*(1.0 - threshold));
+					classesOut[r+q] = this.nextIncremental(progress*this.inverseDuration, attributesOut, (r+q)*numAtts);
 				}
-
-				Instance instFinal = new DenseInstance(1.0, attVals);
-				instFinal.setDataset(this.getHeader());
-				instFinal.setClassValue(instPost.instance.classValue());		
-				return new InstanceExample(instFinal);
 			}
+			
+			if(this.statistics != null)
+				this.statistics.recordBatch(classesOut, r, count);
+			
+			this.numInstances += count;
+			r += count;
 		}
-
 	}
-
+	
 	/**
-	 * Generates the stream's header.
+	 * Generates a header for the stream with the argument number of classes.
+	 *
+	 * @param numClasses the number of classes
+	 * @return the header
 	 */
-	private void generateHeader(int numClasses)
+	private InstancesHeader generateHeader(int numClasses)
 	{
 		FastVector<Attribute> attributes = new FastVector<Attribute>();
 		for (int i = 0; i < this.numAttsOption.getValue(); i++) {
@@ -292,9 +656,38 @@ public class MixtureModelGeneratorDrift extends AbstractOptionHandler implements
 			classLabels.addElement("class" + (i + 1));
 		}
 		attributes.addElement(new Attribute("class", classLabels));
-		this.streamHeader = new InstancesHeader(new Instances(
+		InstancesHeader header = new InstancesHeader(new Instances(
 				getCLICreationString(InstanceStream.class), attributes, 0));
-		this.streamHeader.setClassIndex(this.streamHeader.numAttributes() - 1);
+		header.setClassIndex(header.numAttributes() - 1);
+		return header;
+	}
+
+	/**
+	 * @return the header of the drift phase, which declares the classes of both concepts
+	 * @see moa.streams.generators.mixturemodel.BatchInstanceStream#getBatchHeader()
+	 */
+	@Override
+	public InstancesHeader getBatchHeader()
+	{
+		return this.phaseHeaders[DRIFT_PHASE];
+	}
+
+	/**
+	 * @return whether the Hellinger distance between the pre- and post-concept drift mixture models
+	 *         is within epsilon of driftMagnitude, rather than the closest the search found before
+	 *         its budget ran out or it was cancelled
+	 */
+	public boolean isDriftMagnitudeAchieved()
+	{
+		return this.driftMagnitudeAchieved;
+	}
+
+	/**
+	 * @return the estimated Hellinger distance between the pre- and post-concept drift mixture models
+	 */
+	public double getAchievedDriftMagnitude()
+	{
+		return this.achievedDriftMagnitude;
 	}
 
 	/**
@@ -308,79 +701,52 @@ public class MixtureModelGeneratorDrift extends AbstractOptionHandler implements
 	}
 
 	/**
-	 * Uses Monte Carlo integration to calculate the Hellinger distance between the two argument mixture models.
+	 * Calculates the Hellinger distance between the two argument mixture models using the chosen estimator.
+	 * If hellingerBounds is set and the closed-form bounds already place the distance outside the desired
+	 * range then the nearer bound is returned without integrating.
 	 * 
 	 * @param mm1 the first mixture model
 	 * @param mm2 the second mixture model
+	 * @param targetDist the Hellinger distance that is being searched for
 	 * @return the Hellinger distance between mm1 and mm2
+	 * 
+	 * @see moa.streams.generators.mixturemodel.HellingerEstimator
 	 */
 	private double hellingerDistance(MixtureModel mm1, MixtureModel mm2, double targetDist)
 	{
-		//System.out.println("Monte Carlo Integration:");
-
-		double monteCarlo = 0.0;
-		double runningSum = 0.0;
-		double hellingerDistance = -1.0;
-
-		double volume = Math.pow(this.integrateRange,(double)this.numAttsOption.getValue());
-		double error = Double.MAX_VALUE;
-		double N = 0.0;
-		double sampleVar = 0.0;
-		double mean = 0.0;
-		double M2 = 0.0;
-		double delta1 = 0.0;
-		double delta2 = 0.0;
-		double x = 0.0;
-		double[] point = new double[this.numAttsOption.getValue()];
-		this.monteCarloRandom.setSeed(this.instanceRandomSeedOption.getValue()+this.modelRandomSeedOption.getValue());
+		if(this.statistics == null)
+			return this.estimateHellingerDistance(mm1, mm2, targetDist);
 
+		long start = System.nanoTime();
+		double distance = this.estimateHellingerDistance(mm1, mm2, targetDist);
+		this.statistics.recordHellingerDistance(System.nanoTime() - start);
+		return distance;
+	}
 
-		// Monte Carlo integration
-		while(error > 0.001)
+	/**
+	 * Estimates the Hellinger distance between the two argument mixture models for hellingerDistance.
+	 *
+	 * @param mm1 the first mixture model
+	 * @param mm2 the second mixture model
+	 * @param targetDist the Hellinger distance that is being searched for
+	 * @return the Hellinger distance between mm1 and mm2
+	 */
+	private double estimateHellingerDistance(MixtureModel mm1, MixtureModel mm2, double targetDist)
+	{
+		if(this.hellingerBoundsOption.isSet())
 		{
-			// Randomly generate the point at which to evaluate the function
-			for(int i = 0 ; i < this.numAttsOption.getValue() ; i++)
-			{
-				point[i] = (this.monteCarloRandom.nextDouble()*this.integrateRange) - (this.integrateRange/2.0);
-				//System.out.print(point[i]+" ");
-			}
-
-			// Evaluate the function at point and add the result to the running sum
-			x = Math.sqrt(mm1.densityAt(point)*mm2.densityAt(point));
-			runningSum += x;
-			N++;
-
-			// Adjust other values of interest
-			delta1 = x - mean;
-			mean += delta1/N;
-			delta2 = x - mean;
-			M2 += delta1*delta2;
-			monteCarlo = volume*runningSum/N;
+			double[] bounds = HellingerEstimator.hellingerBounds(mm1, mm2);
 
-			// Once a sufficient base of samples has been built, calculate the sample variance and estimate the error
-			if (N > 1000000)
-			{
-				sampleVar = M2/(N-1);
-				error = volume*Math.sqrt(sampleVar)/Math.sqrt(N);
-				hellingerDistance = Math.sqrt(1.0 - monteCarlo);
-
-				// If the target distance is no longer within the error margin around the estimated distance
-				// then break from the WHILE loop
-				if(Math.abs(targetDist - hellingerDistance) > (Math.sqrt(error)))
-				{
-					break;
-				}
-
-				//if (N % 1000000 == 0)
-				//{
-				//System.out.println("N: "+N+", monteCarlo: "+monteCarlo+", 1.0 - monteCarlo: "+(1.0-monteCarlo)+", and error: "+error);
-				//}
-			}
+			if(bounds[1] < targetDist - this.precisionDriftMagnitude.getValue())
+				return bounds[1];
+			if(bounds[0] > targetDist + this.precisionDriftMagnitude.getValue())
+				return bounds[0];
 		}
 
-		//System.out.println("N: "+N+", monteCarlo: "+monteCarlo+", 1.0 - monteCarlo: "+(1.0-monteCarlo)+", and error: "+error);
-		//System.out.println("Hellinger distance is estimated as ("+hellingerDistance+" +/- "+Math.sqrt(error)+"); (target distance was "+targetDist+")");
-		return hellingerDistance;
+		if(this.hellingerEstimatorOption.getChosenIndex() == 0)
+			return this.hellingerEstimator.importanceSampling(mm1, mm2, targetDist);
+		else
+			return this.hellingerEstimator.uniformMonteCarlo(mm1, mm2, targetDist, this.integrateRange);
 	}
 
 	/**
@@ -423,10 +789,28 @@ public class MixtureModelGeneratorDrift extends AbstractOptionHandler implements
 	@Override
 	public void restart()
 	{
+		this.numInstances = 0;
+		this.phase = 0;
+		this.streamHeader = this.phaseHeaders[0];
+		this.monteCarloRandom.setSeed(this.instanceRandomSeedOption.getValue()+this.modelRandomSeedOption.getValue());
 		this.mixtureModelPre.restart(this.instanceRandomSeedOption.getValue(), this.modelRandomSeedOption.getValue());
 		this.mixtureModelPost.restart(this.instanceRandomSeedOption.getValue(), this.modelRandomSeedOption.getValue());
 	}
 
+	/**
+	 * Removes the statistics MBean that the generator registers when jmx is set from the platform
+	 * MBean server, and stops counting. The MBean otherwise stays registered for the life of the
+	 * JVM, so call this once the generator is no longer used. Preparing the generator again
+	 * registers a new MBean if jmx is still set.
+	 */
+	public void unregisterStatistics()
+	{
+		if(this.statistics != null)
+			this.statistics.unregister();
+
+		this.statistics = null;
+	}
+
 	@Override
 	public String getPurposeString()
 	{
@@ -0,0 +1,485 @@
+/*
+ *    MixtureModelGeneratorEvolving.java
+ *
+ *    Copyright 2017 Richard Hugh Moulton
+ *
+ *    @author Richard Hugh Moulton
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams.generators.mixturemodel;
+
+import java.util.Random;
+
+import com.github.javacliparser.FlagOption;
+import com.github.javacliparser.IntOption;
+import com.github.javacliparser.MultiChoiceOption;
+import com.github.javacliparser.StringOption;
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import moa.core.Example;
+import moa.core.FastVector;
+import moa.core.InstanceExample;
+import moa.core.ObjectRepository;
+import moa.options.AbstractOptionHandler;
+import moa.streams.InstanceStream;
+import moa.tasks.TaskMonitor;
+
+/**
+ * Generates a data stream whose mixture model evolves continuously, for long-running streams with
+ * recurring and continuous concept drift. A number of concepts, mixture models with the same classes,
+ * attributes and covariance structure, are generated up front. The stream starts at the first concept
+ * and each drift event moves the mixture model's weights, means and Cholesky factors in a straight
+ * line to those of another concept, one small step every stepInterval instances.
+ *
+ * The drift events are given by the schedule, a comma separated list of start:concept:duration
+ * entries: from instance start on, the mixture model moves to the concept over the next duration
+ * instances, and a duration of 0 is an abrupt drift. If period is positive the schedule repeats every
+ * period instances, so that concepts recur. An empty schedule drifts continuously, from each concept
+ * to another chosen at random, every drift lasting driftDuration instances.
+ *
+ * Each step costs O(k*d^2) time for k classes, d attributes and full covariance matrices, and less for
+ * the other structures, whatever the length of the stream. Between steps the mixture model is sampled
+ * in bulk, so that with a reasonable stepInterval the stream is generated as fast as a stationary one.
+ *
+ * @see moa.streams.generators.mixturemodel.MixtureModel#moveTowards(MixtureModel, double)
+ *
+ * @author Richard Hugh Moulton
+ */
+public class MixtureModelGeneratorEvolving extends AbstractOptionHandler implements BatchInstanceStream
+{
+	private static final long serialVersionUID = 1L;
+
+	public IntOption numAttsOption = new IntOption("numAtts", 'a',
+            "The number of attributes to generate.", 10, 1, Integer.MAX_VALUE);
+
+    public IntOption numClassesOption = new IntOption("numClasses", 's',
+            "The number of classes in the data stream and the number of models to include in each concept's mixture model.",
+            2, 2, Integer.MAX_VALUE);
+
+    public IntOption numConceptsOption = new IntOption("numConcepts", 'c',
+            "The number of concepts, i.e. mixture models, that the stream drifts between.", 2, 2, Integer.MAX_VALUE);
+
+    public StringOption scheduleOption = new StringOption("schedule", 'e',
+            "The drift events as a comma separated list of start:concept:duration, e.g. 10000:1:5000,30000:0:0;"
+            + " concepts are numbered from 0, the stream's first concept, and a duration of 0 is an abrupt drift."
+            + " Empty drifts continuously between randomly chosen concepts.", "");
+
+    public IntOption periodOption = new IntOption("period", 'p',
+            "The number of instances after which the schedule repeats, for recurring drift. 0 does not repeat it.",
+            0, 0, Integer.MAX_VALUE);
+
+    public IntOption driftDurationOption = new IntOption("driftDuration", 'd',
+            "The number of instances each drift lasts when drifting continuously.", 10000, 1, Integer.MAX_VALUE);
+
+    public IntOption stepIntervalOption = new IntOption("stepInterval", 'n',
+            "The number of instances between the steps that move the mixture model during a drift.", 100, 1, Integer.MAX_VALUE);
+
+    public IntOption instanceRingOption = new IntOption("instanceRing", 'f',
+            "The number of preallocated instances that nextInstance recycles, overwriting their values in place,"
+            + " instead of creating a new instance for every call. Each instance is then only valid until the next instanceRing-1 calls."
+            + " 0 creates a new instance every time.", 0, 0, 65536);
+
+    public MultiChoiceOption covarianceOption = new MultiChoiceOption("covariance", 'v',
+            "The structure of the covariance matrices. The same structure applies to every component of the mixture model;"
+            + " structures cannot be chosen per component.",
+            CovarianceStructure.NAMES, CovarianceStructure.DESCRIPTIONS, CovarianceStructure.FULL);
+
+    public IntOption covarianceParameterOption = new IntOption("covarianceParameter", 'k',
+            "The bandwidth of Banded, the block size of BlockDiagonal or the rank of LowRank covariance matrices.", 5, 1, Integer.MAX_VALUE);
+
+    public FlagOption singlePrecisionOption = new FlagOption("singlePrecision", 'F',
+            "Sample the mixture model with float arithmetic. The drift's steps work in double precision, so once the first"
+            + " drift begins the memory saving of single precision is given up but its faster sampling is kept."
+            + " Falls back to double precision if the samples would differ from double precision ones by more than 1e-4 (relative)."
+            + " Only applies to Full covariance matrices.");
+
+    public FlagOption offHeapOption = new FlagOption("offHeap", 'H',
+            "Store the mixture models' Cholesky factors in direct buffers outside the Java heap, so that very large models"
+            + " neither count towards the maximum heap size nor burden the garbage collector.");
+
+    public FlagOption jmxOption = new FlagOption("jmx", 'J',
+            "Register a JMX MBean reporting the generator's throughput, class counts and the time spent moving the mixture model.");
+
+    public IntOption modelRandomSeedOption = new IntOption("modelRandomSeed",
+            'm', "Seed for random generation of the concepts and of the continuous drift's targets.", 1);
+
+    public IntOption instanceRandomSeedOption = new IntOption("instanceRandomSeed",
+    		'i', "Seed for random generation of instances.", 1);
+
+	protected InstancesHeader streamHeader;
+	protected MixtureModel mixtureModel;
+	protected MixtureModel[] concepts;
+	protected InstanceRing instanceRing;
+	protected GeneratorStatistics statistics;
+	private int[] labelBuffer = new int[1];
+
+	private long[] eventStarts, eventDurations;
+	private int[] eventConcepts;
+	private Random targetRandom;
+	private long numInstances, nextStep, cycleStart, stepsLeft;
+	private int eventIndex, target;
+
+	/**
+	 * @see moa.options.AbstractOptionHandler#prepareForUseImpl(moa.tasks.TaskMonitor, moa.core.ObjectRepository)
+	 * @see moa.streams.generators.mixturemodel.MixtureModel
+	 */
+	@Override
+	protected void prepareForUseImpl(TaskMonitor monitor, ObjectRepository repository)
+	{
+		long setupStart = System.nanoTime();
+		generateHeader();
+		parseSchedule();
+
+		CovarianceStructure structure = this.structure();
+		this.concepts = new MixtureModel[this.numConceptsOption.getValue()];
+
+		for(int c = 0 ; c < this.concepts.length ; c++)
+		{
+			monitor.setCurrentActivity("Generating concept "+(c+1)+" of "+this.concepts.length+"...", (double)c/(double)this.concepts.length);
+			this.concepts[c] = new MixtureModel(this.numClassesOption.getValue(), this.numAttsOption.getValue(), structure,
+					this.instanceRandomSeedOption.getValue(), this.modelRandomSeedOption.getValue()+c);
+			this.concepts[c].setOffHeap(this.offHeapOption.isSet());
+		}
+
+		this.instanceRing = null;
+
+		if(this.instanceRingOption.getValue() > 0)
+			this.instanceRing = new InstanceRing(this.instanceRingOption.getValue(), this.numAttsOption.getValue()+1);
+
+		this.restart();
+
+		this.unregisterStatistics();
+
+		if(this.jmxOption.isSet())
+		{
+			this.statistics = GeneratorStatistics.register(this, this.numClassesOption.getValue());
+			this.statistics.setSetupTime(System.nanoTime() - setupStart);
+		}
+	}
+
+	/**
+	 * @return the covariance structure chosen by the covariance options
+	 */
+	private CovarianceStructure structure()
+	{
+		return new CovarianceStructure(this.covarianceOption.getChosenIndex(), this.covarianceParameterOption.getValue());
+	}
+
+	/**
+	 * Parses the schedule option into the drift events' starts, concepts and durations.
+	 *
+	 * @throws IllegalArgumentException if the schedule is malformed, its events overlap or are out of order,
+	 *                                  it names an unknown concept, or it does not fit in the period
+	 */
+	private void parseSchedule()
+	{
+		String schedule = this.scheduleOption.getValue().trim();
+		String[] entries = schedule.isEmpty() ? new String[0] : schedule.split(",");
+
+		this.eventStarts = new long[entries.length];
+		this.eventConcepts = new int[entries.length];
+		this.eventDurations = new long[entries.length];
+
+		long previousEnd = 0;
+
+		for(int e = 0 ; e < entries.length ; e++)
+		{
+			String[] fields = entries[e].trim().split(":");
+
+			if(fields.length != 3)
+				throw new IllegalArgumentException("Drift event '"+entries[e].trim()+"' is not of the form start:concept:duration.");
+
+			try
+			{
+				this.eventStarts[e] = Long.parseLong(fields[0].trim());
+				this.eventConcepts[e] = Integer.parseInt(fields[1].trim());
+				this.eventDurations[e] = Long.parseLong(fields[2].trim());
+			}
+			catch(NumberFormatException nfe)
+			{
+				throw new IllegalArgumentException("Drift event '"+entries[e].trim()+"' is not of the form start:concept:duration.");
+			}
+
+			if(this.eventConcepts[e] < 0 || this.eventConcepts[e] >= this.numConceptsOption.getValue())
+				throw new IllegalArgumentException("Drift event '"+entries[e].trim()+"' names concept "+this.eventConcepts[e]
+						+" but there are only "+this.numConceptsOption.getValue()+" concepts.");
+			if(this.eventDurations[e] < 0)
+				throw new IllegalArgumentException("Drift event '"+entries[e].trim()+"' has a negative duration.");
+			if(this.eventStarts[e] < previousEnd || (e > 0 && this.eventStarts[e] <= this.eventStarts[e-1]))
+				throw new IllegalArgumentException("Drift event '"+entries[e].trim()+"' starts before the previous one has finished.");
+
+			previousEnd = this.eventStarts[e] + this.eventDurations[e];
+		}
+
+		if(this.periodOption.getValue() > 0 && entries.length > 0
+				&& (previousEnd > this.periodOption.getValue() || this.eventStarts[entries.length-1] >= this.periodOption.getValue()))
+			throw new IllegalArgumentException("The schedule's last drift event does not finish within the period of "
+					+this.periodOption.getValue()+" instances.");
+	}
+
+	/**
+	 * Schedules the first step of the next drift event, if there is one. An event of duration D takes
+	 * max(1, ceil(D/stepInterval)) steps, stepInterval instances apart from its start on.
+	 */
+	private void scheduleNextEvent()
+	{
+		long duration;
+
+		if(this.eventStarts.length == 0)
+		{
+			// Drift continuously, each drift starting where the previous one finishes
+			int next = this.targetRandom.nextInt(this.concepts.length - 1);
+			this.target = (next >= this.target) ? next+1 : next;
+			this.nextStep = this.cycleStart;
+			duration = this.driftDurationOption.getValue();
+			this.cycleStart += duration;
+		}
+		else
+		{
+			this.eventIndex++;
+
+			if(this.eventIndex == this.eventStarts.length)
+			{
+				if(this.periodOption.getValue() == 0)
+				{
+					this.nextStep = Long.MAX_VALUE;
+					return;
+				}
+
+				this.eventIndex = 0;
+				this.cycleStart += this.periodOption.getValue();
+			}
+
+			this.target = this.eventConcepts[this.eventIndex];
+			this.nextStep = this.cycleStart + this.eventStarts[this.eventIndex];
+			duration = this.eventDurations[this.eventIndex];
+		}
+
+		long interval = this.stepIntervalOption.getValue();
+		this.stepsLeft = Math.max(1, (duration + interval - 1)/interval);
+	}
+
+	/**
+	 * Takes every step of the drift that is due before the next instance is generated.
+	 */
+	private void advance()
+	{
+		while(this.numInstances >= this.nextStep)
+		{
+			// Covering 1/s of the remaining distance in each of the last s steps moves along a straight line
+			if(this.statistics == null)
+			{
+				this.mixtureModel.moveTowards(this.concepts[this.target], 1.0/this.stepsLeft);
+			}
+			else
+			{
+				long start = System.nanoTime();
+				this.mixtureModel.moveTowards(this.concepts[this.target], 1.0/this.stepsLeft);
+				this.statistics.recordAdjustment(System.nanoTime() - start);
+			}
+			this.stepsLeft--;
+
+			if(this.stepsLeft > 0)
+				this.nextStep += this.stepIntervalOption.getValue();
+			else
+				this.scheduleNextEvent();
+		}
+	}
+
+	/**
+	 * @return the next instance in the data stream, drawn from the mixture model as it currently is,
+	 * or one of the instance ring's recycled instances if instanceRing is positive.
+	 *
+	 * @see moa.streams.ExampleStream#nextInstance()
+	 * @see moa.streams.generators.mixturemodel.MixtureModel#nextInstance(InstancesHeader)
+	 */
+	@Override
+	public Example<Instance> nextInstance()
+	{
+		if(this.instanceRing != null)
+		{
+			this.nextBatch(1, this.instanceRing.nextValues(), this.labelBuffer);
+			return this.instanceRing.current(this.getHeader(), this.labelBuffer[0]);
+		}
+
+		this.advance();
+		this.numInstances++;
+		InstanceExample example = this.mixtureModel.nextInstance(this.getHeader());
+
+		if(this.statistics != null)
+			this.statistics.recordInstance((int)example.getData().classValue());
+
+		return example;
+	}
+
+	/**
+	 * @return the number of attributes, not counting the class
+	 * @see moa.streams.generators.mixturemodel.BatchInstanceStream#getNumBatchAttributes()
+	 */
+	@Override
+	public int getNumBatchAttributes()
+	{
+		return this.numAttsOption.getValue();
+	}
+
+	/**
+	 * Generates the next n instances in the data stream into caller-owned primitive buffers. The
+	 * instances between two steps of the drift are sampled from the mixture model in bulk.
+	 *
+	 * @see moa.streams.generators.mixturemodel.BatchInstanceStream#nextBatch(int, double[], int[])
+	 */
+	@Override
+	public void nextBatch(int n, double[] featuresOut, int[] labelsOut)
+	{
+		if(featuresOut.length < (long)n*this.numAttsOption.getValue() || labelsOut.length < n)
+		{
+			throw new IllegalArgumentException("Buffers are too small for a batch of "+n+" instances.");
+		}
+
+		int r = 0;
+		while(r < n)
+		{
+			this.advance();
+
+			int count = (int)Math.min(n - r, this.nextStep - this.numInstances);
+			this.mixtureModel.sampleBatch(count, featuresOut, labelsOut, r);
+
+			if(this.statistics != null)
+				this.statistics.recordBatch(labelsOut, r, count);
+
+			this.numInstances += count;
+			r += count;
+		}
+	}
+
+	/**
+	 * Generates the stream's header.
+	 */
+	private void generateHeader()
+	{
+		FastVector<Attribute> attributes = new FastVector<Attribute>();
+        for (int i = 0; i < this.numAttsOption.getValue(); i++) {
+            attributes.addElement(new Attribute("att" + (i + 1)));
+        }
+        FastVector<String> classLabels = new FastVector<String>();
+        for (int i = 0; i < this.numClassesOption.getValue(); i++) {
+            classLabels.addElement("class" + (i + 1));
+        }
+        attributes.addElement(new Attribute("class", classLabels));
+        this.streamHeader = new InstancesHeader(new Instances(
+                getCLICreationString(InstanceStream.class), attributes, 0));
+        this.streamHeader.setClassIndex(this.streamHeader.numAttributes() - 1);
+	}
+
+	/**
+	 * @return the stream's header.
+	 * @see moa.streams.ExampleStream#getHeader()
+	 */
+	@Override
+	public InstancesHeader getHeader()
+	{
+		return this.streamHeader;
+	}
+
+	/**
+	 * The MixtureModelGeneratorEvolving can generate an infinite number of instances.
+	 *
+	 * @see moa.streams.ExampleStream#estimatedRemainingInstances()
+	 */
+	@Override
+	public long estimatedRemainingInstances()
+	{
+		return -1;
+	}
+
+	/**
+	 * The MixtureModelGeneratorEvolving can generate an infinite number of instances, therefore this method always returns TRUE.
+	 *
+	 * @see moa.streams.ExampleStream#hasMoreInstances()
+	 */
+	@Override
+	public boolean hasMoreInstances()
+	{
+		return true;
+	}
+
+	/**
+	 * @see moa.streams.ExampleStream#isRestartable()
+	 */
+	@Override
+	public boolean isRestartable()
+	{
+		return true;
+	}
+
+	/**
+	 * Restarts the stream at its first concept. The evolving mixture model is generated afresh, since
+	 * the drift has moved its parameters, and the concepts it drifts between are kept.
+	 *
+	 * @see moa.streams.ExampleStream#restart()
+	 */
+	@Override
+	public void restart()
+	{
+		CovarianceStructure structure = this.structure();
+		this.mixtureModel = new MixtureModel(this.numClassesOption.getValue(), this.numAttsOption.getValue(), structure,
+				this.instanceRandomSeedOption.getValue(), this.modelRandomSeedOption.getValue());
+
+		if(this.singlePrecisionOption.isSet() && structure.isFull())
+			this.mixtureModel.setSinglePrecision(true, MixtureModel.SINGLE_PRECISION_TOLERANCE);
+
+		this.mixtureModel.setOffHeap(this.offHeapOption.isSet());
+
+		this.targetRandom = new Random(this.modelRandomSeedOption.getValue());
+		this.numInstances = 0;
+		this.cycleStart = 0;
+		this.eventIndex = -1;
+		this.target = 0;
+		this.scheduleNextEvent();
+	}
+
+	/**
+	 * Removes the statistics MBean that the generator registers when jmx is set from the platform
+	 * MBean server, and stops counting. The MBean otherwise stays registered for the life of the
+	 * JVM, so call this once the generator is no longer used. Preparing the generator again
+	 * registers a new MBean if jmx is still set.
+	 */
+	public void unregisterStatistics()
+	{
+		if(this.statistics != null)
+			this.statistics.unregister();
+
+		this.statistics = null;
+	}
+
+	 @Override
+	 public String getPurposeString()
+	 {
+		 return "Generates a data stream whose mixture model drifts between concepts according to a schedule, or continuously.";
+	 }
+
+	/**
+	 * @see moa.MOAObject#getDescription(java.lang.StringBuilder, int)
+	 */
+	@Override
+	public void getDescription(StringBuilder sb, int indent)
+	{
+		// Not implemented.
+	}
+}
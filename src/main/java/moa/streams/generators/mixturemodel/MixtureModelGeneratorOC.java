@@ -24,6 +24,7 @@ package moa.streams.generators.mixturemodel;
 import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.FloatOption;
 import com.github.javacliparser.IntOption;
+import com.github.javacliparser.MultiChoiceOption;
 import com.yahoo.labs.samoa.instances.Attribute;
 import com.yahoo.labs.samoa.instances.DenseInstance;
 import com.yahoo.labs.samoa.instances.Instance;
@@ -47,7 +48,7 @@ import moa.tasks.TaskMonitor;
 * 
 * @author Richard Hugh Moulton
 */
-public class MixtureModelGeneratorOC extends AbstractOptionHandler implements InstanceStream {
+public class MixtureModelGeneratorOC extends AbstractOptionHandler implements BatchInstanceStream {
 
 	private static final long serialVersionUID = 1L;
 
@@ -72,6 +73,31 @@ public class MixtureModelGeneratorOC extends AbstractOptionHandler implements In
     public FlagOption conceptMarkOption = new FlagOption("conceptMarked", 'c', "If true, each instance will have an "
     		+ "attribute describing the concept it is drawn from.");
     
+    public IntOption instanceRingOption = new IntOption("instanceRing", 'f',
+            "The number of preallocated instances that nextInstance recycles, overwriting their values in place,"
+            + " instead of creating a new instance for every call. Each instance is then only valid until the next instanceRing-1 calls."
+            + " 0 creates a new instance every time.", 0, 0, 65536);
+
+    public MultiChoiceOption covarianceOption = new MultiChoiceOption("covariance", 'v',
+            "The structure of the covariance matrices. The same structure applies to every component of the mixture model;"
+            + " structures cannot be chosen per component.",
+            CovarianceStructure.NAMES, CovarianceStructure.DESCRIPTIONS, CovarianceStructure.FULL);
+
+    public IntOption covarianceParameterOption = new IntOption("covarianceParameter", 'k',
+            "The bandwidth of Banded, the block size of BlockDiagonal or the rank of LowRank covariance matrices.", 5, 1, Integer.MAX_VALUE);
+
+    public FlagOption singlePrecisionOption = new FlagOption("singlePrecision", 'F',
+            "Store the mixture model's covariance factors in single precision and sample with float arithmetic, halving the memory they take."
+            + " Falls back to double precision if the samples would differ from double precision ones by more than 1e-4 (relative)."
+            + " Only applies to Full covariance matrices.");
+
+    public FlagOption offHeapOption = new FlagOption("offHeap", 'H',
+            "Store the mixture model's Cholesky factors in direct buffers outside the Java heap, so that very large models"
+            + " neither count towards the maximum heap size nor burden the garbage collector.");
+
+    public FlagOption jmxOption = new FlagOption("jmx", 'J',
+            "Register a JMX MBean reporting the generator's throughput, class counts and setup time.");
+
     public IntOption modelRandomSeedOption = new IntOption("modelRandomSeed",
             'm', "Seed for random generation of model.", 1);
 
@@ -82,6 +108,10 @@ public class MixtureModelGeneratorOC extends AbstractOptionHandler implements In
     protected MixtureModel mixtureModel;
     private double[] conceptAssignments;
     private int numInstances;
+    private double[] batchBuffer;
+    private int[] labelBuffer = new int[1];
+    protected InstanceRing instanceRing;
+    protected GeneratorStatistics statistics;
     
     /**
 	 * @see moa.options.AbstractOptionHandler#prepareForUseImpl(moa.tasks.TaskMonitor, moa.core.ObjectRepository)
@@ -90,20 +120,42 @@ public class MixtureModelGeneratorOC extends AbstractOptionHandler implements In
 	@Override
 	protected void prepareForUseImpl(TaskMonitor monitor, ObjectRepository repository)
 	{
+		long setupStart = System.nanoTime();
 		generateHeader();
 		this.numInstances = 0;
+		CovarianceStructure structure = new CovarianceStructure(this.covarianceOption.getChosenIndex(), this.covarianceParameterOption.getValue());
 		this.mixtureModel = new MixtureModel(this.numMinClassesOption.getValue()+this.numMajClassesOption.getValue(), this.numAttsOption.getValue(),
-				this.instanceRandomSeedOption.getValue(), this.modelRandomSeedOption.getValue());
+				structure, this.instanceRandomSeedOption.getValue(), this.modelRandomSeedOption.getValue());
 		this.mixtureModel.setWeights(this.numMajClassesOption.getValue(), this.percentMajorityOption.getValue());
 		if(this.conceptMarkOption.isSet())
 		{
 			this.conceptAssignments = this.mixtureModel.getConceptAssignments(this.numMajClassesOption.getValue());
 			generateCMHeader();
 		}
+
+		// The concept assignments above need the double precision model
+		if(this.singlePrecisionOption.isSet() && structure.isFull())
+			this.mixtureModel.setSinglePrecision(true, MixtureModel.SINGLE_PRECISION_TOLERANCE);
+
+		this.mixtureModel.setOffHeap(this.offHeapOption.isSet());
+
+		this.instanceRing = null;
+
+		if(this.instanceRingOption.getValue() > 0)
+			this.instanceRing = new InstanceRing(this.instanceRingOption.getValue(), this.getNumBatchAttributes()+1);
+
+		this.unregisterStatistics();
+
+		if(this.jmxOption.isSet())
+		{
+			this.statistics = GeneratorStatistics.register(this, 2);
+			this.statistics.setSetupTime(System.nanoTime() - setupStart);
+		}
 	}
 
 	/**
-	 * @return the next instance in the data stream by calling the MixtureModel object's nextInstance method.
+	 * @return the next instance in the data stream by calling the MixtureModel object's nextInstance method,
+	 * or one of the instance ring's recycled instances if instanceRing is positive.
 	 * 
 	 * @see moa.streams.ExampleStream#nextInstance()
 	 * @see moa.streams.generators.mixturemodel.MixtureModel#nextInstance(InstancesHeader)
@@ -111,6 +163,13 @@ public class MixtureModelGeneratorOC extends AbstractOptionHandler implements In
 	@Override
 	public Example<Instance> nextInstance()
 	{
+		if(this.instanceRing != null)
+		{
+			// nextBatch writes the concept, if any, ahead of the attributes, as in cmHeader
+			this.nextBatch(1, this.instanceRing.nextValues(), this.labelBuffer);
+			return this.instanceRing.current(this.conceptMarkOption.isSet() ? this.cmHeader : this.streamHeader, this.labelBuffer[0]);
+		}
+
 		Instance nextInst = this.mixtureModel.nextInstance(this.streamHeader).getData();
 		
 		//System.out.print("("+this.numInstances+") nextInst:");
@@ -153,9 +212,69 @@ public class MixtureModelGeneratorOC extends AbstractOptionHandler implements In
 		
 		this.numInstances++;
 		
+		if(this.statistics != null)
+			this.statistics.recordInstance((int)nextInst.classValue());
+		
 		return new InstanceExample(nextInst);
 	}
 	
+	/**
+	 * @return the number of attributes, including the concept attribute if conceptMark is set, not counting the class
+	 * @see moa.streams.generators.mixturemodel.BatchInstanceStream#getNumBatchAttributes()
+	 */
+	@Override
+	public int getNumBatchAttributes()
+	{
+		return this.numAttsOption.getValue() + (this.conceptMarkOption.isSet() ? 1 : 0);
+	}
+
+	/**
+	 * Generates the next n instances in the data stream into caller-owned primitive buffers. Each row
+	 * starts with the concept if conceptMark is set, followed by the attributes; the class index is 0
+	 * for the majority class and 1 for the minority classes.
+	 * 
+	 * @see moa.streams.generators.mixturemodel.BatchInstanceStream#nextBatch(int, double[], int[])
+	 */
+	@Override
+	public void nextBatch(int n, double[] attributesOut, int[] classesOut)
+	{
+		int numAtts = this.numAttsOption.getValue();
+		
+		if(attributesOut.length < (long)n*this.getNumBatchAttributes() || classesOut.length < n)
+		{
+			throw new IllegalArgumentException("Buffers are too small for a batch of "+n+" instances.");
+		}
+		
+		if(this.conceptMarkOption.isSet())
+		{
+			if(this.batchBuffer == null || this.batchBuffer.length < n*numAtts)
+				this.batchBuffer = new double[n*numAtts];
+			
+			this.mixtureModel.sampleBatch(n, this.batchBuffer, classesOut);
+			
+			// Shift each row along by one to make room for its concept
+			for(int r = 0 ; r < n ; r++)
+			{
+				attributesOut[r*(numAtts+1)] = this.conceptAssignments[classesOut[r]];
+				System.arraycopy(this.batchBuffer, r*numAtts, attributesOut, r*(numAtts+1)+1, numAtts);
+			}
+		}
+		else
+		{
+			this.mixtureModel.sampleBatch(n, attributesOut, classesOut);
+		}
+		
+		for(int r = 0 ; r < n ; r++)
+		{
+			classesOut[r] = (classesOut[r] < this.numMajClassesOption.getValue()) ? 0 : 1;
+		}
+		
+		if(this.statistics != null)
+			this.statistics.recordBatch(classesOut, 0, n);
+		
+		this.numInstances += n;
+	}
+	
 	/**
 	 * Generates the stream's header.
 	 */
@@ -256,6 +375,20 @@ public class MixtureModelGeneratorOC extends AbstractOptionHandler implements In
 			this.conceptAssignments = this.mixtureModel.getConceptAssignments(this.numMajClassesOption.getValue());
 	}
 
+	/**
+	 * Removes the statistics MBean that the generator registers when jmx is set from the platform
+	 * MBean server, and stops counting. The MBean otherwise stays registered for the life of the
+	 * JVM, so call this once the generator is no longer used. Preparing the generator again
+	 * registers a new MBean if jmx is still set.
+	 */
+	public void unregisterStatistics()
+	{
+		if(this.statistics != null)
+			this.statistics.unregister();
+
+		this.statistics = null;
+	}
+
 	 @Override
 	 public String getPurposeString()
 	 {
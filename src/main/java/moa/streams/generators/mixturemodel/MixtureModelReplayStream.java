@@ -0,0 +1,260 @@
+/*
+ *    MixtureModelReplayStream.java
+ *
+ *    Copyright 2017 Richard Hugh Moulton
+ *
+ *    @author Richard Hugh Moulton
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams.generators.mixturemodel;
+
+import com.github.javacliparser.FileOption;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.NoSuchElementException;
+
+import moa.core.Example;
+import moa.core.InstanceExample;
+import moa.core.ObjectRepository;
+import moa.options.AbstractOptionHandler;
+import moa.tasks.TaskMonitor;
+
+/**
+ * Replays a stream previously written by WriteMixtureModelStreamToFile in the Replay format.
+ * The file is memory-mapped and instances are served straight from the mapping, so replaying
+ * costs no sampling and restarting the stream only rewinds a counter.
+ *
+ * The header and the options of the stream that generated the file are recorded in the file;
+ * the header is returned by getHeader and the options by getGeneratorOptions.
+ *
+ * @see moa.streams.generators.mixturemodel.WriteMixtureModelStreamToFile
+ *
+ * @author Richard Hugh Moulton
+ */
+public class MixtureModelReplayStream extends AbstractOptionHandler implements BatchInstanceStream
+{
+	private static final long serialVersionUID = 1L;
+
+	/** The largest number of bytes mapped by a single buffer. */
+	private static final long MAX_SEGMENT_SIZE = 1L << 30;
+
+	public FileOption replayFileOption = new FileOption("replayFile", 'f',
+			"Replay file to load.", null, "mmr", false);
+
+	protected InstancesHeader streamHeader;
+	protected String generatorOptions;
+	protected long numRows, position;
+	protected int rowLength, rowsPerSegment;
+	protected transient DoubleBuffer[] segments;
+
+	/**
+	 * @see moa.options.AbstractOptionHandler#prepareForUseImpl(moa.tasks.TaskMonitor, moa.core.ObjectRepository)
+	 */
+	@Override
+	protected void prepareForUseImpl(TaskMonitor monitor, ObjectRepository repository)
+	{
+		monitor.setCurrentActivity("Mapping replay file...", -1.0);
+
+		try(FileChannel channel = FileChannel.open(this.replayFileOption.getFile().toPath(), StandardOpenOption.READ))
+		{
+			long size = channel.size();
+			if(size < ReplayFormat.DATA_OFFSET)
+				throw new IOException("Not a mixture model replay file.");
+
+			ReplayFormat format = ReplayFormat.decodePreamble(
+					channel.map(FileChannel.MapMode.READ_ONLY, 0, ReplayFormat.DATA_OFFSET).order(ByteOrder.LITTLE_ENDIAN));
+
+			long rowBytes = 8L*format.rowLength;
+			if(format.trailerOffset != ReplayFormat.DATA_OFFSET + format.numRows*rowBytes || format.trailerOffset > size)
+				throw new IOException("The replay file is incomplete or corrupt.");
+
+			format.decodeTrailer(channel.map(FileChannel.MapMode.READ_ONLY, format.trailerOffset,
+					size - format.trailerOffset).order(ByteOrder.LITTLE_ENDIAN));
+
+			this.streamHeader = format.header;
+			this.generatorOptions = format.options;
+			this.numRows = format.numRows;
+			this.rowLength = format.rowLength;
+
+			// Each segment maps a whole number of rows so that no row straddles two segments
+			this.rowsPerSegment = (int)Math.max(1L, MAX_SEGMENT_SIZE/rowBytes);
+			int numSegments = (int)((this.numRows + this.rowsPerSegment - 1)/this.rowsPerSegment);
+			this.segments = new DoubleBuffer[numSegments];
+
+			for(int s = 0 ; s < numSegments ; s++)
+			{
+				long firstRow = (long)s*this.rowsPerSegment;
+				long rows = Math.min(this.rowsPerSegment, this.numRows - firstRow);
+				this.segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, ReplayFormat.DATA_OFFSET + firstRow*rowBytes, rows*rowBytes)
+						.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+			}
+		}
+		catch(IOException e)
+		{
+			throw new RuntimeException("Failed to map replay file " + this.replayFileOption.getFile(), e);
+		}
+
+		this.position = 0;
+	}
+
+	/**
+	 * @return the next instance in the replay file.
+	 * @throws NoSuchElementException if every row of the replay file has been replayed
+	 *
+	 * @see moa.streams.ExampleStream#nextInstance()
+	 */
+	@Override
+	public Example<Instance> nextInstance()
+	{
+		if(!this.hasMoreInstances())
+		{
+			throw new NoSuchElementException("All "+this.numRows+" instances of the replay file have been replayed.");
+		}
+
+		double[] attVals = new double[this.rowLength];
+		this.row(this.position++).get(attVals);
+
+		// The class index is stored in the class attribute's position, last in the row
+		Instance inst = new DenseInstance(1.0, attVals);
+		inst.setDataset(this.getHeader());
+		return new InstanceExample(inst);
+	}
+
+	/**
+	 * @see moa.streams.generators.mixturemodel.BatchInstanceStream#getNumBatchAttributes()
+	 */
+	@Override
+	public int getNumBatchAttributes()
+	{
+		return this.rowLength-1;
+	}
+
+	/**
+	 * @throws NoSuchElementException if fewer than n rows of the replay file remain
+	 * @see moa.streams.generators.mixturemodel.BatchInstanceStream#nextBatch(int, double[], int[])
+	 */
+	@Override
+	public void nextBatch(int n, double[] attributesOut, int[] classesOut)
+	{
+		int numAtts = this.rowLength-1;
+
+		if(attributesOut.length < (long)n*numAtts || classesOut.length < n)
+		{
+			throw new IllegalArgumentException("Buffers are too small for a batch of "+n+" instances.");
+		}
+		if(n > this.estimatedRemainingInstances())
+		{
+			throw new NoSuchElementException("Only "+this.estimatedRemainingInstances()+" of the replay file's "+this.numRows
+					+" instances remain, too few for a batch of "+n+".");
+		}
+
+		for(int r = 0 ; r < n ; r++)
+		{
+			DoubleBuffer row = this.row(this.position++);
+			row.get(attributesOut, r*numAtts, numAtts);
+			classesOut[r] = (int)row.get();
+		}
+	}
+
+	/**
+	 * @param index the index of a row
+	 * @return the segment holding the row, positioned at the row's first value
+	 */
+	private DoubleBuffer row(long index)
+	{
+		DoubleBuffer segment = this.segments[(int)(index/this.rowsPerSegment)];
+		segment.position((int)(index%this.rowsPerSegment)*this.rowLength);
+		return segment;
+	}
+
+	/**
+	 * @return the options of the stream that generated the replay file
+	 */
+	public String getGeneratorOptions()
+	{
+		return this.generatorOptions;
+	}
+
+	/**
+	 * @return the stream's header, as recorded in the replay file.
+	 * @see moa.streams.ExampleStream#getHeader()
+	 */
+	@Override
+	public InstancesHeader getHeader()
+	{
+		return this.streamHeader;
+	}
+
+	/**
+	 * @see moa.streams.ExampleStream#estimatedRemainingInstances()
+	 */
+	@Override
+	public long estimatedRemainingInstances()
+	{
+		return this.numRows - this.position;
+	}
+
+	/**
+	 * @see moa.streams.ExampleStream#hasMoreInstances()
+	 */
+	@Override
+	public boolean hasMoreInstances()
+	{
+		return this.position < this.numRows;
+	}
+
+	/**
+	 * @see moa.streams.ExampleStream#isRestartable()
+	 */
+	@Override
+	public boolean isRestartable()
+	{
+		return true;
+	}
+
+	/**
+	 * Rewinds the stream to the first row of the replay file.
+	 *
+	 * @see moa.streams.ExampleStream#restart()
+	 */
+	@Override
+	public void restart()
+	{
+		this.position = 0;
+	}
+
+	@Override
+	public String getPurposeString()
+	{
+		return "Replays a memory-mapped mixture model stream written by WriteMixtureModelStreamToFile.";
+	}
+
+	/**
+	 * @see moa.MOAObject#getDescription(java.lang.StringBuilder, int)
+	 */
+	@Override
+	public void getDescription(StringBuilder sb, int indent)
+	{
+		// Not implemented.
+	}
+}
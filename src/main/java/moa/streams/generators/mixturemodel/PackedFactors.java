@@ -0,0 +1,348 @@
+/*
+ *    PackedFactors.java
+ *
+ *    Copyright 2017 Richard Hugh Moulton
+ *
+ *    @author Richard Hugh Moulton
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams.generators.mixturemodel;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+/**
+ * The factors of the covariance matrices of a mixture model's multivariate normal distributions (MVNDs),
+ * L*L' + W*W' with L lower triangular, packed contiguously. Only the entries of L that the
+ * covariance structure allows to be non-zero are kept, row by row: row j holds
+ * L[j][firstColumn(j)..j] and starts at rowStart(j). For full covariance matrices each L takes
+ * d(d+1)/2 values and row j starts at j(j+1)/2. W follows L row by row, d*rank values starting at
+ * lowRankStart(). The factors follow each other in one flat array, or in as few arrays as Java's
+ * array size limit allows, on the heap or, optionally, off it in direct buffers.
+ *
+ * The inner loops read a factor through array and offset. On the heap these return the backing
+ * array and the factor's position in it; off the heap the factor is first copied into a
+ * caller-owned scratch array, since reading a buffer value by value is several times slower
+ * than reading an array.
+ *
+ * @author Richard Hugh Moulton
+ */
+class PackedFactors
+{
+	/** The largest number of values in a single array or buffer. */
+	private static final int MAX_CHUNK_SIZE = Integer.MAX_VALUE/8;
+
+	private final int numModels, dimensions, size, modelsPerChunk, rank, lowRankStart;
+	private final CovarianceStructure structure;
+	private final int[] firstColumns, rowStarts;
+	private final double[][] arrays;
+	private final DoubleBuffer[] buffers;
+
+	/**
+	 * Constructor method for new PackedFactors, all zero.
+	 *
+	 * @param numModels the number of MVNDs
+	 * @param dimensions the dimensionality of the MVNDs
+	 * @param structure the structure of the MVNDs' covariance matrices
+	 * @param offHeap whether to store the factors in direct buffers outside the Java heap
+	 */
+	PackedFactors(int numModels, int dimensions, CovarianceStructure structure, boolean offHeap)
+	{
+		this.numModels = numModels;
+		this.dimensions = dimensions;
+		this.structure = structure;
+		this.rank = structure.getRank();
+		this.firstColumns = new int[dimensions];
+		this.rowStarts = new int[dimensions+1];
+
+		for(int j = 0 ; j < dimensions ; j++)
+		{
+			this.firstColumns[j] = structure.firstColumn(j);
+			this.rowStarts[j+1] = this.rowStarts[j] + (j - this.firstColumns[j] + 1);
+		}
+
+		this.lowRankStart = this.rowStarts[dimensions];
+		this.size = this.lowRankStart + dimensions*this.rank;
+		this.modelsPerChunk = Math.max(1, MAX_CHUNK_SIZE/Math.max(1, this.size));
+
+		int numChunks = (numModels + this.modelsPerChunk - 1)/this.modelsPerChunk;
+
+		if(offHeap)
+		{
+			this.arrays = null;
+			this.buffers = new DoubleBuffer[numChunks];
+
+			for(int c = 0 ; c < numChunks ; c++)
+			{
+				int models = Math.min(this.modelsPerChunk, numModels - c*this.modelsPerChunk);
+				this.buffers[c] = ByteBuffer.allocateDirect(8*models*this.size).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+			}
+		}
+		else
+		{
+			this.buffers = null;
+			this.arrays = new double[numChunks][];
+
+			for(int c = 0 ; c < numChunks ; c++)
+			{
+				int models = Math.min(this.modelsPerChunk, numModels - c*this.modelsPerChunk);
+				this.arrays[c] = new double[models*this.size];
+			}
+		}
+	}
+
+	/**
+	 * @param row a row of L
+	 * @return the position of the row's first value, L[row][firstColumn(row)], within a packed factor
+	 */
+	int rowStart(int row)
+	{
+		return this.rowStarts[row];
+	}
+
+	/**
+	 * @param row a row of L
+	 * @return the first column of the row that is stored
+	 */
+	int firstColumn(int row)
+	{
+		return this.firstColumns[row];
+	}
+
+	/**
+	 * @return the first stored column of each row of L; the array is not a copy
+	 */
+	int[] firstColumns()
+	{
+		return this.firstColumns;
+	}
+
+	/**
+	 * @return the position of each row of L within a packed factor; the array is not a copy
+	 */
+	int[] rowStarts()
+	{
+		return this.rowStarts;
+	}
+
+	/**
+	 * @return the number of columns of W
+	 */
+	int rank()
+	{
+		return this.rank;
+	}
+
+	/**
+	 * @return the position of W[0][0] within a packed factor; W[j][c] follows at j*rank() + c
+	 */
+	int lowRankStart()
+	{
+		return this.lowRankStart;
+	}
+
+	/**
+	 * @return the structure of the covariance matrices
+	 */
+	CovarianceStructure structure()
+	{
+		return this.structure;
+	}
+
+	/**
+	 * @return the number of values in each packed factor
+	 */
+	int size()
+	{
+		return this.size;
+	}
+
+	/**
+	 * @return whether the factors are stored outside the Java heap
+	 */
+	boolean isOffHeap()
+	{
+		return this.buffers != null;
+	}
+
+	/**
+	 * @param model the index of the MVND
+	 * @param row the row of L
+	 * @param column the column of L, at most row
+	 * @return L[row][column] for the argument MVND, which is zero if the structure does not store it
+	 */
+	double get(int model, int row, int column)
+	{
+		if(column < this.firstColumns[row])
+			return 0.0;
+
+		int index = this.position(model) + this.rowStarts[row] + column - this.firstColumns[row];
+
+		if(this.arrays != null)
+			return this.arrays[model/this.modelsPerChunk][index];
+		else
+			return this.buffers[model/this.modelsPerChunk].get(index);
+	}
+
+	/**
+	 * Sets L[row][column] for the argument MVND.
+	 *
+	 * @param model the index of the MVND
+	 * @param row the row of L
+	 * @param column the column of L, from firstColumn(row) to row
+	 * @param value the new value
+	 */
+	void set(int model, int row, int column, double value)
+	{
+		int index = this.position(model) + this.rowStarts[row] + column - this.firstColumns[row];
+
+		if(this.arrays != null)
+			this.arrays[model/this.modelsPerChunk][index] = value;
+		else
+			this.buffers[model/this.modelsPerChunk].put(index, value);
+	}
+
+	/**
+	 * @param model the index of the MVND
+	 * @param row the row of W
+	 * @param column the column of W, less than rank()
+	 * @return W[row][column] for the argument MVND
+	 */
+	double getLowRank(int model, int row, int column)
+	{
+		int index = this.position(model) + this.lowRankStart + row*this.rank + column;
+
+		if(this.arrays != null)
+			return this.arrays[model/this.modelsPerChunk][index];
+		else
+			return this.buffers[model/this.modelsPerChunk].get(index);
+	}
+
+	/**
+	 * Sets W[row][column] for the argument MVND.
+	 *
+	 * @param model the index of the MVND
+	 * @param row the row of W
+	 * @param column the column of W, less than rank()
+	 * @param value the new value
+	 */
+	void setLowRank(int model, int row, int column, double value)
+	{
+		int index = this.position(model) + this.lowRankStart + row*this.rank + column;
+
+		if(this.arrays != null)
+			this.arrays[model/this.modelsPerChunk][index] = value;
+		else
+			this.buffers[model/this.modelsPerChunk].put(index, value);
+	}
+
+	/**
+	 * Returns an array holding the argument MVND's packed factor from position offset(model) on.
+	 * On the heap this is the backing array itself, which may be written to; off the heap the
+	 * factor is copied into the scratch array.
+	 *
+	 * @param model the index of the MVND
+	 * @param scratch an array of length at least size(), or null if the factors are on the heap
+	 * @return an array holding the packed factor
+	 */
+	double[] array(int model, double[] scratch)
+	{
+		if(this.arrays != null)
+			return this.arrays[model/this.modelsPerChunk];
+
+		this.copyTo(model, scratch, 0);
+		return scratch;
+	}
+
+	/**
+	 * @param model the index of the MVND
+	 * @return the position of the argument MVND's packed factor in the array returned by array(model, scratch)
+	 */
+	int offset(int model)
+	{
+		return (this.arrays != null) ? this.position(model) : 0;
+	}
+
+	/**
+	 * Copies the argument MVND's packed factor into dst.
+	 *
+	 * @param model the index of the MVND
+	 * @param dst the array receiving the factor
+	 * @param dstOffset the position in dst of the factor's first value
+	 */
+	void copyTo(int model, double[] dst, int dstOffset)
+	{
+		if(this.arrays != null)
+		{
+			System.arraycopy(this.arrays[model/this.modelsPerChunk], this.position(model), dst, dstOffset, this.size);
+		}
+		else
+		{
+			// A duplicate keeps the shared buffer's position untouched, so several threads may read it
+			DoubleBuffer buffer = this.buffers[model/this.modelsPerChunk].duplicate();
+			buffer.position(this.position(model));
+			buffer.get(dst, dstOffset, this.size);
+		}
+	}
+
+	/**
+	 * Replaces the argument MVND's packed factor with the values in src.
+	 *
+	 * @param model the index of the MVND
+	 * @param src the array holding the factor
+	 * @param srcOffset the position in src of the factor's first value
+	 */
+	void copyFrom(int model, double[] src, int srcOffset)
+	{
+		if(this.arrays != null)
+		{
+			System.arraycopy(src, srcOffset, this.arrays[model/this.modelsPerChunk], this.position(model), this.size);
+		}
+		else
+		{
+			DoubleBuffer buffer = this.buffers[model/this.modelsPerChunk].duplicate();
+			buffer.position(this.position(model));
+			buffer.put(src, srcOffset, this.size);
+		}
+	}
+
+	/**
+	 * @param offHeap whether the copy is stored outside the Java heap
+	 * @return a copy of these factors
+	 */
+	PackedFactors copy(boolean offHeap)
+	{
+		PackedFactors copy = new PackedFactors(this.numModels, this.dimensions, this.structure, offHeap);
+		double[] scratch = new double[this.size];
+
+		for(int i = 0 ; i < this.numModels ; i++)
+		{
+			this.copyTo(i, scratch, 0);
+			copy.copyFrom(i, scratch, 0);
+		}
+
+		return copy;
+	}
+
+	/**
+	 * @return the position of the argument MVND's packed factor within its chunk
+	 */
+	private int position(int model)
+	{
+		return (model%this.modelsPerChunk)*this.size;
+	}
+}
@@ -0,0 +1,301 @@
+/*
+ *    PartitionedSampler.java
+ *
+ *    Copyright 2017 Richard Hugh Moulton
+ *
+ *    @author Richard Hugh Moulton
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams.generators.mixturemodel;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Samples a mixture model as a number of independent partitions, on a pool of worker threads.
+ *
+ * Each partition has its own pseudo random number generator, split from the sampler's seed, and
+ * draws its points in blocks of BLOCK_SIZE. The stream is made up of rounds: round r holds block r
+ * of partition 0, then block r of partition 1, and so on. The stream is therefore the same for a
+ * given seed and number of partitions whatever the number of threads. While one round is being
+ * read the workers already draw the next one.
+ *
+ * Both rounds are allocated up front, numPartitions*BLOCK_SIZE points each, so a sampler whose
+ * rounds would take more than half the maximum heap size is refused when it is constructed.
+ *
+ * The mixture model must not be changed while it is being sampled.
+ *
+ * @author Richard Hugh Moulton
+ */
+class PartitionedSampler
+{
+	static final int BLOCK_SIZE = 4096;
+
+	private MixtureModel mixtureModel;
+	private int dimensions;
+	private long seed;
+	private ZigguratRandom[] randoms;
+	private MixtureModel.SampleWorkspace[] workspaces;
+	private ExecutorService executor;
+	private Round current, next;
+	private int position;
+
+	/**
+	 * Constructor method for a new PartitionedSampler.
+	 *
+	 * @param mixtureModel the mixture model to sample
+	 * @param numPartitions the number of independent partitions
+	 * @param numThreads the number of worker threads; with one thread the rounds are drawn on the caller's thread
+	 * @param seed the seed from which every partition's pseudo random number generator is split
+	 * @throws IllegalArgumentException if the two rounds would take more than half the maximum heap size
+	 */
+	PartitionedSampler(MixtureModel mixtureModel, int numPartitions, int numThreads, long seed)
+	{
+		checkRoundSize(numPartitions, mixtureModel.getDimensions());
+
+		this.mixtureModel = mixtureModel;
+		this.dimensions = mixtureModel.getDimensions();
+		this.seed = seed;
+		this.randoms = new ZigguratRandom[numPartitions];
+		this.workspaces = new MixtureModel.SampleWorkspace[numPartitions];
+
+		for(int p = 0 ; p < numPartitions ; p++)
+		{
+			this.workspaces[p] = new MixtureModel.SampleWorkspace(this.dimensions);
+		}
+
+		this.current = new Round(numPartitions, this.dimensions);
+		this.next = new Round(numPartitions, this.dimensions);
+
+		if(numThreads > 1)
+		{
+			this.executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory()
+			{
+				@Override
+				public Thread newThread(Runnable r)
+				{
+					Thread thread = new Thread(r, "MixtureModel sampler");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+
+		this.restart();
+	}
+
+	/**
+	 * Checks that the two rounds a sampler allocates fit comfortably in the heap, so that too many
+	 * partitions fail here with a clear message rather than with an OutOfMemoryError.
+	 *
+	 * @param numPartitions the number of independent partitions
+	 * @param dimensions the number of dimensions of each point
+	 * @throws IllegalArgumentException if the rounds would take more than half the maximum heap size
+	 */
+	static void checkRoundSize(int numPartitions, int dimensions)
+	{
+		long blockValues = (long)BLOCK_SIZE*dimensions;
+		long roundBytes = (long)numPartitions*BLOCK_SIZE*(8L*dimensions + 4L);
+
+		if(blockValues > Integer.MAX_VALUE - 8 || 2*roundBytes > Runtime.getRuntime().maxMemory()/2)
+		{
+			throw new IllegalArgumentException("The sampler's rounds of "+numPartitions+" partitions of "+BLOCK_SIZE+" points in "
+					+dimensions+" dimensions would take "+(2*roundBytes >> 20)+" MB, more than half the maximum heap size."
+					+" Use fewer partitions.");
+		}
+	}
+
+	/**
+	 * Rewinds the sampler to the start of its stream.
+	 */
+	void restart()
+	{
+		this.await(this.current);
+		this.await(this.next);
+
+		SplittableRandom root = new SplittableRandom(this.seed);
+
+		for(int p = 0 ; p < this.randoms.length ; p++)
+		{
+			this.randoms[p] = new ZigguratRandom(root.split().nextLong());
+		}
+
+		// No round has been drawn yet: the first read draws it
+		this.position = this.current.size;
+		this.next.filled = false;
+	}
+
+	/**
+	 * Copies the next n points of the stream into caller-owned buffers, laid out as in
+	 * MixtureModel.sampleBatch.
+	 *
+	 * @param n the number of points
+	 * @param featuresOut the row-major buffer receiving the points, of length at least n*dimensions
+	 * @param labelsOut the buffer receiving the class labels, of length at least n
+	 *
+	 * @see moa.streams.generators.mixturemodel.MixtureModel#sampleBatch(int, double[], int[])
+	 */
+	void sampleBatch(int n, double[] featuresOut, int[] labelsOut)
+	{
+		if(featuresOut.length < (long)n*this.dimensions || labelsOut.length < n)
+		{
+			throw new IllegalArgumentException("Buffers are too small for a batch of "+n+" instances.");
+		}
+
+		int copied = 0;
+
+		while(copied < n)
+		{
+			if(this.position == this.current.size)
+			{
+				this.advance();
+			}
+
+			int partition = this.position/BLOCK_SIZE;
+			int row = this.position%BLOCK_SIZE;
+			int count = Math.min(n - copied, BLOCK_SIZE - row);
+
+			System.arraycopy(this.current.features[partition], row*this.dimensions, featuresOut, copied*this.dimensions, count*this.dimensions);
+			System.arraycopy(this.current.labels[partition], row, labelsOut, copied, count);
+
+			copied += count;
+			this.position += count;
+		}
+	}
+
+	/**
+	 * Stops the worker threads once they have finished the round they are drawing.
+	 */
+	void shutdown()
+	{
+		if(this.executor != null)
+		{
+			this.executor.shutdown();
+		}
+	}
+
+	/**
+	 * Moves on to the next round, drawing it now if it was not drawn ahead, and has the
+	 * workers start on the round after it.
+	 */
+	private void advance()
+	{
+		Round finished = this.current;
+
+		if(!this.next.filled)
+		{
+			this.draw(this.next);
+		}
+
+		this.await(this.next);
+		this.current = this.next;
+		this.next = finished;
+		this.next.filled = false;
+		this.position = 0;
+
+		if(this.executor != null)
+		{
+			this.draw(this.next);
+		}
+	}
+
+	/**
+	 * Draws one block per partition into the argument round: in the background if there are
+	 * worker threads, or immediately otherwise.
+	 */
+	private void draw(final Round round)
+	{
+		round.filled = true;
+
+		for(int p = 0 ; p < this.randoms.length ; p++)
+		{
+			final int partition = p;
+			Runnable block = new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					double[] features = round.features[partition];
+					int[] labels = round.labels[partition];
+					ZigguratRandom random = randoms[partition];
+					MixtureModel.SampleWorkspace workspace = workspaces[partition];
+
+					for(int r = 0 ; r < BLOCK_SIZE ; r++)
+					{
+						labels[r] = mixtureModel.sample(random, workspace, features, r*dimensions);
+					}
+				}
+			};
+
+			if(this.executor == null)
+				block.run();
+			else
+				round.pending[p] = this.executor.submit(block);
+		}
+	}
+
+	/**
+	 * Waits for the workers to finish drawing the argument round, if they are drawing it.
+	 */
+	private void await(Round round)
+	{
+		for(int p = 0 ; p < round.pending.length ; p++)
+		{
+			if(round.pending[p] == null)
+				continue;
+
+			try
+			{
+				round.pending[p].get();
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while sampling the mixture model.", e);
+			}
+			catch(ExecutionException e)
+			{
+				throw new IllegalStateException("Sampling the mixture model failed.", e.getCause());
+			}
+
+			round.pending[p] = null;
+		}
+	}
+
+	/**
+	 * One block of points and labels per partition.
+	 */
+	private static class Round
+	{
+		private double[][] features;
+		private int[][] labels;
+		private Future<?>[] pending;
+		private int size;
+		private boolean filled;
+
+		private Round(int numPartitions, int dimensions)
+		{
+			this.features = new double[numPartitions][BLOCK_SIZE*dimensions];
+			this.labels = new int[numPartitions][BLOCK_SIZE];
+			this.pending = new Future<?>[numPartitions];
+			this.size = numPartitions*BLOCK_SIZE;
+		}
+	}
+}
@@ -0,0 +1,217 @@
+/*
+ *    ReplayFormat.java
+ *
+ *    Copyright 2017 Richard Hugh Moulton
+ *
+ *    @author Richard Hugh Moulton
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams.generators.mixturemodel;
+
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The layout of a replay file, written by WriteMixtureModelStreamToFile and read by
+ * MixtureModelReplayStream. All values are little endian. The file starts with a preamble of
+ * DATA_OFFSET bytes:
+ * <ul>
+ * <li>the magic number 0x4D4D5250 and the format version, as ints;</li>
+ * <li>the number of rows, as a long;</li>
+ * <li>the number of values in each row, as an int, and four bytes of padding;</li>
+ * <li>the position of the trailer, as a long.</li>
+ * </ul>
+ * The rows follow, each made up of the attribute values and then the class index, as doubles.
+ * The trailer follows the rows and holds the options of the stream that generated them and the
+ * stream's header: its relation name, its class index and the number of attributes, then each
+ * attribute's name and its nominal values, if any. Strings are written as their length in bytes,
+ * as an int, followed by their UTF-8 bytes.
+ *
+ * The header comes last because it is only final once the rows are written: a drifting
+ * stream's header may gain classes along the way.
+ *
+ * @author Richard Hugh Moulton
+ */
+class ReplayFormat
+{
+	static final int MAGIC = 0x4D4D5250;
+	static final int VERSION = 1;
+	static final int DATA_OFFSET = 32;
+
+	long numRows;
+	int rowLength;
+	long trailerOffset;
+	String options;
+	InstancesHeader header;
+
+	/**
+	 * Encodes the preamble.
+	 *
+	 * @param numRows the number of rows
+	 * @param rowLength the number of values in each row, including the class index
+	 * @param trailerOffset the position of the trailer
+	 * @return the preamble
+	 */
+	static ByteBuffer encodePreamble(long numRows, int rowLength, long trailerOffset)
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(DATA_OFFSET).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC).putInt(VERSION).putLong(numRows).putInt(rowLength).putInt(0).putLong(trailerOffset);
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Encodes the trailer.
+	 *
+	 * @param options the options of the stream that generated the rows
+	 * @param header the stream's header
+	 * @return the trailer
+	 */
+	static ByteBuffer encodeTrailer(String options, InstancesHeader header)
+	{
+		List<byte[]> strings = new ArrayList<byte[]>();
+		strings.add(options.getBytes(StandardCharsets.UTF_8));
+		strings.add(header.getRelationName().getBytes(StandardCharsets.UTF_8));
+
+		int size = 4+4;
+		for(int i = 0 ; i < header.numAttributes() ; i++)
+		{
+			Attribute attribute = header.attribute(i);
+			strings.add(attribute.name().getBytes(StandardCharsets.UTF_8));
+			size += 4;
+
+			for(int v = 0 ; attribute.isNominal() && v < attribute.numValues() ; v++)
+			{
+				strings.add(attribute.value(v).getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		for(byte[] string : strings)
+		{
+			size += 4 + string.length;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		int s = 0;
+
+		putString(buffer, strings.get(s++));
+		putString(buffer, strings.get(s++));
+		buffer.putInt(header.classIndex()).putInt(header.numAttributes());
+
+		for(int i = 0 ; i < header.numAttributes() ; i++)
+		{
+			Attribute attribute = header.attribute(i);
+			int numValues = attribute.isNominal() ? attribute.numValues() : 0;
+
+			putString(buffer, strings.get(s++));
+			buffer.putInt(numValues);
+
+			for(int v = 0 ; v < numValues ; v++)
+			{
+				putString(buffer, strings.get(s++));
+			}
+		}
+
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Decodes the preamble.
+	 *
+	 * @param buffer the preamble, in little endian order
+	 * @return the decoded preamble, without the trailer's options and header
+	 * @throws IOException if the buffer does not hold a replay file in a supported version of the format
+	 */
+	static ReplayFormat decodePreamble(ByteBuffer buffer) throws IOException
+	{
+		if(buffer.getInt() != MAGIC)
+			throw new IOException("Not a mixture model replay file.");
+
+		int version = buffer.getInt();
+		if(version < 1 || version > VERSION)
+			throw new IOException("Unsupported replay file version "+version+".");
+
+		ReplayFormat format = new ReplayFormat();
+		format.numRows = buffer.getLong();
+		format.rowLength = buffer.getInt();
+		buffer.getInt();
+		format.trailerOffset = buffer.getLong();
+
+		return format;
+	}
+
+	/**
+	 * Decodes the trailer into this format's options and header.
+	 *
+	 * @param buffer the trailer, in little endian order
+	 * @throws IOException if the header does not match the rows
+	 */
+	void decodeTrailer(ByteBuffer buffer) throws IOException
+	{
+		this.options = getString(buffer);
+
+		String relationName = getString(buffer);
+		int classIndex = buffer.getInt();
+		int numAttributes = buffer.getInt();
+		List<Attribute> attributes = new ArrayList<Attribute>();
+
+		for(int i = 0 ; i < numAttributes ; i++)
+		{
+			String name = getString(buffer);
+			int numValues = buffer.getInt();
+
+			if(numValues == 0)
+			{
+				attributes.add(new Attribute(name));
+			}
+			else
+			{
+				List<String> values = new ArrayList<String>();
+				for(int v = 0 ; v < numValues ; v++)
+				{
+					values.add(getString(buffer));
+				}
+				attributes.add(new Attribute(name, values));
+			}
+		}
+
+		if(this.rowLength != numAttributes)
+			throw new IOException("Corrupt replay file: rows of "+this.rowLength+" values for "+numAttributes+" attributes.");
+
+		this.header = new InstancesHeader(new Instances(relationName, attributes, 0));
+		this.header.setClassIndex(classIndex);
+	}
+
+	private static void putString(ByteBuffer buffer, byte[] string)
+	{
+		buffer.putInt(string.length).put(string);
+	}
+
+	private static String getString(ByteBuffer buffer)
+	{
+		byte[] string = new byte[buffer.getInt()];
+		buffer.get(string);
+		return new String(string, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,402 @@
+/*
+ *    WriteMixtureModelStreamToFile.java
+ *
+ *    Copyright 2017 Richard Hugh Moulton
+ *
+ *    @author Richard Hugh Moulton
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams.generators.mixturemodel;
+
+import com.github.javacliparser.FileOption;
+import com.github.javacliparser.IntOption;
+import com.github.javacliparser.MultiChoiceOption;
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import moa.core.ObjectRepository;
+import moa.options.ClassOption;
+import moa.options.OptionHandler;
+import moa.tasks.MainTask;
+import moa.tasks.TaskMonitor;
+
+/**
+ * Writes a mixture model stream to a file in bulk. Instances are generated a batch at a time into
+ * primitive buffers and formatted straight into a large direct buffer, which is written to a
+ * FileChannel; no Instance objects are created.
+ *
+ * The file is written in one of four formats:
+ * <ul>
+ * <li>ARFF, the stream's header followed by one comma separated row per instance;</li>
+ * <li>CSV, a line of attribute names followed by the same rows;</li>
+ * <li>Binary, the raw rows as little endian doubles, the class index following the attributes, with no header;</li>
+ * <li>Replay, the binary rows preceded by the stream's header and options, for MixtureModelReplayStream.</li>
+ * </ul>
+ * In the text formats attribute values are written with at most the chosen number of decimals,
+ * trailing zeros removed, and the class is written as its label.
+ *
+ * @see moa.streams.generators.mixturemodel.MixtureModelReplayStream
+ * @see moa.streams.generators.mixturemodel.ReplayFormat
+ *
+ * @author Richard Hugh Moulton
+ */
+public class WriteMixtureModelStreamToFile extends MainTask
+{
+	private static final long serialVersionUID = 1L;
+
+	private static final int BATCH_SIZE = 4096;
+	private static final int BUFFER_SIZE = 1 << 23;
+	private static final int MAX_NUMBER_LENGTH = 32;
+
+	private static final long[] POWERS_OF_TEN = new long[19];
+	static
+	{
+		POWERS_OF_TEN[0] = 1;
+		for(int i = 1 ; i < POWERS_OF_TEN.length ; i++)
+		{
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i-1]*10;
+		}
+	}
+
+	public ClassOption streamOption = new ClassOption("stream", 's',
+			"Mixture model stream to write.", BatchInstanceStream.class, "MixtureModelGenerator");
+
+	public FileOption fileOption = new FileOption("file", 'f',
+			"Destination file.", null, "arff", true);
+
+	public MultiChoiceOption formatOption = new MultiChoiceOption("format", 'o', "The format to write the stream in.",
+			new String[]{"ARFF","CSV","Binary","Replay"}, new String[]{"ARFF header and comma separated rows.",
+			"A line of attribute names and comma separated rows.", "Rows of little endian doubles, the class index last, with no header.",
+			"Binary rows preceded by the stream's header and options, to be memory-mapped by MixtureModelReplayStream."}, 0);
+
+	public IntOption maxInstancesOption = new IntOption("maxInstances", 'm',
+			"Maximum number of instances to write to file.", 10000000, 0, Integer.MAX_VALUE);
+
+	public IntOption decimalsOption = new IntOption("decimals", 'd',
+			"The maximum number of decimals written for each attribute value in the ARFF and CSV formats.", 6, 0, 15);
+
+	@Override
+	public String getPurposeString()
+	{
+		return "Writes a mixture model stream to an ARFF, CSV or binary file in bulk.";
+	}
+
+	/**
+	 * @see moa.tasks.MainTask#doMainTask(moa.tasks.TaskMonitor, moa.core.ObjectRepository)
+	 */
+	@Override
+	protected Object doMainTask(TaskMonitor monitor, ObjectRepository repository)
+	{
+		BatchInstanceStream stream = (BatchInstanceStream) getPreparedClassOption(this.streamOption);
+		File destFile = this.fileOption.getFile();
+		int format = this.formatOption.getChosenIndex();
+		int decimals = this.decimalsOption.getValue();
+		int maxInstances = this.maxInstancesOption.getValue();
+		int numAtts = stream.getNumBatchAttributes();
+
+		double[] attributes = new double[BATCH_SIZE*numAtts];
+		int[] classes = new int[BATCH_SIZE];
+		double[] rows = new double[BATCH_SIZE*(numAtts+1)];
+		byte[] line = new byte[(numAtts+1)*MAX_NUMBER_LENGTH];
+		int written = 0;
+
+		monitor.setCurrentActivity("Writing stream to file...", -1.0);
+
+		try(FileChannel channel = FileChannel.open(destFile.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+			// A drifting stream's header may gain classes, so declare them all up front
+			InstancesHeader header = stream.getBatchHeader();
+			byte[][] labels = labels(header);
+
+			if(format == 0)
+				put(channel, buffer, header.toString().getBytes(StandardCharsets.UTF_8));
+			else if(format == 1)
+				put(channel, buffer, csvHeader(header).getBytes(StandardCharsets.UTF_8));
+			else if(format == 3)
+				buffer.put(ReplayFormat.encodePreamble(0, numAtts+1, 0));
+
+			while(written < maxInstances)
+			{
+				if(monitor.taskShouldAbort())
+				{
+					return null;
+				}
+
+				int n = Math.min(BATCH_SIZE, maxInstances - written);
+				stream.nextBatch(n, attributes, classes);
+
+				if(format >= 2)
+				{
+					// Interleave the classes with the attributes so that the batch is copied in bulk
+					for(int r = 0 ; r < n ; r++)
+					{
+						System.arraycopy(attributes, r*numAtts, rows, r*(numAtts+1), numAtts);
+						rows[r*(numAtts+1)+numAtts] = classes[r];
+					}
+					putDoubles(channel, buffer, rows, n*(numAtts+1));
+				}
+				else
+				{
+					for(int r = 0 ; r < n ; r++)
+					{
+						byte[] label = labels[classes[r]];
+
+						if(line.length < (numAtts+1)*MAX_NUMBER_LENGTH + label.length)
+							line = new byte[(numAtts+1)*MAX_NUMBER_LENGTH + label.length];
+
+						int length = 0;
+						for(int i = 0 ; i < numAtts ; i++)
+						{
+							length = formatDouble(attributes[r*numAtts+i], decimals, line, length);
+							line[length++] = ',';
+						}
+						System.arraycopy(label, 0, line, length, label.length);
+						length += label.length;
+						line[length++] = '\n';
+
+						if(buffer.remaining() < length)
+							flush(channel, buffer);
+						buffer.put(line, 0, length);
+					}
+				}
+
+				written += n;
+
+				if(maxInstances > 0)
+				{
+					monitor.setCurrentActivityFractionComplete((double) written / (double) maxInstances);
+				}
+			}
+
+			flush(channel, buffer);
+
+			if(format == 3)
+			{
+				long trailerOffset = channel.position();
+				ByteBuffer trailer = ReplayFormat.encodeTrailer(generatorOptions(stream), header);
+				while(trailer.hasRemaining())
+				{
+					channel.write(trailer);
+				}
+
+				// The preamble is only complete once the rows have been counted
+				ByteBuffer preamble = ReplayFormat.encodePreamble(written, numAtts+1, trailerOffset);
+				while(preamble.hasRemaining())
+				{
+					channel.write(preamble, preamble.position());
+				}
+			}
+		}
+		catch(IOException e)
+		{
+			throw new RuntimeException("Failed writing to file " + destFile, e);
+		}
+
+		return "Stream written to file " + destFile;
+	}
+
+	@Override
+	public Class<?> getTaskResultType()
+	{
+		return String.class;
+	}
+
+	/**
+	 * @return the bytes of the labels of the header's classes, indexed by class
+	 */
+	private static byte[][] labels(InstancesHeader header)
+	{
+		Attribute classAttribute = header.classAttribute();
+		byte[][] labels = new byte[classAttribute.numValues()][];
+
+		for(int i = 0 ; i < labels.length ; i++)
+		{
+			labels[i] = classAttribute.value(i).getBytes(StandardCharsets.UTF_8);
+		}
+
+		return labels;
+	}
+
+	/**
+	 * @return the stream's fully qualified class name followed by its options
+	 */
+	private static String generatorOptions(BatchInstanceStream stream)
+	{
+		String options = stream.getClass().getName();
+
+		if(stream instanceof OptionHandler)
+			options = (options + " " + ((OptionHandler) stream).getOptions().getAsCLIString()).trim();
+
+		return options;
+	}
+
+	/**
+	 * @return a line of the header's attribute names, separated by commas
+	 */
+	private static String csvHeader(InstancesHeader header)
+	{
+		StringBuilder sb = new StringBuilder();
+
+		for(int i = 0 ; i < header.numAttributes() ; i++)
+		{
+			if(i > 0)
+				sb.append(',');
+			sb.append(header.attribute(i).name());
+		}
+
+		return sb.append('\n').toString();
+	}
+
+	/**
+	 * Writes the argument value in decimal notation, with at most the given number of decimals and
+	 * without trailing zeros. Values too large to be scaled to a long are written by Double.toString.
+	 *
+	 * @param value the value to write
+	 * @param decimals the maximum number of decimals
+	 * @param out the buffer to write into, with at least MAX_NUMBER_LENGTH bytes free
+	 * @param pos the position at which to write
+	 * @return the position just after the value
+	 */
+	static int formatDouble(double value, int decimals, byte[] out, int pos)
+	{
+		if(Double.isNaN(value))
+		{
+			out[pos++] = '?';
+			return pos;
+		}
+
+		double magnitude = Math.abs(value);
+		double scaled = magnitude*POWERS_OF_TEN[decimals];
+
+		if(!(scaled < 9.0e18))
+		{
+			byte[] digits = Double.toString(value).getBytes(StandardCharsets.US_ASCII);
+			System.arraycopy(digits, 0, out, pos, digits.length);
+			return pos + digits.length;
+		}
+
+		long units = Math.round(scaled);
+		long integer = units/POWERS_OF_TEN[decimals];
+		long fraction = units%POWERS_OF_TEN[decimals];
+
+		if(value < 0.0 && units != 0)
+			out[pos++] = '-';
+
+		pos = writeDigits(integer, 1, out, pos);
+
+		if(fraction != 0)
+		{
+			int digits = decimals;
+
+			// Drop the trailing zeros
+			while(fraction%10 == 0)
+			{
+				fraction /= 10;
+				digits--;
+			}
+
+			out[pos++] = '.';
+			pos = writeDigits(fraction, digits, out, pos);
+		}
+
+		return pos;
+	}
+
+	/**
+	 * Writes a non-negative number's digits, padded with leading zeros to at least minDigits digits.
+	 */
+	private static int writeDigits(long number, int minDigits, byte[] out, int pos)
+	{
+		int digits = 1;
+		while(digits < 19 && number >= POWERS_OF_TEN[digits])
+		{
+			digits++;
+		}
+		digits = Math.max(digits, minDigits);
+
+		for(int i = pos + digits - 1 ; i >= pos ; i--)
+		{
+			out[i] = (byte)('0' + (number%10));
+			number /= 10;
+		}
+
+		return pos + digits;
+	}
+
+	/**
+	 * Copies the first length values into the buffer as little endian doubles, writing the
+	 * buffer to the channel whenever it fills up.
+	 */
+	private static void putDoubles(FileChannel channel, ByteBuffer buffer, double[] values, int length) throws IOException
+	{
+		int offset = 0;
+
+		while(offset < length)
+		{
+			if(buffer.remaining() < 8)
+				flush(channel, buffer);
+
+			int count = Math.min(length - offset, buffer.remaining()/8);
+			buffer.asDoubleBuffer().put(values, offset, count);
+			buffer.position(buffer.position() + 8*count);
+			offset += count;
+		}
+	}
+
+	/**
+	 * Copies the bytes into the buffer, writing the buffer to the channel whenever it fills up.
+	 */
+	private static void put(FileChannel channel, ByteBuffer buffer, byte[] bytes) throws IOException
+	{
+		int offset = 0;
+
+		while(offset < bytes.length)
+		{
+			if(!buffer.hasRemaining())
+				flush(channel, buffer);
+
+			int count = Math.min(bytes.length - offset, buffer.remaining());
+			buffer.put(bytes, offset, count);
+			offset += count;
+		}
+	}
+
+	/**
+	 * Writes the buffer's contents to the channel and empties the buffer.
+	 */
+	private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException
+	{
+		buffer.flip();
+
+		while(buffer.hasRemaining())
+		{
+			channel.write(buffer);
+		}
+
+		buffer.clear();
+	}
+}
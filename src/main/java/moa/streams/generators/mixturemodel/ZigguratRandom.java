@@ -0,0 +1,194 @@
+/*
+ *    ZigguratRandom.java
+ *
+ *    Copyright 2017 Richard Hugh Moulton
+ *
+ *    @author Richard Hugh Moulton
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams.generators.mixturemodel;
+
+import java.util.Random;
+
+/**
+ * A fast pseudo random number generator for sampling mixture models. The uniform bits come
+ * from the SplitMix64 generator and standard normal variates are drawn with Marsaglia and
+ * Tsang's ziggurat method, which needs a single 64 bit draw for the vast majority of variates.
+ *
+ * Unlike java.util.Random this class is not synchronized, so an instance must not be shared
+ * between threads. It is a drop-in replacement wherever a Random is expected.
+ *
+ * @see java.util.Random
+ *
+ * @author Richard Hugh Moulton
+ */
+public class ZigguratRandom extends Random
+{
+	private static final long serialVersionUID = 1L;
+
+	private static final int NUM_LAYERS = 128;
+	private static final double R = 3.442619855899;
+	private static final double V = 9.91256303526217e-3;
+	private static final double M1 = 2147483648.0;
+
+	private static final int[] kn = new int[NUM_LAYERS];
+	private static final double[] wn = new double[NUM_LAYERS];
+	private static final double[] fn = new double[NUM_LAYERS];
+
+	static
+	{
+		double dn = R;
+		double tn = dn;
+		double q = V/Math.exp(-0.5*dn*dn);
+
+		kn[0] = (int)((dn/q)*M1);
+		kn[1] = 0;
+		wn[0] = q/M1;
+		wn[NUM_LAYERS-1] = dn/M1;
+		fn[0] = 1.0;
+		fn[NUM_LAYERS-1] = Math.exp(-0.5*dn*dn);
+
+		for(int i = NUM_LAYERS-2 ; i >= 1 ; i--)
+		{
+			dn = Math.sqrt(-2.0*Math.log(V/dn+Math.exp(-0.5*dn*dn)));
+			kn[i+1] = (int)((dn/tn)*M1);
+			tn = dn;
+			fn[i] = Math.exp(-0.5*dn*dn);
+			wn[i] = dn/M1;
+		}
+	}
+
+	private long state;
+
+	/**
+	 * Constructor method for a new ZigguratRandom with the given seed.
+	 *
+	 * @param seed the initial seed
+	 */
+	public ZigguratRandom(long seed)
+	{
+		super(seed);
+		this.state = seed;
+	}
+
+	/**
+	 * Resets the generator so that it reproduces the sequence started by the argument seed.
+	 *
+	 * @param seed the new seed
+	 */
+	@Override
+	public void setSeed(long seed)
+	{
+		this.state = seed;
+	}
+
+	/**
+	 * @return the next 64 pseudo random bits from the SplitMix64 sequence.
+	 */
+	@Override
+	public long nextLong()
+	{
+		long z = (this.state += 0x9E3779B97F4A7C15L);
+		z = (z ^ (z >>> 30))*0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27))*0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * @see java.util.Random#next(int)
+	 */
+	@Override
+	protected int next(int bits)
+	{
+		return (int)(this.nextLong() >>> (64-bits));
+	}
+
+	/**
+	 * @return a pseudo random double uniformly distributed in [0,1), using the top 53 bits of one draw.
+	 */
+	@Override
+	public double nextDouble()
+	{
+		return (this.nextLong() >>> 11)*0x1.0p-53;
+	}
+
+	/**
+	 * Draws a standard normal variate using the ziggurat method. The layer index and the
+	 * candidate value are taken from disjoint bits of the same 64 bit draw so that they
+	 * are independent of one another.
+	 *
+	 * @return a pseudo random value from the standard normal distribution
+	 */
+	@Override
+	public double nextGaussian()
+	{
+		long bits = this.nextLong();
+		int hz = (int)(bits >>> 32);
+		int iz = (int)bits & (NUM_LAYERS-1);
+
+		if(Math.abs(hz) < kn[iz])
+		{
+			return hz*wn[iz];
+		}
+
+		return this.gaussianTail(hz, iz);
+	}
+
+	/**
+	 * Handles the rare case in which the ziggurat's fast path rejects the candidate, either
+	 * because it lies in the wedge of a layer or in the tail beyond the base layer.
+	 *
+	 * @param hz the signed 32 bit candidate
+	 * @param iz the index of the candidate's layer
+	 * @return a pseudo random value from the standard normal distribution
+	 */
+	private double gaussianTail(int hz, int iz)
+	{
+		while(true)
+		{
+			double x = hz*wn[iz];
+
+			// The base layer: sample from the tail beyond R
+			if(iz == 0)
+			{
+				double y;
+
+				do
+				{
+					x = -Math.log(1.0-this.nextDouble())/R;
+					y = -Math.log(1.0-this.nextDouble());
+				}while(y+y < x*x);
+
+				return (hz > 0) ? R+x : -R-x;
+			}
+
+			// A wedge: accept with probability proportional to the density
+			if(fn[iz]+this.nextDouble()*(fn[iz-1]-fn[iz]) < Math.exp(-0.5*x*x))
+			{
+				return x;
+			}
+
+			long bits = this.nextLong();
+			hz = (int)(bits >>> 32);
+			iz = (int)bits & (NUM_LAYERS-1);
+
+			if(Math.abs(hz) < kn[iz])
+			{
+				return hz*wn[iz];
+			}
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ *    AliasTableTest.java
+ *
+ *    Copyright 2017 Richard Hugh Moulton
+ *
+ *    @author Richard Hugh Moulton
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams.generators.mixturemodel;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that an AliasTable samples each index with a frequency proportional to its weight.
+ *
+ * @author Richard Hugh Moulton
+ */
+public class AliasTableTest
+{
+	private static final int NUM_SAMPLES = 1000000;
+
+	@Test
+	public void frequenciesFollowWeights()
+	{
+		assertFrequencies(new double[]{0.1, 0.2, 0.3, 0.4});
+		assertFrequencies(new double[]{5.0, 1.0, 1.0, 1.0, 0.5, 0.25, 0.25});
+		assertFrequencies(new double[]{1.0, 1.0, 1.0});
+	}
+
+	@Test
+	public void zeroAndNegativeWeightsAreNeverSampled()
+	{
+		assertFrequencies(new double[]{0.0, 3.0, -1.0, 1.0});
+	}
+
+	@Test
+	public void rebuildReplacesWeights()
+	{
+		AliasTable table = new AliasTable(new double[]{1.0, 1.0, 1.0, 1.0});
+		double[] weights = {0.7, 0.0, 0.2, 0.1};
+		table.rebuild(weights);
+
+		assertFrequencies(table, weights);
+	}
+
+	@Test
+	public void equalWeightsWhenAllWeightsAreZero()
+	{
+		AliasTable table = new AliasTable(new double[]{0.0, 0.0});
+
+		assertFrequencies(table, new double[]{1.0, 1.0});
+	}
+
+	private static void assertFrequencies(double[] weights)
+	{
+		assertFrequencies(new AliasTable(weights), weights);
+	}
+
+	/**
+	 * Each index's frequency must lie within five standard deviations of its probability.
+	 */
+	private static void assertFrequencies(AliasTable table, double[] weights)
+	{
+		Random random = new Random(1);
+		long[] counts = new long[weights.length];
+
+		for(int s = 0 ; s < NUM_SAMPLES ; s++)
+		{
+			counts[table.sample(random)]++;
+		}
+
+		double weightSum = 0.0;
+		for(double weight : weights)
+		{
+			weightSum += Math.max(weight, 0.0);
+		}
+
+		for(int i = 0 ; i < weights.length ; i++)
+		{
+			double p = Math.max(weights[i], 0.0)/weightSum;
+			double tolerance = 5.0*Math.sqrt(p*(1.0-p)/NUM_SAMPLES);
+
+			assertEquals("Frequency of index "+i, p, (double)counts[i]/NUM_SAMPLES, tolerance);
+		}
+	}
+}
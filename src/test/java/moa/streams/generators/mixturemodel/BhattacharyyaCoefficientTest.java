@@ -0,0 +1,129 @@
+/*
+ *    BhattacharyyaCoefficientTest.java
+ *
+ *    Copyright 2017 Richard Hugh Moulton
+ *
+ *    @author Richard Hugh Moulton
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams.generators.mixturemodel;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Checks that the Bhattacharyya coefficients computed from structured covariance factors agree
+ * with those computed from the same covariance matrices held densely, which go through
+ * commons-math's LU decomposition instead.
+ *
+ * @author Richard Hugh Moulton
+ */
+public class BhattacharyyaCoefficientTest
+{
+	private static final int NUM_CLASSES = 3, DIMENSIONS = 12;
+
+	/** The relative tolerance; randomly generated covariance matrices can be poorly conditioned. */
+	private static final double TOLERANCE = 1e-6;
+
+	@Test
+	public void diagonalAgreesWithDense()
+	{
+		assertAgreesWithDense(new CovarianceStructure(CovarianceStructure.DIAGONAL, 0));
+	}
+
+	@Test
+	public void bandedAgreesWithDense()
+	{
+		assertAgreesWithDense(new CovarianceStructure(CovarianceStructure.BANDED, 3));
+	}
+
+	@Test
+	public void blockDiagonalAgreesWithDense()
+	{
+		assertAgreesWithDense(new CovarianceStructure(CovarianceStructure.BLOCK_DIAGONAL, 4));
+	}
+
+	@Test
+	public void lowRankAgreesWithDense()
+	{
+		assertAgreesWithDense(new CovarianceStructure(CovarianceStructure.LOW_RANK, 2));
+	}
+
+	/**
+	 * A structured model against a full one takes the structured path for both.
+	 */
+	@Test
+	public void mixedStructuresAgreeWithDense()
+	{
+		MixtureModel full = new MixtureModel(NUM_CLASSES, DIMENSIONS, 1, 1);
+		MixtureModel banded = new MixtureModel(NUM_CLASSES, DIMENSIONS, new CovarianceStructure(CovarianceStructure.BANDED, 2), 2, 2);
+		MixtureModel bandedDense = dense(banded);
+
+		for(int a = 0 ; a < NUM_CLASSES ; a++)
+		{
+			for(int b = 0 ; b < NUM_CLASSES ; b++)
+			{
+				double expected = MixtureModel.bhattacharyyaCoefficient(full, a, bandedDense, b);
+				assertEquals(expected, MixtureModel.bhattacharyyaCoefficient(full, a, banded, b), TOLERANCE*expected);
+			}
+		}
+	}
+
+	/**
+	 * Compares every pair of MVNDs, within and between two models of the argument structure.
+	 */
+	private static void assertAgreesWithDense(CovarianceStructure structure)
+	{
+		MixtureModel mmA = new MixtureModel(NUM_CLASSES, DIMENSIONS, structure, 1, 1);
+		MixtureModel mmB = new MixtureModel(NUM_CLASSES, DIMENSIONS, structure, 2, 2);
+		MixtureModel denseA = dense(mmA);
+		MixtureModel denseB = dense(mmB);
+
+		for(int a = 0 ; a < NUM_CLASSES ; a++)
+		{
+			for(int b = 0 ; b < NUM_CLASSES ; b++)
+			{
+				double expected = MixtureModel.bhattacharyyaCoefficient(denseA, a, denseB, b);
+				double actual = MixtureModel.bhattacharyyaCoefficient(mmA, a, mmB, b);
+				assertEquals(structure+" "+a+"/"+b, expected, actual, TOLERANCE*expected);
+
+				expected = MixtureModel.bhattacharyyaCoefficient(denseA, a, denseA, b);
+				actual = MixtureModel.bhattacharyyaCoefficient(mmA, a, mmA, b);
+				assertEquals(structure+" "+a+"/"+b, expected, actual, TOLERANCE*expected);
+			}
+
+			assertEquals(1.0, MixtureModel.bhattacharyyaCoefficient(mmA, a, mmA, a), TOLERANCE);
+		}
+	}
+
+	/**
+	 * @return a mixture model with full covariance matrices equal to the argument model's
+	 */
+	private static MixtureModel dense(MixtureModel mm)
+	{
+		double[][] means = new double[mm.getNumModels()][];
+		double[][][] l = new double[mm.getNumModels()][][];
+
+		for(int i = 0 ; i < mm.getNumModels() ; i++)
+		{
+			means[i] = mm.getMeans(i);
+			l[i] = mm.getL(i);
+		}
+
+		return new MixtureModel(mm.getWeights(), means, l, 1, 1);
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ *    MixtureModelGeneratorDriftTest.java
+ *
+ *    Copyright 2017 Richard Hugh Moulton
+ *
+ *    @author Richard Hugh Moulton
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams.generators.mixturemodel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import org.junit.Test;
+
+/**
+ * Checks MixtureModelGeneratorDrift's drift timeline: that batches straddling the phases'
+ * boundaries generate the same instances as nextInstance, and that the header changes at the
+ * first instance of each phase.
+ *
+ * @author Richard Hugh Moulton
+ */
+public class MixtureModelGeneratorDriftTest
+{
+	private static final int BURN_IN = 100, DURATION = 50, NUM_INSTANCES = 300;
+
+	/** Batch sizes whose sums straddle BURN_IN and BURN_IN+DURATION, or end exactly on them. */
+	private static final int[] BATCH_SIZES = {1, 37, 61, 2, 30, 19, 1, 99, 50};
+
+	@Test
+	public void incrementalBatchesMatchNextInstance()
+	{
+		assertBatchesMatchNextInstance("Incremental", 3, 5);
+		assertBatchesMatchNextInstance("Incremental", 5, 2);
+	}
+
+	@Test
+	public void gradualBatchesMatchNextInstance()
+	{
+		assertBatchesMatchNextInstance("Gradual", 3, 5);
+		assertBatchesMatchNextInstance("Gradual", 5, 2);
+	}
+
+	/**
+	 * The drift uses whichever header declares more classes, so the header changes at the drift's
+	 * first instance if the drift brings new classes and at the post-concept drift's first
+	 * instance otherwise.
+	 */
+	@Test
+	public void headerSwitchesAtPhaseBoundaries()
+	{
+		assertHeaderSwitchesAt(3, 5, BURN_IN);
+		assertHeaderSwitchesAt(5, 2, BURN_IN+DURATION);
+	}
+
+	/**
+	 * Generates NUM_INSTANCES instances one at a time from one generator and in batches of uneven
+	 * sizes from another, and compares every row and, after each batch, the classes the header
+ * declares.
+	 */
+	private static void assertBatchesMatchNextInstance(String driftType, int numClassesPre, int numClassesPost)
+	{
+		MixtureModelGeneratorDrift single = generator(driftType, numClassesPre, numClassesPost);
+		MixtureModelGeneratorDrift batched = generator(driftType, numClassesPre, numClassesPost);
+		int numAtts = batched.getNumBatchAttributes();
+		double[] attributes = new double[NUM_INSTANCES*numAtts];
+		int[] classes = new int[NUM_INSTANCES];
+
+		for(int read = 0, b = 0 ; read < NUM_INSTANCES ; b++)
+		{
+			int n = Math.min(BATCH_SIZES[b%BATCH_SIZES.length], NUM_INSTANCES - read);
+			batched.nextBatch(n, attributes, classes);
+
+			for(int r = 0 ; r < n ; r++)
+			{
+				Instance inst = single.nextInstance().getData();
+				String message = driftType+" "+numClassesPre+"->"+numClassesPost+", instance "+(read+r);
+
+				for(int i = 0 ; i < numAtts ; i++)
+				{
+					assertEquals(message, Double.doubleToRawLongBits(attributes[r*numAtts+i]), Double.doubleToRawLongBits(inst.value(i)));
+				}
+				assertEquals(message, classes[r], (int)inst.classValue());
+			}
+
+			read += n;
+			assertEquals(driftType+" header after "+read+" instances", single.getHeader().numClasses(), batched.getHeader().numClasses());
+		}
+	}
+
+	/**
+	 * Checks the header after each instance: the pre-concept drift header up to the argument
+	 * instance and the larger header of the two from then until the end of the drift.
+	 */
+	private static void assertHeaderSwitchesAt(int numClassesPre, int numClassesPost, int switchAt)
+	{
+		MixtureModelGeneratorDrift generator = generator("Incremental", numClassesPre, numClassesPost);
+
+		for(int i = 0 ; i < NUM_INSTANCES ; i++)
+		{
+			Instance inst = generator.nextInstance().getData();
+			InstancesHeader header = generator.getHeader();
+			int expectedClasses;
+
+			if(i < switchAt)
+				expectedClasses = numClassesPre;
+			else if(i < BURN_IN+DURATION)
+				expectedClasses = Math.max(numClassesPre, numClassesPost);
+			else
+				expectedClasses = numClassesPost;
+
+			assertEquals("Classes declared at instance "+i, expectedClasses, header.numClasses());
+			assertSame("Dataset of instance "+i, header, inst.dataset());
+		}
+
+		assertEquals(Math.max(numClassesPre, numClassesPost), generator.getBatchHeader().numClasses());
+	}
+
+	private static MixtureModelGeneratorDrift generator(String driftType, int numClassesPre, int numClassesPost)
+	{
+		MixtureModelGeneratorDrift generator = new MixtureModelGeneratorDrift();
+		generator.numAttsOption.setValue(3);
+		generator.numClassesPreOption.setValue(numClassesPre);
+		generator.numClassesPostOption.setValue(numClassesPost);
+		generator.burnInInstances.setValue(BURN_IN);
+		generator.driftDuration.setValue(DURATION);
+		generator.driftType.setChosenLabel(driftType);
+		generator.precisionDriftMagnitude.setValue(0.1);
+		generator.prepareForUse();
+		return generator;
+	}
+}
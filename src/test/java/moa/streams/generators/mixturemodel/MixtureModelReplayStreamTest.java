@@ -0,0 +1,259 @@
+/*
+ *    MixtureModelReplayStreamTest.java
+ *
+ *    Copyright 2017 Richard Hugh Moulton
+ *
+ *    @author Richard Hugh Moulton
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams.generators.mixturemodel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+/**
+ * Writes streams in WriteMixtureModelStreamToFile's Replay format and checks that
+ * MixtureModelReplayStream replays them exactly: the same rows, bit for bit, the same header and
+ * the generator's options, and that incomplete files are rejected.
+ *
+ * @author Richard Hugh Moulton
+ */
+public class MixtureModelReplayStreamTest
+{
+	private static final int REPLAY = 3;
+	private static final int NUM_ATTS = 4, NUM_INSTANCES = 1000;
+
+	@Test
+	public void replaysTheWrittenRows() throws IOException
+	{
+		MixtureModelGenerator reference = generator();
+		reference.prepareForUse();
+		double[] expected = new double[NUM_INSTANCES*NUM_ATTS];
+		int[] expectedClasses = new int[NUM_INSTANCES];
+		reference.nextBatch(NUM_INSTANCES, expected, expectedClasses);
+
+		File file = File.createTempFile("mixture", ".mmr");
+
+		try
+		{
+			WriteMixtureModelStreamToFileTest.write(generator(), file, REPLAY, NUM_INSTANCES);
+			MixtureModelReplayStream replay = replay(file);
+
+			assertEquals(NUM_ATTS, replay.getNumBatchAttributes());
+			assertEquals(NUM_INSTANCES, replay.estimatedRemainingInstances());
+
+			// The first half one instance at a time, the rest in a batch
+			int half = NUM_INSTANCES/2;
+			for(int r = 0 ; r < half ; r++)
+			{
+				Instance inst = replay.nextInstance().getData();
+
+				for(int i = 0 ; i < NUM_ATTS ; i++)
+				{
+					assertEquals(Double.doubleToRawLongBits(expected[r*NUM_ATTS+i]), Double.doubleToRawLongBits(inst.value(i)));
+				}
+				assertEquals(expectedClasses[r], (int)inst.classValue());
+			}
+
+			double[] actual = new double[(NUM_INSTANCES - half)*NUM_ATTS];
+			int[] actualClasses = new int[NUM_INSTANCES - half];
+			replay.nextBatch(NUM_INSTANCES - half, actual, actualClasses);
+
+			assertBitsEqual(expected, half*NUM_ATTS, actual);
+			for(int r = half ; r < NUM_INSTANCES ; r++)
+			{
+				assertEquals(expectedClasses[r], actualClasses[r - half]);
+			}
+
+			assertFalse(replay.hasMoreInstances());
+			try
+			{
+				replay.nextInstance();
+				fail("Replayed past the last row");
+			}
+			catch(NoSuchElementException e)
+			{
+				// Expected
+			}
+
+			replay.restart();
+			actual = new double[NUM_INSTANCES*NUM_ATTS];
+			actualClasses = new int[NUM_INSTANCES];
+			replay.nextBatch(NUM_INSTANCES, actual, actualClasses);
+
+			assertBitsEqual(expected, 0, actual);
+			assertArrayEquals(expectedClasses, actualClasses);
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	@Test
+	public void recordsTheHeaderAndOptions() throws IOException
+	{
+		MixtureModelGenerator generator = generator();
+		String options = (MixtureModelGenerator.class.getName()+" "+generator.getOptions().getAsCLIString()).trim();
+		MixtureModelGenerator reference = generator();
+		reference.prepareForUse();
+
+		File file = File.createTempFile("mixture", ".mmr");
+
+		try
+		{
+			WriteMixtureModelStreamToFileTest.write(generator, file, REPLAY, 10);
+			MixtureModelReplayStream replay = replay(file);
+
+			assertEquals(options, replay.getGeneratorOptions());
+			assertSameHeader(reference.getHeader(), replay.getHeader());
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	/**
+	 * A drift from five classes to two must be replayed with all five classes declared.
+	 */
+	@Test
+	public void driftReplayDeclaresEveryClass() throws IOException
+	{
+		File file = File.createTempFile("mixture", ".mmr");
+
+		try
+		{
+			MixtureModelGeneratorDrift reference = WriteMixtureModelStreamToFileTest.driftGenerator(5, 2);
+			reference.prepareForUse();
+
+			WriteMixtureModelStreamToFileTest.write(WriteMixtureModelStreamToFileTest.driftGenerator(5, 2), file, REPLAY, 1500);
+			MixtureModelReplayStream replay = replay(file);
+
+			assertSameHeader(reference.getBatchHeader(), replay.getHeader());
+			assertEquals(5, replay.getHeader().numClasses());
+
+			while(replay.hasMoreInstances())
+			{
+				Instance inst = replay.nextInstance().getData();
+				assertTrue(inst.classValue() < replay.getHeader().numClasses());
+			}
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	@Test
+	public void rejectsTruncatedFiles() throws IOException
+	{
+		File file = File.createTempFile("mixture", ".mmr");
+
+		try
+		{
+			WriteMixtureModelStreamToFileTest.write(generator(), file, REPLAY, 100);
+			byte[] bytes = Files.readAllBytes(file.toPath());
+
+			// Lose the trailer and the last rows, as an interrupted copy would
+			try(RandomAccessFile truncated = new RandomAccessFile(file, "rw"))
+			{
+				truncated.setLength(ReplayFormat.DATA_OFFSET + 50*8*(NUM_ATTS+1));
+			}
+			assertRejected(file);
+
+			// A preamble whose row count disagrees with the trailer's position
+			ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putLong(8, 99);
+			Files.write(file.toPath(), bytes);
+			assertRejected(file);
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	private static void assertRejected(File file)
+	{
+		try
+		{
+			replay(file);
+			fail("Accepted the corrupt replay file");
+		}
+		catch(RuntimeException e)
+		{
+			assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+
+	private static void assertSameHeader(InstancesHeader expected, InstancesHeader actual)
+	{
+		assertEquals(expected.getRelationName(), actual.getRelationName());
+		assertEquals(expected.numAttributes(), actual.numAttributes());
+		assertEquals(expected.classIndex(), actual.classIndex());
+
+		for(int i = 0 ; i < expected.numAttributes() ; i++)
+		{
+			assertEquals(expected.attribute(i).name(), actual.attribute(i).name());
+			assertEquals(expected.attribute(i).numValues(), actual.attribute(i).numValues());
+
+			for(int v = 0 ; v < expected.attribute(i).numValues() ; v++)
+			{
+				assertEquals(expected.attribute(i).value(v), actual.attribute(i).value(v));
+			}
+		}
+	}
+
+	private static void assertBitsEqual(double[] expected, int offset, double[] actual)
+	{
+		for(int i = 0 ; i < actual.length ; i++)
+		{
+			assertEquals(Double.doubleToRawLongBits(expected[offset+i]), Double.doubleToRawLongBits(actual[i]));
+		}
+	}
+
+	private static MixtureModelReplayStream replay(File file)
+	{
+		MixtureModelReplayStream replay = new MixtureModelReplayStream();
+		replay.replayFileOption.setValue(file.getPath());
+		replay.prepareForUse();
+		return replay;
+	}
+
+	private static MixtureModelGenerator generator()
+	{
+		MixtureModelGenerator generator = new MixtureModelGenerator();
+		generator.numAttsOption.setValue(NUM_ATTS);
+		generator.numClassesOption.setValue(3);
+		return generator;
+	}
+}
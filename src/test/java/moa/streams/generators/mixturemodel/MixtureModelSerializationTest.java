@@ -0,0 +1,183 @@
+/*
+ *    MixtureModelSerializationTest.java
+ *
+ *    Copyright 2017 Richard Hugh Moulton
+ *
+ *    @author Richard Hugh Moulton
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams.generators.mixturemodel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+/**
+ * Checks MixtureModel's binary format: that writeTo and readFrom round-trip every covariance
+ * structure through streams and buffers, and that files in version 1 of the format, which
+ * predates the covariance structures, are still read.
+ *
+ * @author Richard Hugh Moulton
+ */
+public class MixtureModelSerializationTest
+{
+	private static final int NUM_CLASSES = 3, DIMENSIONS = 7;
+
+	@Test
+	public void roundTripsThroughStreams() throws IOException
+	{
+		for(CovarianceStructure structure : structures())
+		{
+			MixtureModel mm = new MixtureModel(NUM_CLASSES, DIMENSIONS, structure, 1, 2);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			mm.writeTo(out);
+
+			assertEquals(mm.getSerializedSize(), out.size());
+
+			MixtureModel read = MixtureModel.readFrom(new ByteArrayInputStream(out.toByteArray()), 1, 2);
+			assertSameModel(mm, read);
+			assertSameSamples(mm, read);
+		}
+	}
+
+	@Test
+	public void roundTripsThroughBuffers() throws IOException
+	{
+		for(CovarianceStructure structure : structures())
+		{
+			MixtureModel mm = new MixtureModel(NUM_CLASSES, DIMENSIONS, structure, 1, 2);
+			ByteBuffer buffer = ByteBuffer.allocate((int)mm.getSerializedSize() + 8).order(ByteOrder.BIG_ENDIAN);
+			buffer.putInt(42);
+			mm.writeTo(buffer);
+			buffer.putInt(43);
+			buffer.flip();
+
+			assertEquals(42, buffer.getInt());
+			MixtureModel read = MixtureModel.readFrom(buffer, 1, 2);
+			assertEquals(43, buffer.getInt());
+			assertEquals(ByteOrder.BIG_ENDIAN, buffer.order());
+
+			assertSameModel(mm, read);
+		}
+	}
+
+	/**
+	 * Version 1 of the format has no covariance structure and stores the lower triangle of each
+	 * full L, so it must be read as full covariance matrices.
+	 */
+	@Test
+	public void readsVersionOne() throws IOException
+	{
+		MixtureModel mm = new MixtureModel(NUM_CLASSES, DIMENSIONS, 1, 2);
+		int triangle = (DIMENSIONS*(DIMENSIONS+1))/2;
+		ByteBuffer buffer = ByteBuffer.allocate(16 + 8*NUM_CLASSES*(1 + DIMENSIONS + triangle)).order(ByteOrder.LITTLE_ENDIAN);
+
+		buffer.putInt(0x4D4D4F44).putInt(1).putInt(DIMENSIONS).putInt(NUM_CLASSES);
+
+		for(int i = 0 ; i < NUM_CLASSES ; i++)
+		{
+			buffer.putDouble(mm.getWeight(i));
+		}
+		for(int i = 0 ; i < NUM_CLASSES ; i++)
+		{
+			for(double mean : mm.getMeans(i))
+			{
+				buffer.putDouble(mean);
+			}
+		}
+		for(int i = 0 ; i < NUM_CLASSES ; i++)
+		{
+			double[][] l = mm.getL(i);
+
+			for(int j = 0 ; j < DIMENSIONS ; j++)
+			{
+				for(int k = 0 ; k <= j ; k++)
+				{
+					buffer.putDouble(l[j][k]);
+				}
+			}
+		}
+
+		MixtureModel read = MixtureModel.readFrom(new ByteArrayInputStream(buffer.array()), 1, 2);
+
+		assertEquals(CovarianceStructure.full(), read.getStructure());
+		assertSameModel(mm, read);
+		assertSameSamples(mm, read);
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsOtherData() throws IOException
+	{
+		MixtureModel.readFrom(new ByteArrayInputStream(new byte[64]), 1, 2);
+	}
+
+	private static CovarianceStructure[] structures()
+	{
+		return new CovarianceStructure[]{CovarianceStructure.full(),
+				new CovarianceStructure(CovarianceStructure.DIAGONAL, 0),
+				new CovarianceStructure(CovarianceStructure.BANDED, 2),
+				new CovarianceStructure(CovarianceStructure.BLOCK_DIAGONAL, 3),
+				new CovarianceStructure(CovarianceStructure.LOW_RANK, 2)};
+	}
+
+	private static void assertSameModel(MixtureModel expected, MixtureModel actual)
+	{
+		assertEquals(expected.getStructure(), actual.getStructure());
+		assertEquals(expected.getNumModels(), actual.getNumModels());
+		assertEquals(expected.getDimensions(), actual.getDimensions());
+		assertArrayEquals(expected.getWeights(), actual.getWeights(), 0.0);
+
+		for(int i = 0 ; i < expected.getNumModels() ; i++)
+		{
+			assertArrayEquals(expected.getMeans(i), actual.getMeans(i), 0.0);
+
+			double[][] covariance = expected.getCovariance(i);
+			double[][] readCovariance = actual.getCovariance(i);
+
+			for(int j = 0 ; j < expected.getDimensions() ; j++)
+			{
+				assertArrayEquals(covariance[j], readCovariance[j], 0.0);
+			}
+		}
+	}
+
+	/**
+	 * Both models, restarted with the same seeds, must generate the same points.
+	 */
+	private static void assertSameSamples(MixtureModel expected, MixtureModel actual)
+	{
+		int n = 100;
+		double[] expectedPoints = new double[n*DIMENSIONS];
+		double[] actualPoints = new double[n*DIMENSIONS];
+		int[] expectedLabels = new int[n];
+		int[] actualLabels = new int[n];
+
+		expected.restart(5, 6);
+		actual.restart(5, 6);
+		expected.sampleBatch(n, expectedPoints, expectedLabels);
+		actual.sampleBatch(n, actualPoints, actualLabels);
+
+		assertArrayEquals(expectedLabels, actualLabels);
+		assertArrayEquals(expectedPoints, actualPoints, 0.0);
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ *    MixtureModelSinglePrecisionTest.java
+ *
+ *    Copyright 2017 Richard Hugh Moulton
+ *
+ *    @author Richard Hugh Moulton
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams.generators.mixturemodel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks MixtureModel's single precision sampling against the double precision path.
+ *
+ * @author Richard Hugh Moulton
+ */
+public class MixtureModelSinglePrecisionTest
+{
+	private static final int NUM_CLASSES = 4, DIMENSIONS = 20, NUM_POINTS = 2000;
+
+	/**
+	 * Single precision samples must follow the double precision ones, class by class, and differ
+	 * from them by no more than the tolerance, measured as setSinglePrecision measures it.
+	 */
+	@Test
+	public void singlePrecisionSamplesMatchDoublePrecision()
+	{
+		MixtureModel doubleModel = new MixtureModel(NUM_CLASSES, DIMENSIONS, 3, 5);
+		MixtureModel floatModel = new MixtureModel(NUM_CLASSES, DIMENSIONS, 3, 5);
+
+		assertTrue(floatModel.setSinglePrecision(true, MixtureModel.SINGLE_PRECISION_TOLERANCE));
+		assertTrue(floatModel.isSinglePrecision());
+		assertTrue(floatModel.getSinglePrecisionError() <= MixtureModel.SINGLE_PRECISION_TOLERANCE);
+
+		double[] expected = new double[NUM_POINTS*DIMENSIONS];
+		double[] actual = new double[NUM_POINTS*DIMENSIONS];
+		int[] expectedLabels = new int[NUM_POINTS];
+		int[] actualLabels = new int[NUM_POINTS];
+
+		doubleModel.sampleBatch(NUM_POINTS, expected, expectedLabels);
+		floatModel.sampleBatch(NUM_POINTS, actual, actualLabels);
+
+		assertArrayEquals(expectedLabels, actualLabels);
+
+		for(int i = 0 ; i < expected.length ; i++)
+		{
+			double error = Math.abs(actual[i] - expected[i])/Math.max(1.0, Math.abs(expected[i]));
+			assertTrue("Coordinate "+i+" differs by "+error, error <= MixtureModel.SINGLE_PRECISION_TOLERANCE);
+		}
+	}
+
+	/**
+	 * The float[] overload of sampleBatch must write the double[] overload's points, rounded.
+	 */
+	@Test
+	public void floatBuffersHoldRoundedSamples()
+	{
+		MixtureModel mm = new MixtureModel(NUM_CLASSES, DIMENSIONS, 7, 11);
+		assertTrue(mm.setSinglePrecision(true, MixtureModel.SINGLE_PRECISION_TOLERANCE));
+
+		double[] expected = new double[NUM_POINTS*DIMENSIONS];
+		float[] actual = new float[NUM_POINTS*DIMENSIONS];
+		int[] expectedLabels = new int[NUM_POINTS];
+		int[] actualLabels = new int[NUM_POINTS];
+
+		mm.sampleBatch(NUM_POINTS, expected, expectedLabels);
+		mm.restart(7, 11);
+		mm.sampleBatch(NUM_POINTS, actual, actualLabels);
+
+		assertArrayEquals(expectedLabels, actualLabels);
+
+		for(int i = 0 ; i < expected.length ; i++)
+		{
+			assertEquals((float)expected[i], actual[i], 0.0);
+		}
+	}
+
+	/**
+	 * A tolerance no rounding can meet must leave the model in double precision, sampling as before.
+	 */
+	@Test
+	public void zeroToleranceKeepsDoublePrecision()
+	{
+		MixtureModel doubleModel = new MixtureModel(NUM_CLASSES, DIMENSIONS, 3, 5);
+		MixtureModel checkedModel = new MixtureModel(NUM_CLASSES, DIMENSIONS, 3, 5);
+
+		assertFalse(checkedModel.setSinglePrecision(true, 0.0));
+		assertFalse(checkedModel.isSinglePrecision());
+		assertTrue(checkedModel.getSinglePrecisionError() > 0.0);
+
+		double[] expected = new double[NUM_POINTS*DIMENSIONS];
+		double[] actual = new double[NUM_POINTS*DIMENSIONS];
+		int[] labels = new int[NUM_POINTS];
+
+		doubleModel.sampleBatch(NUM_POINTS, expected, labels);
+		checkedModel.sampleBatch(NUM_POINTS, actual, labels);
+
+		assertArrayEquals(expected, actual, 0.0);
+	}
+
+	/**
+	 * Only full covariance matrices are stored in single precision.
+	 */
+	@Test
+	public void structuredModelsStayInDoublePrecision()
+	{
+		MixtureModel mm = new MixtureModel(NUM_CLASSES, DIMENSIONS, new CovarianceStructure(CovarianceStructure.BANDED, 2), 3, 5);
+
+		assertFalse(mm.setSinglePrecision(true, MixtureModel.SINGLE_PRECISION_TOLERANCE));
+		assertFalse(mm.isSinglePrecision());
+	}
+}
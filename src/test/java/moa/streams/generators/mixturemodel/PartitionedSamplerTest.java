@@ -0,0 +1,154 @@
+/*
+ *    PartitionedSamplerTest.java
+ *
+ *    Copyright 2017 Richard Hugh Moulton
+ *
+ *    @author Richard Hugh Moulton
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams.generators.mixturemodel;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+/**
+ * Checks that a partitioned stream is reproducible: the same for a given seed and number of
+ * partitions whatever the number of threads, and again after a restart.
+ *
+ * @author Richard Hugh Moulton
+ */
+public class PartitionedSamplerTest
+{
+	private static final int NUM_CLASSES = 4, DIMENSIONS = 6, NUM_PARTITIONS = 8;
+
+	/** Three rounds and a bit, so that the stream crosses rounds drawn ahead by the workers. */
+	private static final int NUM_POINTS = 3*NUM_PARTITIONS*PartitionedSampler.BLOCK_SIZE + 1000;
+
+	/** Batch sizes that straddle the blocks' and the rounds' boundaries. */
+	private static final int[] BATCH_SIZES = {1, 4095, 7, PartitionedSampler.BLOCK_SIZE, 10000, 333};
+
+	@Test
+	public void sameStreamWhateverTheNumberOfThreads()
+	{
+		MixtureModel mm = new MixtureModel(NUM_CLASSES, DIMENSIONS, 1, 1);
+		PartitionedSampler sequential = new PartitionedSampler(mm, NUM_PARTITIONS, 1, 42);
+		PartitionedSampler parallel = new PartitionedSampler(mm, NUM_PARTITIONS, 4, 42);
+
+		try
+		{
+			double[] expected = new double[NUM_POINTS*DIMENSIONS];
+			int[] expectedLabels = new int[NUM_POINTS];
+			sequential.sampleBatch(NUM_POINTS, expected, expectedLabels);
+
+			assertSameStream(expected, expectedLabels, parallel);
+		}
+		finally
+		{
+			sequential.shutdown();
+			parallel.shutdown();
+		}
+	}
+
+	@Test
+	public void restartRewindsTheStream()
+	{
+		MixtureModel mm = new MixtureModel(NUM_CLASSES, DIMENSIONS, 1, 1);
+		PartitionedSampler sampler = new PartitionedSampler(mm, NUM_PARTITIONS, 4, 42);
+
+		try
+		{
+			double[] expected = new double[NUM_POINTS*DIMENSIONS];
+			int[] expectedLabels = new int[NUM_POINTS];
+			sampler.sampleBatch(NUM_POINTS, expected, expectedLabels);
+
+			// Restart while the workers are drawing the next round
+			sampler.restart();
+			assertSameStream(expected, expectedLabels, sampler);
+		}
+		finally
+		{
+			sampler.shutdown();
+		}
+	}
+
+	/**
+	 * The generator's stream, through both nextBatch and restart, must not depend on numThreads.
+	 */
+	@Test
+	public void generatorStreamDoesNotDependOnThreads()
+	{
+		MixtureModelGenerator sequential = generator(1);
+		MixtureModelGenerator parallel = generator(4);
+		double[] expected = new double[NUM_POINTS*DIMENSIONS];
+		double[] actual = new double[NUM_POINTS*DIMENSIONS];
+		int[] expectedLabels = new int[NUM_POINTS];
+		int[] actualLabels = new int[NUM_POINTS];
+
+		sequential.nextBatch(NUM_POINTS, expected, expectedLabels);
+		parallel.nextBatch(NUM_POINTS, actual, actualLabels);
+
+		assertArrayEquals(expectedLabels, actualLabels);
+		assertArrayEquals(expected, actual, 0.0);
+
+		parallel.restart();
+		parallel.nextBatch(NUM_POINTS, actual, actualLabels);
+
+		assertArrayEquals(expectedLabels, actualLabels);
+		assertArrayEquals(expected, actual, 0.0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void oversizedRoundsAreRefused()
+	{
+		PartitionedSampler.checkRoundSize(1024, 1 << 20);
+	}
+
+	/**
+	 * Reads NUM_POINTS points from the sampler in batches of uneven sizes and compares them with
+	 * the expected ones.
+	 */
+	private static void assertSameStream(double[] expected, int[] expectedLabels, PartitionedSampler sampler)
+	{
+		double[] actual = new double[NUM_POINTS*DIMENSIONS];
+		int[] actualLabels = new int[NUM_POINTS];
+		double[] features = new double[10000*DIMENSIONS];
+		int[] labels = new int[10000];
+
+		for(int read = 0, b = 0 ; read < NUM_POINTS ; b++)
+		{
+			int n = Math.min(BATCH_SIZES[b%BATCH_SIZES.length], NUM_POINTS - read);
+			sampler.sampleBatch(n, features, labels);
+			System.arraycopy(features, 0, actual, read*DIMENSIONS, n*DIMENSIONS);
+			System.arraycopy(labels, 0, actualLabels, read, n);
+			read += n;
+		}
+
+		assertArrayEquals(expectedLabels, actualLabels);
+		assertArrayEquals(expected, actual, 0.0);
+	}
+
+	private static MixtureModelGenerator generator(int numThreads)
+	{
+		MixtureModelGenerator generator = new MixtureModelGenerator();
+		generator.numAttsOption.setValue(DIMENSIONS);
+		generator.numClassesOption.setValue(NUM_CLASSES);
+		generator.numPartitionsOption.setValue(NUM_PARTITIONS);
+		generator.numThreadsOption.setValue(numThreads);
+		generator.prepareForUse();
+		return generator;
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ *    WriteMixtureModelStreamToFileTest.java
+ *
+ *    Copyright 2017 Richard Hugh Moulton
+ *
+ *    @author Richard Hugh Moulton
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams.generators.mixturemodel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+/**
+ * Checks WriteMixtureModelStreamToFile's number formatting and its ARFF and CSV output against
+ * the instances the stream's nextInstance returns.
+ *
+ * @author Richard Hugh Moulton
+ */
+public class WriteMixtureModelStreamToFileTest
+{
+	private static final int ARFF = 0, CSV = 1;
+	private static final int DECIMALS = 6;
+
+	/** Each value, the number of decimals and the text formatDouble must write. */
+	private static final Object[][] FORMAT_CASES = {
+			{0.0, 6, "0"},
+			{1.0, 6, "1"},
+			{1.5, 6, "1.5"},
+			{-1.5, 6, "-1.5"},
+			{0.05, 6, "0.05"},
+			{123.456789, 3, "123.457"},
+			{9.9999999, 6, "10"},
+			{-0.0000006, 6, "-0.000001"},
+			{1.25, 1, "1.3"},
+			{-1.25, 1, "-1.3"},
+			{2.5, 0, "3"},
+			{1.5, 15, "1.5"},
+			// Negative zero, and negative values that round to zero, are written without a sign
+			{-0.0, 6, "0"},
+			{-0.0000004, 6, "0"},
+			{Double.NaN, 6, "?"},
+			// Values whose scaled magnitude reaches 9e18 fall back to Double.toString
+			{8.9e12, 6, "8900000000000"},
+			{1.0e13, 6, "1.0E13"},
+			{-1.0e300, 0, "-1.0E300"},
+			{Double.POSITIVE_INFINITY, 6, "Infinity"},
+			{Double.NEGATIVE_INFINITY, 6, "-Infinity"}};
+
+	@Test
+	public void formatDoubleWritesEachCase()
+	{
+		for(Object[] formatCase : FORMAT_CASES)
+		{
+			double value = (Double)formatCase[0];
+			int decimals = (Integer)formatCase[1];
+			byte[] out = new byte[40];
+
+			// Write after some bytes to check that the position is honoured
+			int end = WriteMixtureModelStreamToFile.formatDouble(value, decimals, out, 3);
+			String text = new String(out, 3, end - 3, StandardCharsets.US_ASCII);
+
+			assertEquals(value+" with "+decimals+" decimals", formatCase[2], text);
+			assertEquals(value+" wrote before its position", 0, out[0]);
+		}
+	}
+
+	@Test
+	public void csvRowsMatchNextInstance() throws IOException
+	{
+		MixtureModelGenerator reference = generator();
+		reference.prepareForUse();
+
+		assertRowsMatchNextInstance(generator(), reference, CSV, 2000);
+	}
+
+	@Test
+	public void arffRowsMatchNextInstance() throws IOException
+	{
+		MixtureModelGenerator reference = generator();
+		reference.prepareForUse();
+
+		assertRowsMatchNextInstance(generator(), reference, ARFF, 2000);
+	}
+
+	/**
+	 * A drift from five classes to two must declare all five classes throughout, and its rows must
+	 * cover the burn-in, the drift and the post-concept drift instances.
+	 */
+	@Test
+	public void driftStreamDeclaresEveryClass() throws IOException
+	{
+		for(int format : new int[]{ARFF, CSV})
+		{
+			MixtureModelGeneratorDrift reference = driftGenerator(5, 2);
+			reference.prepareForUse();
+
+			assertEquals(5, reference.getBatchHeader().numClasses());
+			assertRowsMatchNextInstance(driftGenerator(5, 2), reference, format, 1500);
+		}
+	}
+
+	/**
+	 * Writes the stream to a file in the argument format and compares the file with the rows that
+	 * an identical, prepared stream returns from nextInstance.
+	 */
+	private static void assertRowsMatchNextInstance(BatchInstanceStream stream, BatchInstanceStream reference, int format,
+			int numInstances) throws IOException
+	{
+		File file = File.createTempFile("mixture", (format == ARFF) ? ".arff" : ".csv");
+
+		try
+		{
+			write(stream, file, format, numInstances);
+
+			String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+			InstancesHeader header = reference.getBatchHeader();
+			String preamble = (format == ARFF) ? header.toString() : csvHeader(header);
+
+			assertTrue("The file must start with the stream's header", text.startsWith(preamble));
+
+			String[] lines = text.substring(preamble.length()).split("\n");
+			assertEquals(numInstances, lines.length);
+
+			for(String line : lines)
+			{
+				Instance inst = reference.nextInstance().getData();
+				String[] values = line.split(",");
+				assertEquals(header.numAttributes(), values.length);
+
+				for(int i = 0 ; i < values.length - 1 ; i++)
+				{
+					assertEquals(line, inst.value(i), Double.parseDouble(values[i]), 0.5e-6 + 1e-12*Math.abs(inst.value(i)));
+				}
+
+				assertEquals(header.classAttribute().value((int)inst.classValue()), values[values.length - 1]);
+			}
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	static void write(BatchInstanceStream stream, File file, int format, int maxInstances)
+	{
+		WriteMixtureModelStreamToFile task = new WriteMixtureModelStreamToFile();
+		task.streamOption.setCurrentObject(stream);
+		task.fileOption.setValue(file.getPath());
+		task.formatOption.setChosenIndex(format);
+		task.maxInstancesOption.setValue(maxInstances);
+		task.decimalsOption.setValue(DECIMALS);
+		task.doTask();
+	}
+
+	private static String csvHeader(InstancesHeader header)
+	{
+		StringBuilder sb = new StringBuilder();
+
+		for(int i = 0 ; i < header.numAttributes() ; i++)
+		{
+			sb.append((i > 0) ? "," : "").append(header.attribute(i).name());
+		}
+
+		return sb.append('\n').toString();
+	}
+
+	private static MixtureModelGenerator generator()
+	{
+		MixtureModelGenerator generator = new MixtureModelGenerator();
+		generator.numAttsOption.setValue(3);
+		generator.numClassesOption.setValue(3);
+		return generator;
+	}
+
+	/**
+	 * @return an unprepared drift generator whose drift starts at instance 500 and lasts 500 instances
+	 */
+	static MixtureModelGeneratorDrift driftGenerator(int numClassesPre, int numClassesPost)
+	{
+		MixtureModelGeneratorDrift generator = new MixtureModelGeneratorDrift();
+		generator.numClassesPreOption.setValue(numClassesPre);
+		generator.numClassesPostOption.setValue(numClassesPost);
+		generator.burnInInstances.setValue(500);
+		generator.driftDuration.setValue(500);
+		generator.precisionDriftMagnitude.setValue(0.1);
+		return generator;
+	}
+}